@@ -0,0 +1,30 @@
+package pt.utl.ist.fenix.tools.spreadsheet.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Runs the spreadsheet benchmarks with the
+ * GC profiler (allocation rate) and the {@link PeakHeapProfiler} enabled.
+ * Every regular JMH command line option is accepted, for instance:
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar -p format=CSV -p height=10000 -rf json
+ * </pre>
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(SpreadsheetBuilderBenchmark.class.getName());
+        }
+        Options options = builder.addProfiler(GCProfiler.class).addProfiler(PeakHeapProfiler.class).parent(commandLine).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,92 @@
+package pt.utl.ist.fenix.tools.spreadsheet.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.utl.ist.fenix.tools.spreadsheet.SheetData;
+import pt.utl.ist.fenix.tools.spreadsheet.SpreadsheetBuilder;
+import pt.utl.ist.fenix.tools.spreadsheet.WorkbookExportFormat;
+import pt.utl.ist.fenix.tools.spreadsheet.benchmark.SyntheticSheetData.TypeMix;
+import pt.utl.ist.fenix.tools.spreadsheet.converters.excel.MultiLanguageStringCellConverter;
+import pt.utl.ist.fenix.tools.util.i18n.MultiLanguageString;
+
+/**
+ * Throughput of {@link SpreadsheetBuilder} for every {@link WorkbookExportFormat}. Besides the raw operation rate, the
+ * {@link RowCounter} reports the number of data rows written per second, which is comparable across sheet sizes. Run through
+ * {@link BenchmarkMain} to also get allocation rate and peak heap usage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class SpreadsheetBuilderBenchmark {
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RowCounter {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+
+    @Param({ "EXCEL", "CSV", "TSV", "DOCX" })
+    public WorkbookExportFormat format;
+
+    @Param({ "100", "10000" })
+    public int height;
+
+    @Param({ "5", "50" })
+    public int width;
+
+    @Param({ "STRINGS", "NUMBERS", "DATES", "I18N", "MIXED" })
+    public TypeMix mix;
+
+    private SheetData<Object[]> data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data = new SyntheticSheetData(height, width, mix);
+    }
+
+    private SpreadsheetBuilder builder(SheetData<?> sheet) {
+        return new SpreadsheetBuilder().addConverter(MultiLanguageString.class,
+                new MultiLanguageStringCellConverter(MultiLanguageString.pt)).addSheet("benchmark", sheet);
+    }
+
+    /**
+     * Conversion, styling and serialization of already populated sheet data.
+     */
+    @Benchmark
+    public void build(RowCounter counter) throws IOException {
+        builder(data).build(format, new NullOutputStream());
+        counter.rows += height;
+    }
+
+    /**
+     * Whole pipeline, including the population of the sheet through {@link SheetData#makeLine(Object)}.
+     */
+    @Benchmark
+    public void makeLinesAndBuild(RowCounter counter) throws IOException {
+        builder(new SyntheticSheetData(height, width, mix)).build(format, new NullOutputStream());
+        counter.rows += height;
+    }
+}
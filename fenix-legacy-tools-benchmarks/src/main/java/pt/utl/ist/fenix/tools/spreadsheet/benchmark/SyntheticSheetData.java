@@ -0,0 +1,71 @@
+package pt.utl.ist.fenix.tools.spreadsheet.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+
+import pt.utl.ist.fenix.tools.spreadsheet.Formula;
+import pt.utl.ist.fenix.tools.spreadsheet.SheetData;
+import pt.utl.ist.fenix.tools.util.i18n.MultiLanguageString;
+
+/**
+ * {@link SheetData} filled with generated rows, used to feed the spreadsheet
+ * benchmarks. The contents of each column are chosen according to a
+ * {@link TypeMix}, and generation is seeded so that every run writes exactly
+ * the same data.
+ */
+public class SyntheticSheetData extends SheetData<Object[]> {
+    public static enum TypeMix {
+        STRINGS, NUMBERS, DATES, I18N, MIXED;
+
+        Object generate(Random random, int column, int columns) {
+            switch (this) {
+            case STRINGS:
+                return "value " + random.nextInt(100000);
+            case NUMBERS:
+                return new BigDecimal(random.nextInt(1000000)).movePointLeft(2);
+            case DATES:
+                return new DateTime(2000, 1, 1, 0, 0, 0, 0).plusMinutes(random.nextInt(10000000));
+            case I18N:
+                return new MultiLanguageString(MultiLanguageString.pt, "valor " + random.nextInt(100000)).with(
+                        MultiLanguageString.en, "value " + random.nextInt(100000));
+            case MIXED:
+                if (column == columns - 1) {
+                    return Formula.SUM;
+                }
+                return values()[column % (values().length - 1)].generate(random, column, columns);
+            default:
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private static final long SEED = 1L;
+
+    public SyntheticSheetData(int rows, int columns, TypeMix mix) {
+        super(generate(rows, columns, mix));
+    }
+
+    private static List<Object[]> generate(int rows, int columns, TypeMix mix) {
+        Random random = new Random(SEED);
+        List<Object[]> items = new ArrayList<Object[]>(rows);
+        for (int i = 0; i < rows; i++) {
+            Object[] item = new Object[columns];
+            for (int j = 0; j < columns; j++) {
+                item[j] = mix.generate(random, j, columns);
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    @Override
+    protected void makeLine(Object[] item) {
+        for (int i = 0; i < item.length; i++) {
+            addCell("Column " + i, item[i]);
+        }
+    }
+}
@@ -8,15 +8,26 @@ import pt.utl.ist.fenix.tools.spreadsheet.converters.CellConverter;
 class AbstractSheetBuilder {
     protected final Map<Class<?>, CellConverter> converters = new HashMap<Class<?>, CellConverter>();
 
+    protected ExportMonitor monitor = new ExportMonitor(null, null);
+
     protected Object convert(Object content) {
-        if (converters.containsKey(content.getClass())) {
+        long start = monitor.start();
+        try {
             CellConverter converter = converters.get(content.getClass());
-            return converter.convert(content);
+            if (converter != null) {
+                return converter.convert(content);
+            }
+            return content;
+        } finally {
+            monitor.stop(ExportPhase.CONVERSION, start);
         }
-        return content;
     }
 
     protected void addConverter(Class<?> type, CellConverter converter) {
         converters.put(type, converter);
     }
+
+    protected void setMonitor(ExportMonitor monitor) {
+        this.monitor = monitor;
+    }
 }
@@ -11,6 +11,7 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
@@ -47,10 +48,12 @@ class CsvBuilder extends AbstractSheetBuilder {
     }
 
     public void build(Map<String, SheetData<?>> sheets, OutputStream output, String separator) throws IOException {
-        OutputStreamWriter writer = new OutputStreamWriter(output);
+        OutputStreamWriter writer = new OutputStreamWriter(monitor.monitor(output));
         try {
             List<String> lines = new ArrayList<String>();
-            for (SheetData<?> data : sheets.values()) {
+            for (Entry<String, SheetData<?>> entry : sheets.entrySet()) {
+                SheetData<?> data = entry.getValue();
+                monitor.sheetStarted(entry.getKey(), data);
                 if (!data.headers.get(0).isEmpty()) {
                     for (List<Cell> headerRow : data.headers) {
                         List<String> column = new ArrayList<String>();
@@ -72,12 +75,23 @@ class CsvBuilder extends AbstractSheetBuilder {
                         }
                     }
                     lines.add(StringUtils.join(column, separator));
+                    monitor.rowWritten();
                 }
+                monitor.sheetFinished();
             }
+            long start = monitor.start();
             writer.write(StringUtils.join(lines, "\n"));
-        } finally {
             writer.flush();
-            writer.close();
+            monitor.stop(ExportPhase.SERIALIZATION, start);
+            monitor.exportFinished();
+        } finally {
+            try {
+                writer.close();
+            } finally {
+                // once cancelled, the writer cannot flush what it still holds
+                // through the monitored stream, and then leaves it open
+                output.close();
+            }
         }
     }
 }
@@ -128,6 +128,7 @@ class DocxBuilder extends AbstractSheetBuilder {
     }
 
     protected void setValue(XSSFWorkbook book, XSSFCell cell, Object value, short span) {
+        long start = monitor.start();
         XComposedCellStyle style = new XComposedCellStyle();
         if (!rowStyles.isEmpty()) {
             style.merge(rowStyles.get(cell.getRowIndex() % rowStyles.size()));
@@ -135,7 +136,9 @@ class DocxBuilder extends AbstractSheetBuilder {
         if (value != null && typeStyles.containsKey(value.getClass())) {
             style.merge(typeStyles.get(value.getClass()));
         }
-        setValue(book, cell, value, span, styleCache.getStyle(style));
+        XSSFCellStyle cellStyle = styleCache.getStyle(style);
+        monitor.stop(ExportPhase.STYLING, start);
+        setValue(book, cell, value, span, cellStyle);
     }
 
     private void setValue(XSSFWorkbook book, XSSFCell cell, Object value, short span, XSSFCellStyle style) {
@@ -181,6 +184,7 @@ class DocxBuilder extends AbstractSheetBuilder {
                 int colnum = 0;
 
                 SheetData<?> data = entry.getValue();
+                monitor.sheetStarted(entry.getKey(), data);
                 if (!data.headers.get(0).isEmpty()) {
                     for (List<Cell> headerRow : data.headers) {
                         colnum = 0;
@@ -199,6 +203,7 @@ class DocxBuilder extends AbstractSheetBuilder {
                         setValue(book, row.createCell(colnum++), cell.value, cell.span);
                         colnum = colnum + cell.span - 1;
                     }
+                    monitor.rowWritten();
                 }
                 usefulAreaEnd = rownum - 1;
                 if (data.hasFooter()) {
@@ -209,11 +214,18 @@ class DocxBuilder extends AbstractSheetBuilder {
                         colnum = colnum + cell.span - 1;
                     }
                 }
+                long start = monitor.start();
                 for (int i = 0; i < sheet.getLastRowNum(); i++) {
+                    monitor.checkCancelled();
                     sheet.autoSizeColumn(i);
                 }
+                monitor.stop(ExportPhase.AUTO_SIZE, start);
+                monitor.sheetFinished();
             }
-            book.write(output);
+            long start = monitor.start();
+            book.write(monitor.monitor(output));
+            monitor.stop(ExportPhase.SERIALIZATION, start);
+            monitor.exportFinished();
         } finally {
             output.flush();
             output.close();
@@ -125,6 +125,7 @@ class ExcelBuilder extends AbstractSheetBuilder {
     }
 
     protected void setValue(HSSFWorkbook book, HSSFCell cell, Object value, short span) {
+        long start = monitor.start();
         ComposedCellStyle style = new ComposedCellStyle();
         if (!rowStyles.isEmpty()) {
             style.merge(rowStyles.get(cell.getRowIndex() % rowStyles.size()));
@@ -132,7 +133,9 @@ class ExcelBuilder extends AbstractSheetBuilder {
         if (value != null && typeStyles.containsKey(value.getClass())) {
             style.merge(typeStyles.get(value.getClass()));
         }
-        setValue(book, cell, value, span, styleCache.getStyle(style));
+        HSSFCellStyle cellStyle = styleCache.getStyle(style);
+        monitor.stop(ExportPhase.STYLING, start);
+        setValue(book, cell, value, span, cellStyle);
     }
 
     private void setValue(HSSFWorkbook book, HSSFCell cell, Object value, short span, HSSFCellStyle style) {
@@ -177,6 +180,7 @@ class ExcelBuilder extends AbstractSheetBuilder {
                 int colnum = 0;
 
                 SheetData<?> data = entry.getValue();
+                monitor.sheetStarted(entry.getKey(), data);
                 if (!data.headers.get(0).isEmpty()) {
                     for (List<Cell> headerRow : data.headers) {
                         colnum = 0;
@@ -195,6 +199,7 @@ class ExcelBuilder extends AbstractSheetBuilder {
                         setValue(book, row.createCell(colnum++), cell.value, cell.span);
                         colnum = colnum + cell.span - 1;
                     }
+                    monitor.rowWritten();
                 }
                 usefulAreaEnd = rownum - 1;
                 if (data.hasFooter()) {
@@ -205,11 +210,18 @@ class ExcelBuilder extends AbstractSheetBuilder {
                         colnum = colnum + cell.span - 1;
                     }
                 }
+                long start = monitor.start();
                 for (int i = 0; i < sheet.getLastRowNum(); i++) {
+                    monitor.checkCancelled();
                     sheet.autoSizeColumn(i);
                 }
+                monitor.stop(ExportPhase.AUTO_SIZE, start);
+                monitor.sheetFinished();
             }
-            book.write(output);
+            long start = monitor.start();
+            book.write(monitor.monitor(output));
+            monitor.stop(ExportPhase.SERIALIZATION, start);
+            monitor.exportFinished();
         } finally {
             output.flush();
             output.close();
@@ -0,0 +1,20 @@
+package pt.utl.ist.fenix.tools.spreadsheet;
+
+/**
+ * Allows an export in progress to be aborted from another thread, for instance when the client that requested it goes
+ * away. The export checks the token for every row and every write in the output, and fails with an
+ * {@link java.io.InterruptedIOException} once it is cancelled.
+ * 
+ * @see SpreadsheetBuilder#setCancellationToken(ExportCancellationToken)
+ */
+public class ExportCancellationToken {
+    private volatile boolean cancelled = false;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
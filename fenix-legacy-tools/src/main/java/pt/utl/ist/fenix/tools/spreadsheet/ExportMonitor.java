@@ -0,0 +1,102 @@
+package pt.utl.ist.fenix.tools.spreadsheet;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Bookkeeping of progress, timings and cancellation on behalf of the sheet builders. Timings are only measured when
+ * there is someone listening.
+ */
+class ExportMonitor {
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    private final ExportProgressListener listener;
+
+    private final ExportCancellationToken token;
+
+    private final ExportTimings total = new ExportTimings();
+
+    private ExportTimings current = total;
+
+    private String sheet;
+
+    private int rows;
+
+    ExportMonitor(ExportProgressListener listener, ExportCancellationToken token) {
+        this.listener = listener;
+        this.token = token;
+    }
+
+    long start() {
+        return listener != null ? System.nanoTime() : 0;
+    }
+
+    void stop(ExportPhase phase, long start) {
+        if (listener != null) {
+            current.add(phase, System.nanoTime() - start);
+        }
+    }
+
+    void checkCancelled() throws InterruptedIOException {
+        if ((token != null && token.isCancelled()) || Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Spreadsheet export cancelled");
+        }
+    }
+
+    void sheetStarted(String name, SheetData<?> data) throws InterruptedIOException {
+        checkCancelled();
+        sheet = name;
+        rows = 0;
+        current = new ExportTimings();
+        current.add(ExportPhase.MAKE_LINE, data.makeLineTime);
+    }
+
+    void rowWritten() throws InterruptedIOException {
+        rows++;
+        if (listener != null && rows % PROGRESS_INTERVAL == 0) {
+            listener.rowsWritten(sheet, rows);
+        }
+        checkCancelled();
+    }
+
+    void sheetFinished() {
+        if (listener != null) {
+            if (rows % PROGRESS_INTERVAL != 0) {
+                listener.rowsWritten(sheet, rows);
+            }
+            listener.sheetFinished(sheet, current);
+        }
+        total.addAll(current);
+        current = total;
+    }
+
+    void exportFinished() {
+        if (listener != null) {
+            listener.exportFinished(total);
+        }
+    }
+
+    /**
+     * Wraps the output so that cancellation is also honoured while the document is being serialized.
+     */
+    OutputStream monitor(OutputStream output) {
+        if (token == null) {
+            return output;
+        }
+        return new FilterOutputStream(output) {
+            @Override
+            public void write(int b) throws IOException {
+                checkCancelled();
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                checkCancelled();
+                out.write(b, off, len);
+            }
+        };
+    }
+}
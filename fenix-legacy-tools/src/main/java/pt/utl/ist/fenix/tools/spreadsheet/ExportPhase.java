@@ -0,0 +1,31 @@
+package pt.utl.ist.fenix.tools.spreadsheet;
+
+/**
+ * Stages of a spreadsheet export whose time is measured and reported to an {@link ExportProgressListener}.
+ */
+public enum ExportPhase {
+    /**
+     * Population of the sheet rows through {@link SheetData#makeLine(Object)}.
+     */
+    MAKE_LINE,
+
+    /**
+     * Conversion of cell values through the registered converters and writing them in the cells.
+     */
+    CONVERSION,
+
+    /**
+     * Composition and lookup of cell styles.
+     */
+    STYLING,
+
+    /**
+     * Automatic sizing of the sheet columns.
+     */
+    AUTO_SIZE,
+
+    /**
+     * Writing of the final document into the output stream.
+     */
+    SERIALIZATION;
+}
@@ -0,0 +1,36 @@
+package pt.utl.ist.fenix.tools.spreadsheet;
+
+/**
+ * Receives progress notifications of a {@link SpreadsheetBuilder} export.
+ * 
+ * @see SpreadsheetBuilder#setProgressListener(ExportProgressListener)
+ */
+public interface ExportProgressListener {
+    /**
+     * Called periodically while the data rows of a sheet are written, and once when the sheet is complete.
+     * 
+     * @param sheet
+     *            the name of the sheet
+     * @param rows
+     *            number of data rows of the sheet written so far
+     */
+    public void rowsWritten(String sheet, int rows);
+
+    /**
+     * Called when all rows of a sheet were written.
+     * 
+     * @param sheet
+     *            the name of the sheet
+     * @param timings
+     *            time spent on this sheet, serialization excluded
+     */
+    public void sheetFinished(String sheet, ExportTimings timings);
+
+    /**
+     * Called when the whole document was written in the output.
+     * 
+     * @param timings
+     *            time spent on the whole export, serialization included
+     */
+    public void exportFinished(ExportTimings timings);
+}
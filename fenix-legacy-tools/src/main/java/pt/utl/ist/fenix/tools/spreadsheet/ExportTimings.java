@@ -0,0 +1,52 @@
+package pt.utl.ist.fenix.tools.spreadsheet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent on each {@link ExportPhase} of an export, either of a single sheet or of the whole workbook.
+ */
+public class ExportTimings {
+    private final long[] nanos = new long[ExportPhase.values().length];
+
+    void add(ExportPhase phase, long time) {
+        nanos[phase.ordinal()] += time;
+    }
+
+    void addAll(ExportTimings timings) {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] += timings.nanos[i];
+        }
+    }
+
+    /**
+     * @param phase
+     *            the export stage
+     * @return time spent in the specified stage, in nanoseconds.
+     */
+    public long getTime(ExportPhase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @param phase
+     *            the export stage
+     * @param unit
+     *            the unit of the result
+     * @return time spent in the specified stage, in the given unit.
+     */
+    public long getTime(ExportPhase phase, TimeUnit unit) {
+        return unit.convert(getTime(phase), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (ExportPhase phase : ExportPhase.values()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(phase).append('=').append(getTime(phase, TimeUnit.MILLISECONDS)).append("ms");
+        }
+        return builder.toString();
+    }
+}
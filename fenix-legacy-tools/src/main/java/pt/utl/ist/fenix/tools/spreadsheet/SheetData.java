@@ -33,6 +33,7 @@ public abstract class SheetData<Item> {
     final List<List<Cell>> headers = new ArrayList<List<Cell>>();
     final List<List<Cell>> matrix = new ArrayList<List<Cell>>();
     final List<Cell> footer = new ArrayList<Cell>();
+    long makeLineTime = 0;
     private boolean isHeader;
     private boolean isFooter;
     private List<Cell> current;
@@ -53,7 +54,7 @@ public abstract class SheetData<Item> {
             if (include) {
                 if (prev != null) {
                     current = new ArrayList<Cell>();
-                    makeLine(prev);
+                    timedMakeLine(prev);
                     matrix.add(current);
                     isHeader = false;
                 }
@@ -63,12 +64,18 @@ public abstract class SheetData<Item> {
         if (prev != null) {
             isFooter = true;
             current = new ArrayList<Cell>();
-            makeLine(prev);
+            timedMakeLine(prev);
             matrix.add(current);
         }
         Collections.reverse(headers);
     }
 
+    private void timedMakeLine(Item item) {
+        long start = System.nanoTime();
+        makeLine(item);
+        makeLineTime += System.nanoTime() - start;
+    }
+
     /**
      * Populates a single line of the sheet by calls on the addCell(...)
      * methods. Headers are optional, if you want them use the addCell methods
@@ -36,6 +36,8 @@ public class SpreadsheetBuilder {
     private ICellStyle mergeHeaderStyle = null;
     private final Map<Class<?>, ICellStyle> typeStyles = new HashMap<Class<?>, ICellStyle>();
     private List<ICellStyle> rowStyles = new ArrayList<ICellStyle>();
+    private ExportProgressListener progressListener = null;
+    private ExportCancellationToken cancellationToken = null;
 
     public SpreadsheetBuilder() {
     }
@@ -122,6 +124,33 @@ public class SpreadsheetBuilder {
         return this;
     }
 
+    /**
+     * Sets a listener to be notified of the rows written in each sheet and of
+     * the time spent in each {@link ExportPhase}.
+     * 
+     * @param listener
+     *            The progress listener
+     * @return this.
+     */
+    public SpreadsheetBuilder setProgressListener(ExportProgressListener listener) {
+        progressListener = listener;
+        return this;
+    }
+
+    /**
+     * Sets a token through which the export can be aborted. A cancelled build
+     * fails with an {@link java.io.InterruptedIOException} and closes the
+     * output. Interrupting the building thread has the same effect.
+     * 
+     * @param token
+     *            The cancellation token
+     * @return this.
+     */
+    public SpreadsheetBuilder setCancellationToken(ExportCancellationToken token) {
+        cancellationToken = token;
+        return this;
+    }
+
     /**
      * Writes the data sets in the specified file.
      * 
@@ -161,9 +190,11 @@ public class SpreadsheetBuilder {
      *             if and error occurs while writing.
      */
     public void build(WorkbookExportFormat format, OutputStream output) throws IOException {
+        ExportMonitor monitor = new ExportMonitor(progressListener, cancellationToken);
         switch (format) {
         case EXCEL: {
             ExcelBuilder builder = new ExcelBuilder();
+            builder.setMonitor(monitor);
             for (Entry<Class<?>, CellConverter> entry : converters.entrySet()) {
                 builder.addConverter(entry.getKey(), entry.getValue());
             }
@@ -183,6 +214,7 @@ public class SpreadsheetBuilder {
         case CSV:
         case TSV: {
             CsvBuilder builder = new CsvBuilder();
+            builder.setMonitor(monitor);
             for (Entry<Class<?>, CellConverter> entry : converters.entrySet()) {
                 builder.addConverter(entry.getKey(), entry.getValue());
             }
@@ -191,6 +223,7 @@ public class SpreadsheetBuilder {
         }
         case DOCX:
             DocxBuilder builder = new DocxBuilder();
+            builder.setMonitor(monitor);
             for (Entry<Class<?>, CellConverter> entry : converters.entrySet()) {
                 builder.addConverter(entry.getKey(), entry.getValue());
             }
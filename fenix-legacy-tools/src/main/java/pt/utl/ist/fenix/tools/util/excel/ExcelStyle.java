@@ -6,30 +6,42 @@ import org.apache.poi.hssf.usermodel.HSSFCellStyle;
 import org.apache.poi.hssf.usermodel.HSSFFont;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Workbook;
 
 public class ExcelStyle implements Serializable {
 
-    private HSSFCellStyle titleStyle;
+    private CellStyle titleStyle;
 
-    private HSSFCellStyle headerStyle;
+    private CellStyle headerStyle;
 
-    private HSSFCellStyle verticalHeaderStyle;
+    private CellStyle verticalHeaderStyle;
 
-    private HSSFCellStyle stringStyle;
+    private CellStyle stringStyle;
 
-    private HSSFCellStyle doubleStyle;
+    private CellStyle doubleStyle;
 
-    private HSSFCellStyle doubleNegativeStyle;
+    private CellStyle doubleNegativeStyle;
 
-    private HSSFCellStyle integerStyle;
+    private CellStyle integerStyle;
 
-    private HSSFCellStyle labelStyle;
+    private CellStyle labelStyle;
 
-    private HSSFCellStyle valueStyle;
+    private CellStyle valueStyle;
 
-    private HSSFCellStyle redValueStyle;
+    private CellStyle redValueStyle;
 
     public ExcelStyle(HSSFWorkbook wb) {
+        this((Workbook) wb);
+    }
+
+    /**
+     * Creates the styles in a workbook of any format. The getters that return
+     * {@link HSSFCellStyle}s can only be used when the workbook is an
+     * {@link HSSFWorkbook}.
+     */
+    public ExcelStyle(Workbook wb) {
         setTitleStyle(wb);
         setHeaderStyle(wb);
         setVerticalHeaderStyle(wb);
@@ -42,9 +54,9 @@ public class ExcelStyle implements Serializable {
         setRedValueStyle(wb);
     }
 
-    private void setTitleStyle(HSSFWorkbook wb) {
-        HSSFCellStyle style = wb.createCellStyle();
-        HSSFFont font = wb.createFont();
+    private void setTitleStyle(Workbook wb) {
+        CellStyle style = wb.createCellStyle();
+        Font font = wb.createFont();
         font.setColor(HSSFColor.BLACK.index);
         font.setBoldweight(HSSFFont.BOLDWEIGHT_BOLD);
         font.setFontHeightInPoints((short) 10);
@@ -53,9 +65,9 @@ public class ExcelStyle implements Serializable {
         titleStyle = style;
     }
 
-    private void setHeaderStyle(HSSFWorkbook wb) {
-        HSSFCellStyle style = wb.createCellStyle();
-        HSSFFont font = wb.createFont();
+    private void setHeaderStyle(Workbook wb) {
+        CellStyle style = wb.createCellStyle();
+        Font font = wb.createFont();
         font.setColor(HSSFColor.BLACK.index);
         font.setBoldweight(HSSFFont.BOLDWEIGHT_BOLD);
         font.setFontHeightInPoints((short) 8);
@@ -72,9 +84,9 @@ public class ExcelStyle implements Serializable {
         headerStyle = style;
     }
 
-    private void setVerticalHeaderStyle(HSSFWorkbook wb) {
+    private void setVerticalHeaderStyle(Workbook wb) {
         verticalHeaderStyle = wb.createCellStyle();
-        HSSFFont font = wb.createFont();
+        Font font = wb.createFont();
         font.setColor(HSSFColor.BLACK.index);
         font.setBoldweight(HSSFFont.BOLDWEIGHT_BOLD);
         font.setFontHeightInPoints((short) 8);
@@ -89,9 +101,9 @@ public class ExcelStyle implements Serializable {
         verticalHeaderStyle.setRotation((short) 90);
     }
 
-    private void setStringStyle(HSSFWorkbook wb) {
-        HSSFCellStyle style = wb.createCellStyle();
-        HSSFFont font = wb.createFont();
+    private void setStringStyle(Workbook wb) {
+        CellStyle style = wb.createCellStyle();
+        Font font = wb.createFont();
         font.setColor(HSSFColor.BLACK.index);
         font.setFontHeightInPoints((short) 8);
         style.setFont(font);
@@ -99,9 +111,9 @@ public class ExcelStyle implements Serializable {
         stringStyle = style;
     }
 
-    private void setDoubleStyle(HSSFWorkbook wb) {
-        HSSFCellStyle style = wb.createCellStyle();
-        HSSFFont font = wb.createFont();
+    private void setDoubleStyle(Workbook wb) {
+        CellStyle style = wb.createCellStyle();
+        Font font = wb.createFont();
         font.setColor(HSSFColor.BLACK.index);
         font.setFontHeightInPoints((short) 8);
         style.setFont(font);
@@ -110,9 +122,9 @@ public class ExcelStyle implements Serializable {
         doubleStyle = style;
     }
 
-    private void setDoubleNegativeStyle(HSSFWorkbook wb) {
-        HSSFCellStyle style = wb.createCellStyle();
-        HSSFFont font = wb.createFont();
+    private void setDoubleNegativeStyle(Workbook wb) {
+        CellStyle style = wb.createCellStyle();
+        Font font = wb.createFont();
         font.setColor(HSSFColor.BLACK.index);
         font.setFontHeightInPoints((short) 8);
         style.setFont(font);
@@ -122,9 +134,9 @@ public class ExcelStyle implements Serializable {
         doubleNegativeStyle = style;
     }
 
-    private void setIntegerStyle(HSSFWorkbook wb) {
-        HSSFCellStyle style = wb.createCellStyle();
-        HSSFFont font = wb.createFont();
+    private void setIntegerStyle(Workbook wb) {
+        CellStyle style = wb.createCellStyle();
+        Font font = wb.createFont();
         font.setColor(HSSFColor.BLACK.index);
         font.setFontHeightInPoints((short) 8);
         style.setFont(font);
@@ -133,9 +145,9 @@ public class ExcelStyle implements Serializable {
         integerStyle = style;
     }
 
-    private void setLabelStyle(HSSFWorkbook wb) {
-        HSSFCellStyle style = wb.createCellStyle();
-        HSSFFont font = wb.createFont();
+    private void setLabelStyle(Workbook wb) {
+        CellStyle style = wb.createCellStyle();
+        Font font = wb.createFont();
         font.setColor(HSSFColor.BLACK.index);
         font.setBoldweight(HSSFFont.BOLDWEIGHT_BOLD);
         font.setFontHeightInPoints((short) 8);
@@ -144,9 +156,9 @@ public class ExcelStyle implements Serializable {
         labelStyle = style;
     }
 
-    private void setValueStyle(HSSFWorkbook wb) {
-        HSSFCellStyle style = wb.createCellStyle();
-        HSSFFont font = wb.createFont();
+    private void setValueStyle(Workbook wb) {
+        CellStyle style = wb.createCellStyle();
+        Font font = wb.createFont();
         font.setColor(HSSFColor.BLACK.index);
         font.setFontHeightInPoints((short) 8);
         style.setFont(font);
@@ -155,9 +167,9 @@ public class ExcelStyle implements Serializable {
         valueStyle = style;
     }
 
-    private void setRedValueStyle(HSSFWorkbook wb) {
-        HSSFCellStyle style = wb.createCellStyle();
-        HSSFFont font = wb.createFont();
+    private void setRedValueStyle(Workbook wb) {
+        CellStyle style = wb.createCellStyle();
+        Font font = wb.createFont();
         font.setColor(HSSFColor.RED.index);
         font.setFontHeightInPoints((short) 8);
         style.setFont(font);
@@ -167,42 +179,50 @@ public class ExcelStyle implements Serializable {
     }
 
     public HSSFCellStyle getDoubleNegativeStyle() {
-        return doubleNegativeStyle;
+        return (HSSFCellStyle) doubleNegativeStyle;
     }
 
     public HSSFCellStyle getDoubleStyle() {
-        return doubleStyle;
+        return (HSSFCellStyle) doubleStyle;
     }
 
     public HSSFCellStyle getHeaderStyle() {
+        return (HSSFCellStyle) headerStyle;
+    }
+
+    public CellStyle getHeaderCellStyle() {
         return headerStyle;
     }
 
     public HSSFCellStyle getIntegerStyle() {
-        return integerStyle;
+        return (HSSFCellStyle) integerStyle;
     }
 
     public HSSFCellStyle getLabelStyle() {
-        return labelStyle;
+        return (HSSFCellStyle) labelStyle;
     }
 
     public HSSFCellStyle getStringStyle() {
+        return (HSSFCellStyle) stringStyle;
+    }
+
+    public CellStyle getStringCellStyle() {
         return stringStyle;
     }
 
     public HSSFCellStyle getTitleStyle() {
-        return titleStyle;
+        return (HSSFCellStyle) titleStyle;
     }
 
     public HSSFCellStyle getValueStyle() {
-        return valueStyle;
+        return (HSSFCellStyle) valueStyle;
     }
 
     public HSSFCellStyle getRedValueStyle() {
-        return redValueStyle;
+        return (HSSFCellStyle) redValueStyle;
     }
 
     public HSSFCellStyle getVerticalHeaderStyle() {
-        return verticalHeaderStyle;
+        return (HSSFCellStyle) verticalHeaderStyle;
     }
 }
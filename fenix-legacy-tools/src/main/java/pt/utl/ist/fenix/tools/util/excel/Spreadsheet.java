@@ -4,18 +4,20 @@
  */
 package pt.utl.ist.fenix.tools.util.excel;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.poi.hssf.usermodel.HSSFCellStyle;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 
@@ -26,8 +28,14 @@ import pt.utl.ist.fenix.tools.spreadsheet.SpreadsheetBuilder;
  */
 public class Spreadsheet {
 
+    /**
+     * A line of the spreadsheet. Numbers and booleans are kept as such, so
+     * that they can be exported as real numeric cells and take less memory
+     * than their textual representation. Null values are stored as empty
+     * strings.
+     */
     public class Row {
-        private final List<Object> cells = new ArrayList<Object>();
+        private final List<Object> cells = new ArrayList<Object>(headers.size());
 
         protected Row() {
         }
@@ -46,22 +54,22 @@ public class Spreadsheet {
         }
 
         public Row setCell(final Integer cellValue) {
-            cells.add((cellValue != null) ? cellValue.toString() : "");
+            cells.add(valueOrEmpty(cellValue));
             return this;
         }
 
         public Row setCell(final Double cellValue) {
-            cells.add((cellValue != null) ? cellValue.toString() : "");
+            cells.add(valueOrEmpty(cellValue));
             return this;
         }
 
         public Row setCell(final BigDecimal cellValue) {
-            cells.add((cellValue != null) ? cellValue.toPlainString() : "");
+            cells.add(valueOrEmpty(cellValue));
             return this;
         }
 
         public Row setCell(final Boolean cellValue) {
-            cells.add((cellValue != null) ? cellValue.toString() : "");
+            cells.add(valueOrEmpty(cellValue));
             return this;
         }
 
@@ -71,17 +79,17 @@ public class Spreadsheet {
         }
 
         public Row setCell(final String header, final Integer cellValue) {
-            cells.add(getHeaderIndex(header), (cellValue != null) ? cellValue.toString() : "");
+            cells.add(getHeaderIndex(header), valueOrEmpty(cellValue));
             return this;
         }
 
         public Row setCell(final String header, final Double cellValue) {
-            cells.add(getHeaderIndex(header), (cellValue != null) ? cellValue.toString() : "");
+            cells.add(getHeaderIndex(header), valueOrEmpty(cellValue));
             return this;
         }
 
         public Row setCell(final String header, final BigDecimal cellValue) {
-            cells.add(getHeaderIndex(header), (cellValue != null) ? cellValue.toPlainString() : "");
+            cells.add(getHeaderIndex(header), valueOrEmpty(cellValue));
             return this;
         }
 
@@ -92,15 +100,56 @@ public class Spreadsheet {
             return this;
         }
 
+        /**
+         * @return the cells as the text they are exported as, numbers and
+         *         booleans included
+         * @see #getTypedCells()
+         */
         public List<Object> getCells() {
+            return new AbstractList<Object>() {
+                @Override
+                public Object get(final int index) {
+                    return toText(cells.get(index));
+                }
+
+                @Override
+                public int size() {
+                    return cells.size();
+                }
+            };
+        }
+
+        /**
+         * @return the cells with numbers and booleans kept as such
+         */
+        public List<Object> getTypedCells() {
             return Collections.unmodifiableList(cells);
         }
     }
 
+    private static Object toText(final Object value) {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        return value instanceof Number || value instanceof Boolean ? value.toString() : value;
+    }
+
+    private static Object valueOrEmpty(final Object value) {
+        return value != null ? value : "";
+    }
+
     private String name;
 
     private final List<Object> headers;
 
+    /**
+     * Position of each header, rebuilt whenever the header list changed in a
+     * way that may have moved existing entries.
+     */
+    private final Map<Object, Integer> headerIndexes = new HashMap<Object, Integer>();
+
+    private int indexedHeaders = 0;
+
     private List<Row> rows = new ArrayList<Row>();
 
     private Spreadsheet next = null;
@@ -127,15 +176,30 @@ public class Spreadsheet {
     }
 
     private int getHeaderIndex(final String header) {
-        int i = 0;
-        for (final Object o : headers) {
-            if (header.equals(o)) {
-                return i;
+        if (indexedHeaders != headers.size()) {
+            reindexHeaders();
+        }
+        final Integer index = headerIndexes.get(header);
+        if (index != null && header.equals(headers.get(index))) {
+            return index;
+        }
+        if (index != null) {
+            reindexHeaders();
+            final Integer current = headerIndexes.get(header);
+            if (current != null) {
+                return current;
             }
-            i++;
         }
         setHeader(header);
-        return i;
+        return headers.size() - 1;
+    }
+
+    private void reindexHeaders() {
+        headerIndexes.clear();
+        for (int i = headers.size() - 1; i >= 0; i--) {
+            headerIndexes.put(headers.get(i), i);
+        }
+        indexedHeaders = headers.size();
     }
 
     protected String getName() {
@@ -155,10 +219,15 @@ public class Spreadsheet {
             headers.add("");
         }
         headers.add(columnNumber, columnHeader);
+        indexedHeaders = -1;
         return this;
     }
 
     public Spreadsheet setHeader(final String columnHeader) {
+        if (indexedHeaders == headers.size() && !headerIndexes.containsKey(columnHeader)) {
+            headerIndexes.put(columnHeader, headers.size());
+            indexedHeaders++;
+        }
         headers.add(columnHeader);
         return this;
     }
@@ -201,37 +270,33 @@ public class Spreadsheet {
 
     public void exportToCSV(final OutputStream outputStream, final String columnSeperator, final String lineSepeator)
             throws IOException {
-        exportCSVLine(outputStream, columnSeperator, lineSepeator, headers);
+        exportToCSV(outputStream, columnSeperator, lineSepeator, Charset.defaultCharset());
+    }
+
+    public void exportToCSV(final OutputStream outputStream, final String columnSeperator, final String lineSepeator,
+            final Charset charset) throws IOException {
+        final SpreadsheetCSVEncoder encoder = new SpreadsheetCSVEncoder(outputStream, charset, columnSeperator, lineSepeator);
+        encoder.writeLine(headers);
         for (final Row row : rows) {
-            exportCSVLine(outputStream, columnSeperator, lineSepeator, row.getCells());
+            encoder.writeRow(row);
         }
+        encoder.flush();
     }
 
     public void exportToCSV(final File file, final String columnSeperator) throws IOException {
-        BufferedOutputStream outputStream = null;
-        try {
-            outputStream = new BufferedOutputStream(new FileOutputStream(file));
-            exportToCSV(outputStream, columnSeperator);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
-            if (outputStream != null) {
-                try {
-                    outputStream.close();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        }
+        exportToCSV(file, columnSeperator, "\n");
     }
 
     public void exportToCSV(final File file, final String columnSeperator, final String lineSepeator) throws IOException {
-        BufferedOutputStream outputStream = null;
+        exportToCSV(file, columnSeperator, lineSepeator, Charset.defaultCharset());
+    }
+
+    public void exportToCSV(final File file, final String columnSeperator, final String lineSepeator, final Charset charset)
+            throws IOException {
+        FileOutputStream outputStream = null;
         try {
-            outputStream = new BufferedOutputStream(new FileOutputStream(file));
-            exportToCSV(outputStream, columnSeperator, lineSepeator);
+            outputStream = new FileOutputStream(file);
+            exportToCSV(outputStream, columnSeperator, lineSepeator, charset);
         } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
         } catch (IOException e) {
@@ -247,26 +312,6 @@ public class Spreadsheet {
         }
     }
 
-    private void exportCSVLine(final OutputStream outputStream, final String columnSeperator, final String lineSepeator,
-            final List<Object> cells) throws IOException {
-        final byte[] columnSeperatorAsBytes = columnSeperator.getBytes();
-
-        for (int i = 0; i < cells.size(); i++) {
-            final Object cellValue = cells.get(i);
-
-            if (i > 0) {
-                outputStream.write(columnSeperatorAsBytes);
-            }
-
-            if (cellValue == null) {
-                outputStream.write(StringUtils.EMPTY.getBytes());
-            } else {
-                outputStream.write(cellValue.toString().replace(columnSeperator, "").getBytes());
-            }
-        }
-        outputStream.write(lineSepeator.getBytes());
-    }
-
     public void exportToXLSSheet(final OutputStream outputStream) throws IOException {
         new SpreadsheetXLSExporter().exportToXLSSheet(this, outputStream);
     }
@@ -283,4 +328,8 @@ public class Spreadsheet {
         new SpreadsheetXLSExporter().exportToXLSSheets(outputStream, spreadsheets);
     }
 
+    public static void exportToXLSXSheets(final OutputStream outputStream, List<Spreadsheet> spreadsheets) throws IOException {
+        new SpreadsheetXLSXExporter().exportToXLSXSheets(outputStream, spreadsheets);
+    }
+
 }
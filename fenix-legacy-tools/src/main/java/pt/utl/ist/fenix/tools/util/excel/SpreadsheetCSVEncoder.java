@@ -0,0 +1,115 @@
+package pt.utl.ist.fenix.tools.util.excel;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+
+import pt.utl.ist.fenix.tools.util.excel.Spreadsheet.Row;
+
+/**
+ * Writes {@link Spreadsheet} lines as CSV in a given charset. Cells are encoded
+ * with a single {@link CharsetEncoder} into a reusable direct buffer, which is
+ * only written to the output when full, so no byte arrays are created per cell
+ * and the output sees a few large writes instead of one per cell. File outputs
+ * are written directly through their channel.
+ * 
+ * Unmappable characters are replaced, as {@link String#getBytes()} does.
+ */
+public class SpreadsheetCSVEncoder {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream output;
+
+    private final WritableByteChannel channel;
+
+    private final CharsetEncoder encoder;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final String columnSeparator;
+
+    private final String lineSeparator;
+
+    public SpreadsheetCSVEncoder(final OutputStream output, final Charset charset, final String columnSeparator,
+            final String lineSeparator) {
+        this.output = output;
+        this.channel = output instanceof FileOutputStream ? ((FileOutputStream) output).getChannel() : Channels.newChannel(output);
+        this.encoder =
+                charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.columnSeparator = columnSeparator;
+        this.lineSeparator = lineSeparator;
+    }
+
+    public SpreadsheetCSVEncoder writeRow(final Row row) throws IOException {
+        return writeLine(row.getTypedCells());
+    }
+
+    public SpreadsheetCSVEncoder writeLine(final List<Object> cells) throws IOException {
+        for (int i = 0; i < cells.size(); i++) {
+            final Object cellValue = cells.get(i);
+
+            if (i > 0) {
+                encode(columnSeparator);
+            }
+
+            if (cellValue != null) {
+                final String text =
+                        cellValue instanceof BigDecimal ? ((BigDecimal) cellValue).toPlainString() : cellValue.toString();
+                encode(text.replace(columnSeparator, ""));
+            }
+        }
+        encode(lineSeparator);
+        return this;
+    }
+
+    /**
+     * Writes all pending bytes in the output and flushes it. The output is not
+     * closed.
+     */
+    public void flush() throws IOException {
+        encode(CharBuffer.allocate(0), true);
+        while (encoder.flush(buffer).isOverflow()) {
+            drain();
+        }
+        drain();
+        encoder.reset();
+        output.flush();
+    }
+
+    private void encode(final String text) throws IOException {
+        encode(CharBuffer.wrap(text), false);
+    }
+
+    private void encode(final CharBuffer chars, final boolean endOfInput) throws IOException {
+        while (true) {
+            final CoderResult result = encoder.encode(chars, buffer, endOfInput);
+            if (result.isUnderflow()) {
+                return;
+            }
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -72,7 +72,7 @@ public class SpreadsheetXLSExporter {
         exportXLSHeaderLine(sheet, headerCellStyle, spreadsheet.getHeader());
 
         for (final Row row : spreadsheet.getRows()) {
-            exportXLSRowLine(sheet, cellStyle, row.getCells());
+            exportXLSRowLine(sheet, cellStyle, row.getTypedCells());
         }
 
         final Spreadsheet next = spreadsheet.getNextSpreadsheet();
@@ -99,7 +99,9 @@ public class SpreadsheetXLSExporter {
     protected HSSFCell addColumn(final HSSFCellStyle cellStyle, final HSSFRow row, final Object cellValue) {
         final HSSFCell cell = row.createCell(row.getLastCellNum() == -1 ? 0 : row.getLastCellNum());
         cell.setCellStyle(cellStyle);
-        if (cellValue != null) {
+        if (cellValue instanceof Number && SpreadsheetXLSXExporter.isFinite((Number) cellValue)) {
+            cell.setCellValue(((Number) cellValue).doubleValue());
+        } else if (cellValue != null) {
             cell.setCellValue(cellValue.toString());
         } else {
             cell.setCellValue("");
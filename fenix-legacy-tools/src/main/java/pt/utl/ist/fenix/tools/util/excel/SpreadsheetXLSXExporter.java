@@ -0,0 +1,288 @@
+package pt.utl.ist.fenix.tools.util.excel;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import pt.utl.ist.fenix.tools.util.excel.Spreadsheet.Row;
+
+/**
+ * Exports several {@link Spreadsheet}s into a single xlsx workbook. The XML of
+ * each sheet is generated concurrently and streamed into its own temporary
+ * file, and the files are then spliced into a template workbook that holds
+ * the sheets and the {@link ExcelStyle} style table. No cell objects are ever
+ * created, so memory usage does not grow with the size of the sheets, unlike
+ * {@link SpreadsheetXLSExporter}.
+ */
+public class SpreadsheetXLSXExporter {
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    private static final String WORKSHEET_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+
+    private final ExecutorService executor;
+
+    /**
+     * Uses a thread pool as large as the number of available processors,
+     * created for each export.
+     */
+    public SpreadsheetXLSXExporter() {
+        this(null);
+    }
+
+    /**
+     * @param executor
+     *            the executor on which the sheets are generated. It is not
+     *            shut down by this exporter.
+     */
+    public SpreadsheetXLSXExporter(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void exportToXLSXSheets(final OutputStream outputStream, final Spreadsheet... spreadsheets) throws IOException {
+        final List<Spreadsheet> list = new ArrayList<Spreadsheet>();
+        for (final Spreadsheet spreadsheet : spreadsheets) {
+            list.add(spreadsheet);
+        }
+        exportToXLSXSheets(outputStream, list);
+    }
+
+    public void exportToXLSXSheets(final OutputStream outputStream, final List<Spreadsheet> spreadsheets) throws IOException {
+        final List<Spreadsheet> sheets = new ArrayList<Spreadsheet>();
+        for (Spreadsheet spreadsheet : spreadsheets) {
+            for (; spreadsheet != null; spreadsheet = spreadsheet.getNextSpreadsheet()) {
+                sheets.add(spreadsheet);
+            }
+        }
+
+        final XSSFWorkbook workbook = new XSSFWorkbook();
+        final ExcelStyle excelStyle = new ExcelStyle(workbook);
+        final short headerStyle = excelStyle.getHeaderCellStyle().getIndex();
+        final short cellStyle = excelStyle.getStringCellStyle().getIndex();
+        final List<String> entries = new ArrayList<String>();
+        for (final Spreadsheet spreadsheet : sheets) {
+            entries.add(workbook.createSheet(spreadsheet.getName()).getPackagePart().getPartName().getName().substring(1));
+        }
+
+        final List<File> files = new ArrayList<File>();
+        final ExecutorService pool =
+                executor != null ? executor : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        final List<Future<File>> futures = new ArrayList<Future<File>>();
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+        boolean completed = false;
+        try {
+            final File template = createTempFile(files, ".xlsx");
+            final OutputStream templateStream = new FileOutputStream(template);
+            try {
+                workbook.write(templateStream);
+            } finally {
+                templateStream.close();
+            }
+
+            for (final Spreadsheet spreadsheet : sheets) {
+                final File file = createTempFile(files, ".xml");
+                futures.add(pool.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        writeSheet(spreadsheet, file, headerStyle, cellStyle, aborted);
+                        return file;
+                    }
+                }));
+            }
+            final Map<String, File> sheetFiles = new HashMap<String, File>();
+            for (int i = 0; i < futures.size(); i++) {
+                sheetFiles.put(entries.get(i), getResult(futures.get(i)));
+            }
+
+            assemble(template, sheetFiles, outputStream);
+            completed = true;
+        } finally {
+            if (!completed) {
+                // the sheets still being written must stop before their files
+                // are deleted
+                aborted.set(true);
+                awaitAll(futures);
+            }
+            if (executor == null) {
+                pool.shutdownNow();
+            }
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static File createTempFile(final List<File> files, final String suffix) throws IOException {
+        final File file = File.createTempFile("spreadsheet", suffix);
+        files.add(file);
+        return file;
+    }
+
+    private static void awaitAll(final List<Future<File>> futures) {
+        boolean interrupted = false;
+        for (final Future<File> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                } catch (CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static File getResult(final Future<File> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void assemble(final File template, final Map<String, File> sheetFiles, final OutputStream outputStream)
+            throws IOException {
+        final ZipFile zip = new ZipFile(template);
+        try {
+            final ZipOutputStream out = new ZipOutputStream(outputStream);
+            final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                final ZipEntry entry = zipEntries.nextElement();
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                final File sheetFile = sheetFiles.get(entry.getName());
+                final InputStream in = sheetFile != null ? new FileInputStream(sheetFile) : zip.getInputStream(entry);
+                try {
+                    IOUtils.copy(in, out);
+                } finally {
+                    in.close();
+                }
+                out.closeEntry();
+            }
+            out.finish();
+            out.flush();
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void writeSheet(final Spreadsheet spreadsheet, final File file, final short headerStyle,
+            final short cellStyle, final AtomicBoolean aborted) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write(XML_HEADER);
+            writer.write("<worksheet xmlns=\"" + WORKSHEET_NS + "\">");
+            writer.write("<sheetFormatPr defaultColWidth=\"20\" defaultRowHeight=\"15\"/>");
+            writer.write("<sheetData>");
+            int rownum = 0;
+            writeRow(writer, rownum++, spreadsheet.getHeader(), headerStyle);
+            for (final Row row : spreadsheet.getRows()) {
+                if (aborted.get()) {
+                    throw new InterruptedIOException("The export of " + spreadsheet.getName() + " was aborted");
+                }
+                writeRow(writer, rownum++, row.getTypedCells(), cellStyle);
+            }
+            writer.write("</sheetData></worksheet>");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeRow(final Writer writer, final int rownum, final List<Object> cells, final short style)
+            throws IOException {
+        final String row = Integer.toString(rownum + 1);
+        writer.write("<row r=\"" + row + "\">");
+        for (int i = 0; i < cells.size(); i++) {
+            final Object cellValue = cells.get(i);
+            writer.write("<c r=\"");
+            writer.write(CellReference.convertNumToColString(i));
+            writer.write(row);
+            writer.write("\" s=\"" + style + "\"");
+            if (cellValue instanceof Number && isFinite((Number) cellValue)) {
+                writer.write("><v>");
+                writer.write(cellValue instanceof BigDecimal ? ((BigDecimal) cellValue).toPlainString() : cellValue.toString());
+                writer.write("</v></c>");
+            } else {
+                writer.write(" t=\"inlineStr\"><is><t>");
+                if (cellValue != null) {
+                    writeEscaped(writer, cellValue.toString());
+                }
+                writer.write("</t></is></c>");
+            }
+        }
+        writer.write("</row>");
+    }
+
+    /**
+     * NaN and infinity have no numeric representation in a sheet, they are
+     * written as text.
+     */
+    static boolean isFinite(final Number number) {
+        if (number instanceof Double || number instanceof Float) {
+            return !Double.isNaN(number.doubleValue()) && !Double.isInfinite(number.doubleValue());
+        }
+        return true;
+    }
+
+    private static void writeEscaped(final Writer writer, final String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+            case '<':
+                writer.write("&lt;");
+                break;
+            case '>':
+                writer.write("&gt;");
+                break;
+            case '&':
+                writer.write("&amp;");
+                break;
+            case '"':
+                writer.write("&quot;");
+                break;
+            default:
+                if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                    writer.write(c);
+                }
+            }
+        }
+    }
+}
@@ -25,6 +25,8 @@ public abstract class AbstractFileManager implements IFileManager {
 
     private Properties properties = null;
 
+    private FileUploadQueue uploadQueue = null;
+
     public AbstractFileManager() {
         try {
             logger.log(Level.INFO, "Loding properties from file /FileManagerConfiguration.properties");
@@ -42,6 +44,39 @@ public abstract class AbstractFileManager implements IFileManager {
         return properties.getProperty(propKey);
     }
 
+    /**
+     * @return the value of the property, or the default value if it is not
+     *         configured or is not a valid integer
+     */
+    public int getIntProperty(String propKey, int defaultValue) {
+        String value = getProperty(propKey);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "Invalid value for " + propKey + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @see #getIntProperty(String, int)
+     */
+    public long getLongProperty(String propKey, long defaultValue) {
+        String value = getProperty(propKey);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "Invalid value for " + propKey + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
     /**
      * This method will rec-descend the FileSet passed in and invoke the method
      * denoted by m, existing in this class (or extension) for each found
@@ -111,6 +146,36 @@ public abstract class AbstractFileManager implements IFileManager {
         }
     }
 
+    @Override
+    public void deleteFiles(Collection<String> uniqueIds) throws FileManagerException {
+        StringBuilder failures = new StringBuilder();
+        for (String uniqueId : uniqueIds) {
+            try {
+                deleteFile(uniqueId);
+            } catch (RuntimeException e) {
+                failures.append("\n").append(uniqueId).append(": ").append(e.getMessage());
+            }
+        }
+        if (failures.length() > 0) {
+            throw new FileManagerException("Unable to delete files:" + failures);
+        }
+    }
+
+    @Override
+    public void changeFilesPermissions(Collection<String> uniqueIds, Boolean privateFile) throws FileManagerException {
+        StringBuilder failures = new StringBuilder();
+        for (String uniqueId : uniqueIds) {
+            try {
+                changeFilePermissions(uniqueId, privateFile);
+            } catch (RuntimeException e) {
+                failures.append("\n").append(uniqueId).append(": ").append(e.getMessage());
+            }
+        }
+        if (failures.length() > 0) {
+            throw new FileManagerException("Unable to change permissions of files:" + failures);
+        }
+    }
+
     public void formatDownloadUrls(FileSetDescriptor fileSetDescriptor) {
         try {
             recurseFileSetDescriptorCallMethod(fileSetDescriptor,
@@ -184,6 +249,12 @@ public abstract class AbstractFileManager implements IFileManager {
                 StringNormalizer.normalizePreservingCapitalizedLetters(pt.utl.ist.fenix.tools.util.FileUtils
                         .getFilenameOnly(originalFilename));
 
+        FileDescriptor streamedDescriptor =
+                internalSaveFileStream(filePath, originalFilename, privateFile, fileMetadata, fileInputStream);
+        if (streamedDescriptor != null) {
+            return streamedDescriptor;
+        }
+
         try {
             dirTemp = FileUtils.createTemporaryDir("filemanager_", "_temp_persisted_stream");
             File outFile = new File(dirTemp, originalFilename);
@@ -197,6 +268,69 @@ public abstract class AbstractFileManager implements IFileManager {
         }
     }
 
+    @Override
+    public FileUploadQueue.PendingUpload saveFileAsync(VirtualPath filePath, String originalFilename, boolean privateFile,
+            Collection<FileSetMetaData> fileMetadata, File fileToSave, FileUploadQueue.Callback callback) {
+        return getUploadQueue().saveFile(this, filePath, originalFilename, privateFile, fileMetadata, fileToSave, callback);
+    }
+
+    @Override
+    public FileUploadQueue.PendingUpload saveFileAsync(VirtualPath filePath, String originalFilename, boolean privateFile,
+            Collection<FileSetMetaData> fileMetadata, InputStream fileInputStream, FileUploadQueue.Callback callback) {
+        return getUploadQueue().saveFile(this, filePath, originalFilename, privateFile, fileMetadata, fileInputStream, callback);
+    }
+
+    /**
+     * Creates the upload queue right away when it keeps its uploads in
+     * {@link FileUploadQueue#DIRECTORY_PARAM}, so that the ones left by a
+     * previous run are resumed. Subclasses call it once they are ready to save
+     * files, as the queue may save those uploads through them at once. Without a directory the queue is only created when first used.
+     */
+    protected void startUploadQueue() {
+        String directory = getProperty(FileUploadQueue.DIRECTORY_PARAM);
+        if (directory != null && directory.trim().length() > 0) {
+            getUploadQueue();
+        }
+    }
+
+    public synchronized FileUploadQueue getUploadQueue() {
+        if (uploadQueue == null) {
+            uploadQueue = FileUploadQueue.open(this);
+        }
+        return uploadQueue;
+    }
+
+    /**
+     * Stops using the upload queue, if it was created, which stops it when no
+     * other file manager uses it. Uploads still waiting are resumed on the
+     * next start when the queue has a directory.
+     */
+    public void shutdown() {
+        FileUploadQueue queue;
+        synchronized (this) {
+            queue = uploadQueue;
+            uploadQueue = null;
+        }
+        if (queue != null) {
+            FileUploadQueue.close(this, queue);
+        }
+    }
+
+    /**
+     * Stores a {@link FileSetType#SIMPLE} file straight from the stream,
+     * without staging it in a temporary directory. The format metadata that
+     * the {@link FileSetType#SIMPLE} filter chain would infer must be computed
+     * while the stream is transferred.
+     * 
+     * @return the descriptor of the saved file, or null if this file manager
+     *         cannot upload streams, in which case the stream is left untouched
+     *         and the file is staged on disk
+     */
+    protected FileDescriptor internalSaveFileStream(VirtualPath filePath, String originalFilename, boolean privateFile,
+            Collection<FileSetMetaData> fileMetadata, InputStream fileInputStream) {
+        return null;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -219,19 +353,23 @@ public abstract class AbstractFileManager implements IFileManager {
      */
     public FileSetDescriptor saveFileSet(VirtualPath virtualPath, String originalFileName, boolean privateFile, FileSet fileSet,
             FileSetType fileSetType) {
-
-        if (fileSetType != null) {
-            Collection<FileSetFilter> filterChain = fileSetType.getFileSetFilterChain();
-            for (FileSetFilter filter : filterChain) {
-                try {
-                    filter.handleFileSet(fileSet);
-                } catch (FileSetFilterException e) {
-                    throw new RuntimeException("Unable to run FileSetFilter " + filter.getClass().getName(), e);
+        try {
+            if (fileSetType != null) {
+                Collection<FileSetFilter> filterChain = fileSetType.getFileSetFilterChain();
+                for (FileSetFilter filter : filterChain) {
+                    try {
+                        filter.handleFileSet(fileSet);
+                    } catch (FileSetFilterException e) {
+                        throw new RuntimeException("Unable to run FileSetFilter " + filter.getClass().getName(), e);
+                    }
                 }
             }
-        }
 
-        return internalSaveFileSet(virtualPath, originalFileName, privateFile, fileSet, fileSetType);
+            return internalSaveFileSet(virtualPath, originalFileName, privateFile, fileSet, fileSetType);
+        } finally {
+            // the files the filters created for this upload
+            fileSet.deleteTemporaryDirectories();
+        }
     }
 
     public abstract FileSetDescriptor internalSaveFileSet(VirtualPath virtualPath, String originalFileName, boolean privateFile,
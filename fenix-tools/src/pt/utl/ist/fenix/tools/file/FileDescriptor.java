@@ -2,12 +2,16 @@ package pt.utl.ist.fenix.tools.file;
 
 import java.io.Serializable;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.tree.BaseElement;
 
-public class FileDescriptor implements Serializable, XMLSerializable {
+public class FileDescriptor implements Serializable, XMLStreamSerializable {
 
     private String filename;
 
@@ -30,7 +34,16 @@ public class FileDescriptor implements Serializable, XMLSerializable {
      * 
      */
     public String getItemStorageId() {
-        return uniqueId.substring(0, uniqueId.lastIndexOf("/"));
+        return getItemStorageId(uniqueId);
+    }
+
+    /**
+     * @return the handle of the item a file belongs to, taken from the file
+     *         unique id (the unique id itself if it has no sequence number)
+     */
+    public static String getItemStorageId(String uniqueId) {
+        int index = uniqueId.lastIndexOf('/');
+        return index < 0 ? uniqueId : uniqueId.substring(0, index);
     }
 
     /**
@@ -232,4 +245,58 @@ public class FileDescriptor implements Serializable, XMLSerializable {
         return retVal;
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filedescriptor");
+        if (getOriginalAbsoluteFilePath() != null) {
+            // the same content as toXML()
+            XMLStreams.writeElement(writer, "originalabsolutefilepath", getUniqueId());
+        }
+        if (getUniqueId() != null) {
+            XMLStreams.writeElement(writer, "uniqueid", getUniqueId());
+        }
+        if (getChecksum() != null) {
+            XMLStreams.writeElement(writer, "checksum", getChecksum());
+        }
+        if (getChecksumAlgorithm() != null) {
+            XMLStreams.writeElement(writer, "checksumAlg", getChecksumAlgorithm());
+        }
+        if (getDirectDownloadUrl() != null) {
+            XMLStreams.writeElement(writer, "directdownloadurl", getDirectDownloadUrl());
+        }
+        if (getFilename() != null) {
+            XMLStreams.writeElement(writer, "filename", getFilename());
+        }
+        if (getMimeType() != null) {
+            XMLStreams.writeElement(writer, "mimetype", getMimeType());
+        }
+        XMLStreams.writeElement(writer, "size", Integer.toString(getSize()));
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("originalabsolutefilepath".equals(name)) {
+                this.setOriginalAbsoluteFilePath(reader.getElementText());
+            } else if ("uniqueid".equals(name)) {
+                this.setUniqueId(reader.getElementText());
+            } else if ("filename".equals(name)) {
+                this.setFilename(reader.getElementText());
+            } else if ("checksum".equals(name)) {
+                this.setChecksum(reader.getElementText());
+            } else if ("checksumAlg".equals(name)) {
+                this.setChecksumAlgorithm(reader.getElementText());
+            } else if ("directdownloadurl".equals(name)) {
+                this.setDirectDownloadUrl(reader.getElementText());
+            } else if ("mimetype".equals(name)) {
+                this.setMimeType(reader.getElementText());
+            } else if ("size".equals(name)) {
+                this.setSize(Integer.valueOf(reader.getElementText()).intValue());
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
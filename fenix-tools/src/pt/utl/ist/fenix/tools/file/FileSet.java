@@ -1,12 +1,19 @@
 package pt.utl.ist.fenix.tools.file;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
@@ -14,6 +21,7 @@ import org.dom4j.tree.BaseElement;
 
 import pt.linkare.scorm.xmlbeans.ScormAsset;
 import pt.linkare.scorm.xmlbeans.ScormData;
+import pt.utl.ist.fenix.tools.file.utils.FileUtils;
 
 /**
  * @author Jos� Pedro Pereira - Linkare TI
@@ -23,7 +31,7 @@ import pt.linkare.scorm.xmlbeans.ScormData;
  *         groups of related files...
  */
 @SuppressWarnings("serial")
-public class FileSet implements Serializable, XMLSerializable {
+public class FileSet implements Serializable, XMLStreamSerializable {
 
     /**
      * Item ID, used when you want to append a file to an existing item.
@@ -51,6 +59,12 @@ public class FileSet implements Serializable, XMLSerializable {
      */
     private Collection<File> metaFiles = new ArrayList<File>(0);
 
+    /**
+     * Directories with files created for this file set while it is saved, such
+     * as image derivatives, deleted by the file manager once it is saved
+     */
+    private transient Collection<File> temporaryDirectories = null;
+
     /**
      * @return Returns the child FileSets.
      */
@@ -189,6 +203,46 @@ public class FileSet implements Serializable, XMLSerializable {
         this.metaFiles.removeAll(f);
     }
 
+    /**
+     * Opens a file of a file set, which may be an entry of an archive that was
+     * never extracted, see {@link ZipEntryFile}.
+     */
+    public static InputStream openContent(File file) throws IOException {
+        if (file instanceof ZipEntryFile) {
+            return ((ZipEntryFile) file).openStream();
+        }
+        return new FileInputStream(file);
+    }
+
+    /**
+     * @param directory
+     *            a directory owned by this file set, to be deleted once it is
+     *            saved
+     */
+    public void addTemporaryDirectory(File directory) {
+        if (this.temporaryDirectories == null) {
+            this.temporaryDirectories = new ArrayList<File>();
+        }
+        this.temporaryDirectories.add(directory);
+    }
+
+    /**
+     * Deletes the temporary directories of this file set and of its children.
+     */
+    public void deleteTemporaryDirectories() {
+        if (temporaryDirectories != null) {
+            for (File directory : temporaryDirectories) {
+                FileUtils.deleteDirectory(directory);
+            }
+            temporaryDirectories = null;
+        }
+        if (childSets != null) {
+            for (FileSet childSet : childSets) {
+                childSet.deleteTemporaryDirectories();
+            }
+        }
+    }
+
     public Collection<File> getAllFiles() {
         Collection<File> allFiles =
                 new ArrayList<File>((getContentFiles() == null ? 0 : getContentFiles().size())
@@ -684,4 +738,84 @@ public class FileSet implements Serializable, XMLSerializable {
         this.itemHandle = itemHandle;
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("fileset");
+        if (getItemHandle() != null) {
+            XMLStreams.writeElement(writer, "itemHandle", getItemHandle());
+        }
+        if (getChildSets() != null) {
+            writer.writeStartElement("childsets");
+            for (FileSet child : getChildSets()) {
+                child.writeXML(writer);
+            }
+            writer.writeEndElement();
+        }
+        if (getContentFiles() != null) {
+            writer.writeStartElement("contentfiles");
+            for (File current : getContentFiles()) {
+                XMLStreams.writeElement(writer, "contentfile", current.getAbsolutePath());
+            }
+            writer.writeEndElement();
+        }
+        if (getMetaFiles() != null) {
+            writer.writeStartElement("metafiles");
+            for (File current : getMetaFiles()) {
+                XMLStreams.writeElement(writer, "metafile", current.getAbsolutePath());
+            }
+            writer.writeEndElement();
+        }
+        if (getMetaInfo() != null) {
+            writer.writeStartElement("metainfo");
+            for (FileSetMetaData current : getMetaInfo()) {
+                current.writeXML(writer);
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("itemHandle".equals(name)) {
+                this.setItemHandle(reader.getElementText());
+            } else if ("childsets".equals(name)) {
+                while (XMLStreams.nextChild(reader)) {
+                    if ("fileset".equals(reader.getLocalName())) {
+                        FileSet child = new FileSet();
+                        child.readXML(reader);
+                        this.addChildSet(child);
+                    } else {
+                        XMLStreams.skipElement(reader);
+                    }
+                }
+            } else if ("contentfiles".equals(name)) {
+                while (XMLStreams.nextChild(reader)) {
+                    if ("contentfile".equals(reader.getLocalName())) {
+                        this.addContentFile(new File(reader.getElementText()));
+                    } else {
+                        XMLStreams.skipElement(reader);
+                    }
+                }
+            } else if ("metafiles".equals(name)) {
+                while (XMLStreams.nextChild(reader)) {
+                    this.addMetaFile(new File(reader.getElementText()));
+                }
+            } else if ("metainfo".equals(name)) {
+                while (XMLStreams.nextChild(reader)) {
+                    if ("filesetmetadata".equals(reader.getLocalName())) {
+                        FileSetMetaData metaData = new FileSetMetaData();
+                        metaData.readXML(reader);
+                        this.addMetaInfo(metaData);
+                    } else {
+                        XMLStreams.skipElement(reader);
+                    }
+                }
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
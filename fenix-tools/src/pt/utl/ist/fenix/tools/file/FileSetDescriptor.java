@@ -7,6 +7,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
@@ -19,7 +23,7 @@ import org.dom4j.tree.BaseElement;
  */
 
 @SuppressWarnings("serial")
-public class FileSetDescriptor implements Serializable, XMLSerializable {
+public class FileSetDescriptor implements Serializable, XMLStreamSerializable {
 
     /**
      * The related child FileSet's
@@ -569,4 +573,87 @@ public class FileSetDescriptor implements Serializable, XMLSerializable {
         return null;
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetdescriptor");
+        if (getChildSets() != null) {
+            writer.writeStartElement("childsets");
+            for (FileSetDescriptor childDescriptor : getChildSets()) {
+                childDescriptor.writeXML(writer);
+            }
+            writer.writeEndElement();
+        }
+        if (getContentFilesDescriptors() != null) {
+            writer.writeStartElement("contentfiledescriptors");
+            for (FileDescriptor current : getContentFilesDescriptors()) {
+                current.writeXML(writer);
+            }
+            writer.writeEndElement();
+        }
+        if (getMetaFilesDescriptors() != null) {
+            writer.writeStartElement("metafiledescriptors");
+            for (FileDescriptor current : getMetaFilesDescriptors()) {
+                current.writeXML(writer);
+            }
+            writer.writeEndElement();
+        }
+        if (getMetaInfo() != null) {
+            writer.writeStartElement("metainfo");
+            for (FileSetMetaData current : getMetaInfo()) {
+                current.writeXML(writer);
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("childsets".equals(name)) {
+                while (XMLStreams.nextChild(reader)) {
+                    if ("filesetdescriptor".equals(reader.getLocalName())) {
+                        FileSetDescriptor child = new FileSetDescriptor();
+                        child.readXML(reader);
+                        this.addChildSet(child);
+                    } else {
+                        XMLStreams.skipElement(reader);
+                    }
+                }
+            } else if ("contentfiledescriptors".equals(name)) {
+                while (XMLStreams.nextChild(reader)) {
+                    if ("filedescriptor".equals(reader.getLocalName())) {
+                        FileDescriptor fileDesc = new FileDescriptor();
+                        fileDesc.readXML(reader);
+                        this.addContentFileDescriptor(fileDesc);
+                    } else {
+                        XMLStreams.skipElement(reader);
+                    }
+                }
+            } else if ("metafiledescriptors".equals(name)) {
+                while (XMLStreams.nextChild(reader)) {
+                    if ("filedescriptor".equals(reader.getLocalName())) {
+                        FileDescriptor metaFileDescriptor = new FileDescriptor();
+                        metaFileDescriptor.readXML(reader);
+                        this.addMetaFileDescriptors(metaFileDescriptor);
+                    } else {
+                        XMLStreams.skipElement(reader);
+                    }
+                }
+            } else if ("metainfo".equals(name)) {
+                while (XMLStreams.nextChild(reader)) {
+                    if ("filesetmetadata".equals(reader.getLocalName())) {
+                        FileSetMetaData metaData = new FileSetMetaData();
+                        metaData.readXML(reader);
+                        this.addMetaInfo(metaData);
+                    } else {
+                        XMLStreams.skipElement(reader);
+                    }
+                }
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
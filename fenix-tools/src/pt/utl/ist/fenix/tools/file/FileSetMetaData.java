@@ -7,6 +7,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
@@ -23,7 +27,7 @@ import pt.linkare.scorm.utils.ScormMetaData;
  * 
  */
 @SuppressWarnings("serial")
-public class FileSetMetaData implements Serializable, XMLSerializable {
+public class FileSetMetaData implements Serializable, XMLStreamSerializable {
 
     /**
      * Dublin Core qualification "element"
@@ -346,4 +350,51 @@ public class FileSetMetaData implements Serializable, XMLSerializable {
         metadata.fromXMLString(xmlString);
         return metadata;
     }
+
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetmetadata");
+        if (getElement() != null) {
+            XMLStreams.writeElement(writer, "element", getElement());
+        }
+        if (getQualifier() != null) {
+            XMLStreams.writeElement(writer, "qualifier", getQualifier());
+        }
+        if (getLang() != null) {
+            XMLStreams.writeElement(writer, "lang", getLang());
+        }
+        if (getValues() != null) {
+            writer.writeStartElement("values");
+            int count = 0;
+            for (String value : getValues()) {
+                if (value != null) {
+                    XMLStreams.writeElement(writer, "value" + count++, value);
+                }
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("element".equals(name)) {
+                this.setElement(reader.getElementText());
+            } else if ("qualifier".equals(name)) {
+                this.setQualifier(reader.getElementText());
+            } else if ("lang".equals(name)) {
+                this.setLang(reader.getElementText());
+            } else if ("values".equals(name)) {
+                List<String> valuesAux = new ArrayList<String>();
+                while (XMLStreams.nextChild(reader)) {
+                    valuesAux.add(reader.getElementText());
+                }
+                this.setValues(valuesAux.toArray(new String[valuesAux.size()]));
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
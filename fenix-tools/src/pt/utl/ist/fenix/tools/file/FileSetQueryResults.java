@@ -4,11 +4,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.Element;
 import org.dom4j.tree.BaseElement;
 
-public class FileSetQueryResults implements XMLSerializable {
+public class FileSetQueryResults implements XMLStreamSerializable {
 
     private Set<FileSetDescriptor> results = new HashSet<FileSetDescriptor>();
     private int start = 0;
@@ -114,4 +118,28 @@ public class FileSetQueryResults implements XMLSerializable {
         return el;
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetqueryresults");
+        writer.writeAttribute("start", "" + getStart());
+        writer.writeAttribute("pagesize", "" + getPageSize());
+        writer.writeAttribute("hitscount", "" + getHitsCount());
+        for (FileSetDescriptor descriptor : getResults()) {
+            descriptor.writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        setStart(Integer.parseInt(reader.getAttributeValue(null, "start")));
+        setPageSize(Integer.parseInt(reader.getAttributeValue(null, "pagesize")));
+        setHitsCount(Integer.parseInt(reader.getAttributeValue(null, "hitscount")));
+
+        while (XMLStreams.nextChild(reader)) {
+            FileSetDescriptor descriptor = new FileSetDescriptor();
+            descriptor.readXML(reader);
+            results.add(descriptor);
+        }
+    }
 }
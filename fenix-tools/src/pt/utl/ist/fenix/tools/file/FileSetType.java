@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.Collections;
 
 import pt.utl.ist.fenix.tools.file.filters.FileSetFilter;
+import pt.utl.ist.fenix.tools.file.filters.ImageDerivativeFileSetFilter;
 import pt.utl.ist.fenix.tools.file.filters.ScormFileSetFilter;
 import pt.utl.ist.fenix.tools.file.filters.SimpleFileSetFilter;
 import pt.utl.ist.fenix.tools.file.filters.SimpleImageFileSetFilter;
@@ -12,8 +13,9 @@ import pt.utl.ist.fenix.tools.file.filters.ZipFileSetFilter;
 
 public enum FileSetType {
     SIMPLE(SimpleFileSetFilter.class), PACKAGE_SCORM_1_2(ScormFileSetFilter.class), UNPACKAGED_SCORM_1_2, APP_DOC, APP_EXCEL,
-    APP_PDF, IMAGE_GIF(SimpleFileSetFilter.class, SimpleImageFileSetFilter.class), IMAGE_JPG(SimpleFileSetFilter.class,
-            SimpleImageFileSetFilter.class), IMAGE_PNG(SimpleFileSetFilter.class, SimpleImageFileSetFilter.class),
+    APP_PDF, IMAGE_GIF(SimpleFileSetFilter.class, SimpleImageFileSetFilter.class, ImageDerivativeFileSetFilter.class),
+    IMAGE_JPG(SimpleFileSetFilter.class, SimpleImageFileSetFilter.class, ImageDerivativeFileSetFilter.class), IMAGE_PNG(
+            SimpleFileSetFilter.class, SimpleImageFileSetFilter.class, ImageDerivativeFileSetFilter.class),
     ZIP_JAR_SIMPLE(ZipFileSetFilter.class, SimpleFileSetFilter.class);
 
     private Collection<FileSetFilter> filters = new ArrayList<FileSetFilter>();
@@ -0,0 +1,706 @@
+package pt.utl.ist.fenix.tools.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.dom4j.tree.BaseElement;
+
+import pt.utl.ist.fenix.tools.file.utils.FileUtils;
+import pt.utl.ist.fenix.tools.util.StringNormalizer;
+
+/**
+ * Saves files through a file manager in background threads, so that the
+ * callers do not wait for the repository. Each upload is answered with a
+ * {@link PendingUpload}, which can be polled or waited for, and optionally
+ * reports to a {@link Callback} when it ends.
+ * <p>
+ * The content is copied into the queue before the call returns. When
+ * {@link #DIRECTORY_PARAM} is configured the uploads are kept there until they
+ * succeed, and the ones left by a previous run are resumed when the queue is
+ * created, which the first file manager does on startup. Uploads that keep failing
+ * after {@link #MAX_ATTEMPTS_PARAM} attempts are moved to its
+ * <code>failed</code> subdirectory. Only failures to reach the repository are
+ * retried, the others move the upload there at once.
+ * <p>
+ * All the file managers configured with the same directory share one queue,
+ * which takes its settings from the first of them. Each upload is saved by a
+ * file manager of the same class as the one that queued it, and the uploads
+ * resumed from the directory wait for such a file manager to use the queue.
+ * <p>
+ * Resumed uploads are saved at least once: if the process stops after a file
+ * was saved but before its upload was removed from the directory, the file is
+ * saved again on the next start.
+ * <p>
+ * At most {@link #CAPACITY_PARAM} uploads can be waiting. When the queue is
+ * full new uploads wait up to {@link #OFFER_TIMEOUT_PARAM} milliseconds for a
+ * free place, and are then refused with a {@link FileManagerException}.
+ */
+public class FileUploadQueue {
+
+    public final static String DIRECTORY_PARAM = "file.upload.queue.dir";
+
+    public final static String THREADS_PARAM = "file.upload.queue.threads";
+
+    public final static String CAPACITY_PARAM = "file.upload.queue.capacity";
+
+    public final static String MAX_ATTEMPTS_PARAM = "file.upload.queue.maxAttempts";
+
+    public final static String RETRY_DELAY_PARAM = "file.upload.queue.retryDelay";
+
+    public final static String OFFER_TIMEOUT_PARAM = "file.upload.queue.offerTimeout";
+
+    private final static int DEFAULT_THREADS = 2;
+
+    private final static int DEFAULT_CAPACITY = 100;
+
+    private final static int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private final static int DEFAULT_RETRY_DELAY = 5000;
+
+    private final static int DEFAULT_OFFER_TIMEOUT = 30000;
+
+    private static final String UPLOAD_FILE = "upload.xml";
+
+    private static final String FAILED_DIRECTORY = "failed";
+
+    private static final Logger logger = Logger.getLogger(FileUploadQueue.class.getName());
+
+    // the queues that keep their uploads in a directory, by its canonical path
+    private static final Map<File, FileUploadQueue> queues = new HashMap<File, FileUploadQueue>();
+
+    /**
+     * Notified in a worker thread when an upload ends.
+     */
+    public static interface Callback {
+        public void uploaded(PendingUpload upload, FileDescriptor descriptor);
+
+        public void failed(PendingUpload upload, Throwable cause);
+    }
+
+    // the file managers using the queue
+    private final List<IFileManager> users = new ArrayList<IFileManager>();
+
+    // the file manager that saves the uploads of each owner
+    private final Map<String, IFileManager> fileManagers = new HashMap<String, IFileManager>();
+
+    // resumed uploads whose owner has not used the queue yet
+    private final Map<String, List<PendingUpload>> waiting = new HashMap<String, List<PendingUpload>>();
+
+    // null when the uploads are not kept across restarts
+    private final File directory;
+
+    private final int maxAttempts;
+
+    private final long retryDelay;
+
+    private final long offerTimeout;
+
+    private final Semaphore places;
+
+    private final ScheduledThreadPoolExecutor workers;
+
+    private final ConcurrentMap<String, PendingUpload> uploads = new ConcurrentHashMap<String, PendingUpload>();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    private FileUploadQueue(AbstractFileManager fileManager, File directory) {
+        int threads = fileManager.getIntProperty(THREADS_PARAM, DEFAULT_THREADS);
+        int capacity = fileManager.getIntProperty(CAPACITY_PARAM, DEFAULT_CAPACITY);
+        this.directory = directory;
+        this.maxAttempts = Math.max(1, fileManager.getIntProperty(MAX_ATTEMPTS_PARAM, DEFAULT_MAX_ATTEMPTS));
+        this.retryDelay = fileManager.getIntProperty(RETRY_DELAY_PARAM, DEFAULT_RETRY_DELAY);
+        this.offerTimeout = fileManager.getIntProperty(OFFER_TIMEOUT_PARAM, DEFAULT_OFFER_TIMEOUT);
+        this.places = new Semaphore(capacity);
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FileUploadQueue-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // whatever is still waiting is resumed from the directory on the next start
+        workers.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        if (directory != null) {
+            if (!directory.mkdirs() && !directory.isDirectory()) {
+                throw new RuntimeException("Unable to create the upload queue directory " + directory.getAbsolutePath());
+            }
+            resume(ownerOf(fileManager));
+        }
+        logger.log(Level.INFO, "File upload queue with " + threads + " threads and " + capacity + " places"
+                + (directory != null ? " in " + directory.getAbsolutePath() : ""));
+    }
+
+    /**
+     * @return the queue of the directory configured for the file manager,
+     *         shared with the other file managers configured with the same
+     *         directory, or a new queue when none is configured
+     */
+    static synchronized FileUploadQueue open(AbstractFileManager fileManager) {
+        File directory = directoryOf(fileManager);
+        FileUploadQueue queue = directory != null ? queues.get(directory) : null;
+        if (queue == null) {
+            queue = new FileUploadQueue(fileManager, directory);
+            if (directory != null) {
+                queues.put(directory, queue);
+            }
+        }
+        queue.register(fileManager);
+        return queue;
+    }
+
+    /**
+     * Stops using the queue. When no file manager uses it any longer its
+     * workers are stopped once the uploads being saved finish, and the uploads
+     * still waiting are resumed on the next start if the queue has a
+     * directory.
+     */
+    static synchronized void close(AbstractFileManager fileManager, FileUploadQueue queue) {
+        if (queue.unregister(fileManager)) {
+            if (queue.directory != null) {
+                queues.remove(queue.directory);
+            }
+            queue.workers.shutdown();
+        }
+    }
+
+    private static File directoryOf(AbstractFileManager fileManager) {
+        String value = fileManager.getProperty(DIRECTORY_PARAM);
+        if (value == null || value.trim().length() == 0) {
+            return null;
+        }
+        File directory = new File(value.trim());
+        try {
+            return directory.getCanonicalFile();
+        } catch (IOException e) {
+            return directory.getAbsoluteFile();
+        }
+    }
+
+    private static String ownerOf(IFileManager fileManager) {
+        return fileManager.getClass().getName();
+    }
+
+    private synchronized void register(IFileManager fileManager) {
+        users.add(fileManager);
+        String owner = ownerOf(fileManager);
+        if (!fileManagers.containsKey(owner)) {
+            fileManagers.put(owner, fileManager);
+            List<PendingUpload> resumed = waiting.remove(owner);
+            if (resumed != null) {
+                for (PendingUpload upload : resumed) {
+                    logger.log(Level.INFO, "Resuming the upload of " + upload.filename);
+                    workers.execute(new Upload(upload));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether no file manager uses the queue any longer
+     */
+    private synchronized boolean unregister(IFileManager fileManager) {
+        users.remove(fileManager);
+        String owner = ownerOf(fileManager);
+        if (fileManagers.get(owner) == fileManager) {
+            fileManagers.remove(owner);
+            for (IFileManager user : users) {
+                if (ownerOf(user).equals(owner)) {
+                    fileManagers.put(owner, user);
+                    break;
+                }
+            }
+        }
+        return users.isEmpty();
+    }
+
+    /**
+     * @return the file manager that saves the upload, or null if there is
+     *         none, in which case the upload waits for one
+     */
+    private synchronized IFileManager getFileManager(PendingUpload upload) {
+        IFileManager fileManager = fileManagers.get(upload.owner);
+        if (fileManager == null) {
+            List<PendingUpload> uploads = waiting.get(upload.owner);
+            if (uploads == null) {
+                uploads = new ArrayList<PendingUpload>();
+                waiting.put(upload.owner, uploads);
+            }
+            uploads.add(upload);
+        }
+        return fileManager;
+    }
+
+    /**
+     * Failures to reach the repository are worth retrying, while a missing
+     * file or a refused request fail the same way again.
+     */
+    private static boolean isTransient(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FileNotFoundException) {
+                return false;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An upload waiting in the queue, being saved, or finished.
+     */
+    public class PendingUpload implements Future<FileDescriptor> {
+
+        private final String id;
+
+        // the class of the file manager that saves it
+        private final String owner;
+
+        private final VirtualPath path;
+
+        private final String filename;
+
+        private final boolean privateFile;
+
+        private final Collection<FileSetMetaData> metaData;
+
+        private final File uploadDir;
+
+        private final Callback callback;
+
+        // whether it holds one of the places of the queue
+        private final boolean placed;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private int attempts;
+
+        private boolean running = false;
+
+        private boolean cancelled = false;
+
+        private FileDescriptor result;
+
+        private Throwable failure;
+
+        private PendingUpload(String id, String owner, VirtualPath path, String filename, boolean privateFile,
+                Collection<FileSetMetaData> metaData, File uploadDir, Callback callback, boolean placed, int attempts) {
+            this.id = id;
+            this.owner = owner;
+            this.path = path;
+            this.filename = filename;
+            this.privateFile = privateFile;
+            this.metaData = metaData;
+            this.uploadDir = uploadDir;
+            this.callback = callback;
+            this.placed = placed;
+            this.attempts = attempts;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public synchronized int getAttempts() {
+            return attempts;
+        }
+
+        private File getContent() {
+            return new File(uploadDir, filename);
+        }
+
+        private synchronized boolean start() {
+            if (cancelled) {
+                return false;
+            }
+            running = true;
+            attempts++;
+            return true;
+        }
+
+        private synchronized void stop() {
+            running = false;
+        }
+
+        private void complete(FileDescriptor result, Throwable failure) {
+            synchronized (this) {
+                this.result = result;
+                this.failure = failure;
+                this.running = false;
+            }
+            done.countDown();
+        }
+
+        /**
+         * Cancels an upload that is not being saved at the moment.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (running || isDone()) {
+                    return false;
+                }
+                cancelled = true;
+            }
+            finish(this, null, null);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public FileDescriptor get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResult();
+        }
+
+        @Override
+        public FileDescriptor get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException("Upload of " + filename + " is still pending");
+            }
+            return getResult();
+        }
+
+        private synchronized FileDescriptor getResult() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException("Upload of " + filename + " was cancelled");
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+    }
+
+    private class Upload implements Runnable {
+
+        private final PendingUpload upload;
+
+        public Upload(PendingUpload upload) {
+            this.upload = upload;
+        }
+
+        @Override
+        public void run() {
+            IFileManager fileManager = getFileManager(upload);
+            if (fileManager == null || !upload.start()) {
+                return;
+            }
+            FileDescriptor descriptor;
+            try {
+                descriptor =
+                        fileManager.saveFile(upload.path, upload.filename, upload.privateFile, upload.metaData, upload
+                                .getContent());
+            } catch (RuntimeException e) {
+                int attempts = upload.getAttempts();
+                if (!isTransient(e)) {
+                    logger.log(Level.SEVERE, "Upload of " + upload.filename + " failed", e);
+                    failed.incrementAndGet();
+                    finish(upload, null, e);
+                } else if (workers.isShutdown() && directory != null) {
+                    logger.log(Level.WARNING, "Upload of " + upload.filename + " failed, leaving it for the next start", e);
+                    upload.stop();
+                    save(upload);
+                } else if (attempts < maxAttempts && !workers.isShutdown()) {
+                    long delay = retryDelay << (attempts - 1);
+                    logger.log(Level.WARNING, "Upload of " + upload.filename + " failed, retrying in " + delay + "ms", e);
+                    retries.incrementAndGet();
+                    upload.stop();
+                    save(upload);
+                    workers.schedule(this, delay, TimeUnit.MILLISECONDS);
+                } else {
+                    logger.log(Level.SEVERE, "Upload of " + upload.filename + " failed after " + attempts + " attempts", e);
+                    failed.incrementAndGet();
+                    finish(upload, null, e);
+                }
+                return;
+            }
+            completed.incrementAndGet();
+            finish(upload, descriptor, null);
+        }
+    }
+
+    /**
+     * Queues a copy of the given file to be saved by the file manager.
+     */
+    public PendingUpload saveFile(IFileManager fileManager, VirtualPath filePath, String originalFilename, boolean privateFile,
+            Collection<FileSetMetaData> fileMetadata, File fileToSave, Callback callback) {
+        try {
+            return saveFile(fileManager, filePath, originalFilename, privateFile, fileMetadata, new FileInputStream(fileToSave),
+                    callback);
+        } catch (FileNotFoundException e) {
+            throw new FileManagerException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Copies the content of the stream into the queue, to be saved later by
+     * the file manager. The stream is read, and closed, before this method
+     * returns.
+     */
+    public PendingUpload saveFile(IFileManager fileManager, VirtualPath filePath, String originalFilename, boolean privateFile,
+            Collection<FileSetMetaData> fileMetadata, InputStream fileInputStream, Callback callback) {
+        try {
+            if (!places.tryAcquire(offerTimeout, TimeUnit.MILLISECONDS)) {
+                closeQuietly(fileInputStream);
+                throw new FileManagerException("The upload queue is full, unable to save " + originalFilename);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeQuietly(fileInputStream);
+            throw new FileManagerException("Interrupted while waiting to save " + originalFilename, e);
+        }
+
+        String id = UUID.randomUUID().toString();
+        String filename =
+                StringNormalizer.normalizePreservingCapitalizedLetters(pt.utl.ist.fenix.tools.util.FileUtils
+                        .getFilenameOnly(originalFilename));
+        Collection<FileSetMetaData> metaData =
+                fileMetadata != null ? new ArrayList<FileSetMetaData>(fileMetadata) : new ArrayList<FileSetMetaData>();
+        File uploadDir = null;
+        try {
+            uploadDir = createUploadDir(id);
+            PendingUpload upload =
+                    new PendingUpload(id, ownerOf(fileManager), filePath, filename, privateFile, metaData, uploadDir, callback,
+                            true, 0);
+            OutputStream output = new FileOutputStream(upload.getContent());
+            try {
+                FileUtils.copyInputStreamToOutputStream(fileInputStream, output);
+            } finally {
+                output.close();
+            }
+            save(upload);
+            uploads.put(id, upload);
+            workers.execute(new Upload(upload));
+            return upload;
+        } catch (IOException e) {
+            places.release();
+            if (uploadDir != null) {
+                FileUtils.deleteDirectory(uploadDir);
+            }
+            throw new FileManagerException("Unable to queue the upload of " + originalFilename, e);
+        } catch (RuntimeException e) {
+            // the queue has been shut down
+            places.release();
+            uploads.remove(id);
+            if (uploadDir != null) {
+                FileUtils.deleteDirectory(uploadDir);
+            }
+            throw e;
+        } finally {
+            closeQuietly(fileInputStream);
+        }
+    }
+
+    private File createUploadDir(String id) throws IOException {
+        File uploadDir;
+        if (directory != null) {
+            uploadDir = new File(directory, id);
+        } else {
+            uploadDir = File.createTempFile("upload_", "_queued");
+            uploadDir.delete();
+        }
+        if (!uploadDir.mkdirs()) {
+            throw new IOException("Unable to create " + uploadDir.getAbsolutePath());
+        }
+        return uploadDir;
+    }
+
+    private void finish(PendingUpload upload, FileDescriptor descriptor, Throwable failure) {
+        uploads.remove(upload.id);
+        if (failure != null && directory != null) {
+            File failedDir = new File(directory, FAILED_DIRECTORY);
+            failedDir.mkdirs();
+            if (!upload.uploadDir.renameTo(new File(failedDir, upload.id))) {
+                logger.warning("Unable to keep the failed upload " + upload.uploadDir.getAbsolutePath());
+            }
+        } else {
+            FileUtils.deleteDirectory(upload.uploadDir);
+        }
+        if (upload.placed) {
+            places.release();
+        }
+        upload.complete(descriptor, failure);
+
+        if (upload.callback != null && !upload.isCancelled()) {
+            try {
+                if (failure == null) {
+                    upload.callback.uploaded(upload, descriptor);
+                } else {
+                    upload.callback.failed(upload, failure);
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Upload callback failed for " + upload.filename, e);
+            }
+        }
+    }
+
+    /*
+     * Persistence
+     */
+
+    private void save(PendingUpload upload) {
+        if (directory == null) {
+            return;
+        }
+        Element uploadElement = new BaseElement("upload");
+        uploadElement.addAttribute("filemanager", upload.owner);
+        uploadElement.addAttribute("filename", upload.filename);
+        uploadElement.addAttribute("privatefile", "" + upload.privateFile);
+        uploadElement.addAttribute("attempts", "" + upload.getAttempts());
+        if (upload.path != null) {
+            uploadElement.add(upload.path.toXML());
+        }
+        Element metaInfoElement = uploadElement.addElement("metainfo");
+        for (FileSetMetaData metaData : upload.metaData) {
+            metaInfoElement.add(metaData.toXML());
+        }
+
+        File temporary = new File(upload.uploadDir, UPLOAD_FILE + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                out.write(DocumentHelper.createDocument(uploadElement).asXML().getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            File uploadFile = new File(upload.uploadDir, UPLOAD_FILE);
+            uploadFile.delete();
+            if (!temporary.renameTo(uploadFile)) {
+                throw new IOException("Unable to rename " + temporary.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            // it is still queued, it just will not survive a restart
+            logger.log(Level.WARNING, "Unable to save the upload of " + upload.filename, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resume(String defaultOwner) {
+        File[] uploadDirs = directory.listFiles();
+        if (uploadDirs == null) {
+            return;
+        }
+        for (File uploadDir : uploadDirs) {
+            File uploadFile = new File(uploadDir, UPLOAD_FILE);
+            if (FAILED_DIRECTORY.equals(uploadDir.getName()) || !uploadFile.isFile()) {
+                continue;
+            }
+            try {
+                Element uploadElement = new SAXReader().read(uploadFile).getRootElement();
+                VirtualPath path = null;
+                if (uploadElement.element("virtualpath") != null) {
+                    path = new VirtualPath();
+                    path.fromXML(uploadElement.element("virtualpath"));
+                }
+                List<FileSetMetaData> metaData = new ArrayList<FileSetMetaData>();
+                for (Element metaDataElement : (List<Element>) uploadElement.element("metainfo").elements()) {
+                    FileSetMetaData fileSetMetaData = new FileSetMetaData();
+                    fileSetMetaData.fromXML(metaDataElement);
+                    metaData.add(fileSetMetaData);
+                }
+                // uploads queued before their owner was recorded are saved by the
+                // file manager that creates the queue
+                String owner = uploadElement.attributeValue("filemanager", defaultOwner);
+                // resumed uploads do not take the places of new ones
+                PendingUpload upload =
+                        new PendingUpload(uploadDir.getName(), owner, path, uploadElement.attributeValue("filename"), Boolean
+                                .parseBoolean(uploadElement.attributeValue("privatefile")), metaData, uploadDir, null, false,
+                                Integer.parseInt(uploadElement.attributeValue("attempts")));
+                uploads.put(upload.id, upload);
+                getFileManager(upload);
+            } catch (DocumentException e) {
+                logger.log(Level.WARNING, "Ignoring unreadable upload " + uploadFile.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    private static void closeQuietly(InputStream input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * @return the upload with the given id, while it has not finished
+     */
+    public PendingUpload getUpload(String id) {
+        return uploads.get(id);
+    }
+
+    public int getPendingCount() {
+        return uploads.size();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FileUploadQueue[pending=" + uploads.size() + ", completed=" + completed + ", failed=" + failed + ", retries="
+                + retries + "]";
+    }
+}
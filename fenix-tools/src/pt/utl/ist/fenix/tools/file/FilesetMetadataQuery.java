@@ -5,11 +5,15 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.Element;
 import org.dom4j.tree.BaseElement;
 
-public class FilesetMetadataQuery implements XMLSerializable, Serializable {
+public class FilesetMetadataQuery implements XMLStreamSerializable, Serializable {
     private int start = 0;
     private int pageSize = 10;
     private List<MetadataQueryComponent> queries;
@@ -75,7 +79,7 @@ public class FilesetMetadataQuery implements XMLSerializable, Serializable {
         this.start = start;
     }
 
-    public static class MetadataQuery implements XMLSerializable, Serializable {
+    public static class MetadataQuery implements XMLStreamSerializable, Serializable {
         public static final String ANY_FIELD = "ANY";
         private String field;
         private String searchString;
@@ -134,6 +138,28 @@ public class FilesetMetadataQuery implements XMLSerializable, Serializable {
             return el;
         }
 
+        @Override
+        public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+            writer.writeStartElement("query");
+            XMLStreams.writeElement(writer, "field", getField());
+            XMLStreams.writeElement(writer, "searchstring", getSearchString());
+            writer.writeEndElement();
+        }
+
+        @Override
+        public void readXML(XMLStreamReader reader) throws XMLStreamException {
+            while (XMLStreams.nextChild(reader)) {
+                String name = reader.getLocalName();
+                if ("field".equals(name)) {
+                    setField(reader.getElementText());
+                } else if ("searchstring".equals(name)) {
+                    setSearchString(reader.getElementText());
+                } else {
+                    XMLStreams.skipElement(reader);
+                }
+            }
+        }
+
     }
 
     public static enum ConjunctionType {
@@ -141,7 +167,7 @@ public class FilesetMetadataQuery implements XMLSerializable, Serializable {
 
     }
 
-    public static class MetadataQueryComponent implements XMLSerializable, Serializable {
+    public static class MetadataQueryComponent implements XMLStreamSerializable, Serializable {
         private MetadataQuery query;
         private ConjunctionType nextQueryConjunction;
 
@@ -209,6 +235,36 @@ public class FilesetMetadataQuery implements XMLSerializable, Serializable {
             el.add(getQuery().toXML());
             return el;
         }
+
+        @Override
+        public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+            writer.writeStartElement("metadataquerycomponent");
+            if (getNextQueryConjunction() != null) {
+                writer.writeAttribute("nextqueryconjunction", getNextQueryConjunction().name());
+            }
+            getQuery().writeXML(writer);
+            writer.writeEndElement();
+        }
+
+        @Override
+        public void readXML(XMLStreamReader reader) throws XMLStreamException {
+            String nextQueryConjunctionVal = reader.getAttributeValue(null, "nextqueryconjunction");
+            if (nextQueryConjunctionVal != null) {
+                for (ConjunctionType enumVal : ConjunctionType.values()) {
+                    if (enumVal.name().equals(nextQueryConjunctionVal)) {
+                        setNextQueryConjunction(enumVal);
+                    }
+                }
+            }
+            MetadataQuery query = new MetadataQuery();
+            if (XMLStreams.nextChild(reader)) {
+                query.readXML(reader);
+                while (XMLStreams.nextChild(reader)) {
+                    XMLStreams.skipElement(reader);
+                }
+            }
+            setQuery(query);
+        }
     }
 
     @Override
@@ -246,4 +302,25 @@ public class FilesetMetadataQuery implements XMLSerializable, Serializable {
         }
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetmetadataquery");
+        writer.writeAttribute("start", "" + getStart());
+        writer.writeAttribute("pagesize", "" + getPageSize());
+        for (MetadataQueryComponent queryComponent : queries) {
+            queryComponent.writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        setStart(Integer.parseInt(reader.getAttributeValue(null, "start")));
+        setPageSize(Integer.parseInt(reader.getAttributeValue(null, "pagesize")));
+        while (XMLStreams.nextChild(reader)) {
+            MetadataQueryComponent queryComponent = new MetadataQueryComponent();
+            queryComponent.readXML(reader);
+            queries.add(queryComponent);
+        }
+    }
 }
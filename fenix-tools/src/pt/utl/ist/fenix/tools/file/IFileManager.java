@@ -42,6 +42,31 @@ public interface IFileManager {
     public FileDescriptor saveFile(VirtualPath filePath, String originalFilename, boolean privateFile,
             Collection<FileSetMetaData> fileMetadata, InputStream fileInputStream);
 
+    /**
+     * Queues the file to be saved in the background. The content is copied
+     * before this method returns, so the file may be changed or removed
+     * afterwards.
+     * 
+     * @param callback notified when the upload ends, may be null
+     * @return the upload, from which the FileDescriptor of the saved file is
+     *         obtained once it is done
+     * @throws FileManagerException if the upload queue stays full
+     */
+    public FileUploadQueue.PendingUpload saveFileAsync(VirtualPath filePath, String originalFilename, boolean privateFile,
+            Collection<FileSetMetaData> fileMetadata, File fileToSave, FileUploadQueue.Callback callback);
+
+    /**
+     * Queues the file to be saved in the background. The stream is read, and
+     * closed, before this method returns.
+     * 
+     * @param callback notified when the upload ends, may be null
+     * @return the upload, from which the FileDescriptor of the saved file is
+     *         obtained once it is done
+     * @throws FileManagerException if the upload queue stays full
+     */
+    public FileUploadQueue.PendingUpload saveFileAsync(VirtualPath filePath, String originalFilename, boolean privateFile,
+            Collection<FileSetMetaData> fileMetadata, InputStream fileInputStream, FileUploadQueue.Callback callback);
+
     /**
      * Deletes an existing file
      * 
@@ -60,6 +85,26 @@ public interface IFileManager {
      */
     public void changeFilePermissions(String uniqueId, Boolean privateFile);
 
+    /**
+     * Deletes several existing files, using as few remote calls as the file
+     * storage allows. All files are processed even if some of them fail.
+     * 
+     * @param uniqueIds
+     * @throws FileManagerException listing the files that could not be deleted
+     */
+    public void deleteFiles(Collection<String> uniqueIds);
+
+    /**
+     * Changes the permissions of several files, using as few remote calls as
+     * the file storage allows. All files are processed even if some of them
+     * fail.
+     * 
+     * @param uniqueIds
+     * @param privateFile
+     * @throws FileManagerException listing the files that could not be changed
+     */
+    public void changeFilesPermissions(Collection<String> uniqueIds, Boolean privateFile);
+
     /**
      * Returns the format of the download url. The format should receive only a
      * parameter with file unique Id. Example:
@@ -4,12 +4,16 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.tree.BaseElement;
 
-public class VirtualPath implements Serializable, XMLSerializable {
+public class VirtualPath implements Serializable, XMLStreamSerializable {
 
     private List<VirtualPathNode> nodes;
 
@@ -75,4 +79,36 @@ public class VirtualPath implements Serializable, XMLSerializable {
         path.fromXMLString(xmlString);
         return path;
     }
+
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("virtualpath");
+        if (getNodes() != null) {
+            writer.writeStartElement("nodes");
+            for (VirtualPathNode vNode : getNodes()) {
+                vNode.writeXML(writer);
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            if ("nodes".equals(reader.getLocalName())) {
+                while (XMLStreams.nextChild(reader)) {
+                    if ("virtualpathnode".equals(reader.getLocalName())) {
+                        VirtualPathNode vPathNode = new VirtualPathNode();
+                        vPathNode.readXML(reader);
+                        this.addNode(vPathNode);
+                    } else {
+                        XMLStreams.skipElement(reader);
+                    }
+                }
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
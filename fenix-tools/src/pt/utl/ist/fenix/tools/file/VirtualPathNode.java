@@ -2,6 +2,10 @@ package pt.utl.ist.fenix.tools.file;
 
 import java.io.Serializable;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
@@ -13,7 +17,7 @@ import org.dom4j.tree.BaseElement;
  * 
  */
 
-public class VirtualPathNode implements Serializable, XMLSerializable {
+public class VirtualPathNode implements Serializable, XMLStreamSerializable {
 
     private String name;
 
@@ -70,4 +74,25 @@ public class VirtualPathNode implements Serializable, XMLSerializable {
         }
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("virtualpathnode");
+        XMLStreams.writeElement(writer, "name", getName());
+        XMLStreams.writeElement(writer, "description", getDescription());
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("name".equals(name)) {
+                this.name = reader.getElementText();
+            } else if ("description".equals(name)) {
+                this.description = reader.getElementText();
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
@@ -0,0 +1,22 @@
+package pt.utl.ist.fenix.tools.file;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes and reads the same XML as {@link XMLSerializable}, but directly to
+ * and from a stream instead of through a document built in memory.
+ *
+ * @see XMLStreams
+ */
+public interface XMLStreamSerializable extends XMLSerializable {
+
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException;
+
+    /**
+     * @param reader positioned on the start of the element of this object. It
+     *            is left on the end of that element.
+     */
+    public void readXML(XMLStreamReader reader) throws XMLStreamException;
+}
@@ -0,0 +1,131 @@
+package pt.utl.ist.fenix.tools.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Helpers for the implementations of {@link XMLStreamSerializable}.
+ */
+public final class XMLStreams {
+
+    private static final XMLInputFactory inputFactory;
+
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    static {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private XMLStreams() {
+    }
+
+    /**
+     * Writes an element containing only text. A null text gives an empty
+     * element.
+     */
+    public static void writeElement(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+        writer.writeStartElement(name);
+        if (text != null) {
+            writer.writeCharacters(text);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Moves the reader to the next child of the current element.
+     *
+     * @return true if the reader is on the start of a child, false if it is on
+     *         the end of the current element
+     */
+    public static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document");
+    }
+
+    /**
+     * Moves the reader from the start to the end of the current element,
+     * ignoring all its content.
+     */
+    public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    public static String toXMLString(XMLStreamSerializable serializable) {
+        StringWriter out = new StringWriter();
+        try {
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out);
+            serializable.writeXML(writer);
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the XML of the given object, without an XML declaration, in the
+     * given encoding.
+     */
+    public static void write(XMLStreamSerializable serializable, OutputStream out, String encoding) throws IOException {
+        try {
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, encoding);
+            serializable.writeXML(writer);
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            IOException ioe = new IOException("Error writing xml: " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    public static void fromXMLString(XMLStreamSerializable serializable, String xml) {
+        try {
+            read(serializable, new StringReader(xml));
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Error parsing xml string : " + xml, e);
+        }
+    }
+
+    /**
+     * Reads the given object from the root element of the document in the
+     * reader.
+     */
+    public static void read(XMLStreamSerializable serializable, Reader in) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+        try {
+            reader.nextTag();
+            serializable.readXML(reader);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package pt.utl.ist.fenix.tools.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An entry of a zip archive, seen as the file it would be if the archive were
+ * extracted to the directory it is in. The entry is never extracted: its
+ * content is read from the archive when it is opened with
+ * {@link FileSet#openContent(File)}.
+ * <p>
+ * Each entry opens the archive again, unless its {@link Archive} was opened
+ * with {@link #openArchives(FileSet)}, in which case all its entries are read
+ * through the same open archive.
+ */
+@SuppressWarnings("serial")
+public class ZipEntryFile extends File {
+
+    private final File zipFile;
+
+    // not sent along with the file set, the entries are only read locally
+    private final transient Archive archive;
+
+    private final String entryName;
+
+    private final long size;
+
+    private final long time;
+
+    public ZipEntryFile(File zipFile, ZipEntry entry) {
+        this(new Archive(zipFile), entry);
+    }
+
+    /**
+     * @param archive
+     *            the archive of the entry, shared by the other entries of the
+     *            same archive
+     */
+    public ZipEntryFile(Archive archive, ZipEntry entry) {
+        super(archive.getFile().getParentFile(), entry.getName());
+        this.archive = archive;
+        this.zipFile = archive.getFile();
+        this.entryName = entry.getName();
+        this.size = entry.getSize();
+        this.time = entry.getTime();
+    }
+
+    public File getZipFile() {
+        return zipFile;
+    }
+
+    public String getEntryName() {
+        return entryName;
+    }
+
+    /**
+     * @return the uncompressed content of the entry. Closing it closes the
+     *         archive, unless the archive was opened with
+     *         {@link #openArchives(FileSet)}.
+     */
+    public InputStream openStream() throws IOException {
+        ZipFile openZip = archive == null ? null : archive.getOpenZipFile();
+        if (openZip != null) {
+            return getEntryStream(openZip);
+        }
+        final ZipFile zip = new ZipFile(zipFile);
+        try {
+            return new FilterInputStream(getEntryStream(zip)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    private InputStream getEntryStream(ZipFile zip) throws IOException {
+        ZipEntry entry = zip.getEntry(entryName);
+        if (entry == null) {
+            throw new FileNotFoundException(entryName + " is not in " + zipFile.getAbsolutePath());
+        }
+        return zip.getInputStream(entry);
+    }
+
+    /**
+     * Opens the archives of the entries of a file set and of its children, so
+     * that each archive is opened once while the file set is uploaded.
+     * 
+     * @return closes the archives, once the entries are no longer read
+     */
+    public static Closeable openArchives(FileSet fileSet) throws IOException {
+        Set<Archive> archives = new LinkedHashSet<Archive>();
+        collectArchives(fileSet, archives);
+        final List<Archive> opened = new ArrayList<Archive>(archives.size());
+        Closeable closeable = new Closeable() {
+            @Override
+            public void close() throws IOException {
+                IOException failure = null;
+                for (Archive archive : opened) {
+                    try {
+                        archive.close();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        };
+        try {
+            for (Archive archive : archives) {
+                archive.open();
+                opened.add(archive);
+            }
+        } catch (IOException e) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+        return closeable;
+    }
+
+    private static void collectArchives(FileSet fileSet, Set<Archive> archives) {
+        for (File file : fileSet.getAllFiles()) {
+            if (file instanceof ZipEntryFile && ((ZipEntryFile) file).archive != null) {
+                archives.add(((ZipEntryFile) file).archive);
+            }
+        }
+        for (FileSet childSet : fileSet.getChildSets()) {
+            collectArchives(childSet, archives);
+        }
+    }
+
+    @Override
+    public boolean exists() {
+        return zipFile.exists();
+    }
+
+    @Override
+    public boolean canRead() {
+        return zipFile.canRead();
+    }
+
+    @Override
+    public boolean isFile() {
+        return true;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return false;
+    }
+
+    @Override
+    public long length() {
+        return size;
+    }
+
+    @Override
+    public long lastModified() {
+        return time;
+    }
+
+    /**
+     * A zip archive shared by the entries read from it. While it is open, the
+     * entries are read through a single {@link ZipFile}, which is closed once
+     * every {@link #openArchives(FileSet)} that opened it is closed.
+     */
+    public static class Archive {
+
+        private final File file;
+
+        private ZipFile zip;
+
+        private int opened = 0;
+
+        public Archive(File file) {
+            this.file = file.getAbsoluteFile();
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        private synchronized void open() throws IOException {
+            if (opened == 0) {
+                zip = new ZipFile(file);
+            }
+            opened++;
+        }
+
+        private synchronized void close() throws IOException {
+            if (opened > 0 && --opened == 0) {
+                ZipFile closing = zip;
+                zip = null;
+                closing.close();
+            }
+        }
+
+        private synchronized ZipFile getOpenZipFile() {
+            return zip;
+        }
+    }
+
+}
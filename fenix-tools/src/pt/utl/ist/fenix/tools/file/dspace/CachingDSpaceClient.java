@@ -0,0 +1,541 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import pt.utl.ist.fenix.tools.file.FileDescriptor;
+import pt.utl.ist.fenix.tools.file.FileSearchCriteria;
+import pt.utl.ist.fenix.tools.file.FileSearchResult;
+import pt.utl.ist.fenix.tools.file.FileSet;
+import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
+import pt.utl.ist.fenix.tools.file.FileSetMetaData;
+import pt.utl.ist.fenix.tools.file.FileSetQueryResults;
+import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery;
+import pt.utl.ist.fenix.tools.file.VirtualPath;
+
+/**
+ * A read-through cache of the descriptor trees answered by another
+ * {@link IDSpaceClient}, for listAllDescriptorsFromRoot and getRootDescriptor
+ * lookups, which are repeated over and over for files that seldom change.
+ *
+ * Entries are keyed by the unique id of the file being looked up, expire after
+ * a configurable time and are evicted in least recently used order once the
+ * configured number of entries is reached. Any change made through this client
+ * to an item (delete, permissions, metadata, files added or removed)
+ * invalidates every entry of that item handle. Changes made by other nodes are
+ * only seen once the entries expire.
+ *
+ * Descriptors are kept in their XML form, so every hit hands out a fresh copy
+ * that callers are free to change.
+ *
+ * The cache is only used when {@link #MAX_ENTRIES_PARAM} is set above 0.
+ */
+public class CachingDSpaceClient implements IDSpaceClient {
+
+    public final static String MAX_ENTRIES_PARAM = "dspace.cache.descriptors.maxEntries";
+
+    public final static String TTL_PARAM = "dspace.cache.descriptors.ttl";
+
+    private final static int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final static int DEFAULT_TTL = 60000;
+
+    private static final String LIST_FROM_ROOT = "list:";
+
+    private static final String ROOT_DESCRIPTOR = "root:";
+
+    private static final Logger logger = Logger.getLogger(CachingDSpaceClient.class.getName());
+
+    private final IDSpaceClient delegate;
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private long ttl = DEFAULT_TTL;
+
+    private final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            if (size() > maxEntries) {
+                unindex(eldest.getKey(), eldest.getValue());
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final Map<String, Set<String>> keysByItemHandle = new HashMap<String, Set<String>>();
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long evictions = 0;
+
+    private long invalidations = 0;
+
+    /*
+     * Every invalidation takes the next sequence number, which is kept for the
+     * items it concerned while there are reads in flight. A read that was
+     * started before one of its items was invalidated may have gotten the
+     * stale descriptors, so it does not store them.
+     */
+    private long invalidationSequence = 0;
+
+    private long allInvalidatedAt = 0;
+
+    private final Map<String, Long> invalidatedAt = new HashMap<String, Long>();
+
+    private int readsInFlight = 0;
+
+    private static class CacheEntry {
+        private final String xml;
+
+        private final long expiresAt;
+
+        private final Set<String> itemHandles;
+
+        public CacheEntry(String xml, long expiresAt, Set<String> itemHandles) {
+            this.xml = xml;
+            this.expiresAt = expiresAt;
+            this.itemHandles = itemHandles;
+        }
+    }
+
+    public CachingDSpaceClient(IDSpaceClient delegate) {
+        this.delegate = delegate;
+    }
+
+    public IDSpaceClient getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return whether the cache is configured for the given file manager
+     */
+    public static boolean isEnabled(DSpaceFileManager fileManager) {
+        return fileManager.getIntProperty(MAX_ENTRIES_PARAM, 0) > 0;
+    }
+
+    @Override
+    public void init(DSpaceFileManager filemanager) {
+        maxEntries = Math.max(1, filemanager.getIntProperty(MAX_ENTRIES_PARAM, DEFAULT_MAX_ENTRIES));
+        ttl = filemanager.getIntProperty(TTL_PARAM, DEFAULT_TTL);
+        logger.log(Level.INFO, "Caching up to " + maxEntries + " descriptors for " + ttl + " ms");
+        delegate.init(filemanager);
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    // ------------------------------------------------------------------
+    // cache bookkeeping
+    // ------------------------------------------------------------------
+
+    private static String keyOf(String operation, FileSetDescriptor descriptor) {
+        if (descriptor == null || descriptor.getContentFilesDescriptors() == null
+                || descriptor.getContentFilesDescriptors().isEmpty()) {
+            return null;
+        }
+        String uniqueId = descriptor.getContentFileDescriptor(0).getUniqueId();
+        return uniqueId == null ? null : operation + uniqueId;
+    }
+
+    private static Set<String> itemHandlesOf(FileSetDescriptor descriptor) {
+        Set<String> itemHandles = new HashSet<String>();
+        for (FileDescriptor fileDescriptor : descriptor.recursiveListAllFileDescriptors()) {
+            if (fileDescriptor.getUniqueId() != null) {
+                itemHandles.add(fileDescriptor.getItemStorageId());
+            }
+        }
+        return itemHandles;
+    }
+
+    private synchronized FileSetDescriptor lookup(String key) {
+        if (key == null) {
+            return null;
+        }
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            unindex(key, entry);
+            misses++;
+            return null;
+        }
+        hits++;
+        return FileSetDescriptor.createFromXMLString(entry.xml);
+    }
+
+    /**
+     * @return the sequence of the last invalidation, to be given to
+     *         {@link #store(String, long, FileSetDescriptor, FileSetDescriptor)}
+     */
+    private synchronized long startRead() {
+        readsInFlight++;
+        return invalidationSequence;
+    }
+
+    private synchronized void finishRead() {
+        if (--readsInFlight == 0) {
+            invalidatedAt.clear();
+        }
+    }
+
+    private boolean invalidatedSince(long startedAt, Set<String> itemHandles) {
+        if (allInvalidatedAt > startedAt) {
+            return true;
+        }
+        for (String itemHandle : itemHandles) {
+            Long sequence = invalidatedAt.get(itemHandle);
+            if (sequence != null && sequence > startedAt) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void store(String key, long startedAt, FileSetDescriptor lookedUp, FileSetDescriptor answer) {
+        if (key == null || answer == null) {
+            return;
+        }
+        Set<String> itemHandles = itemHandlesOf(answer);
+        itemHandles.addAll(itemHandlesOf(lookedUp));
+        CacheEntry entry = new CacheEntry(answer.toXMLString(), System.currentTimeMillis() + ttl, itemHandles);
+        synchronized (this) {
+            if (invalidatedSince(startedAt, itemHandles)) {
+                return;
+            }
+            CacheEntry previous = entries.put(key, entry);
+            if (previous != null) {
+                unindex(key, previous);
+            }
+            for (String itemHandle : itemHandles) {
+                Set<String> keys = keysByItemHandle.get(itemHandle);
+                if (keys == null) {
+                    keys = new HashSet<String>();
+                    keysByItemHandle.put(itemHandle, keys);
+                }
+                keys.add(key);
+            }
+        }
+    }
+
+    private void unindex(String key, CacheEntry entry) {
+        for (String itemHandle : entry.itemHandles) {
+            Set<String> keys = keysByItemHandle.get(itemHandle);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByItemHandle.remove(itemHandle);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every cached descriptor of the item with the given handle
+     */
+    public synchronized void invalidateItem(String itemHandle) {
+        invalidationSequence++;
+        if (readsInFlight > 0) {
+            invalidatedAt.put(itemHandle, invalidationSequence);
+        }
+        Set<String> keys = keysByItemHandle.remove(itemHandle);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            CacheEntry entry = entries.remove(key);
+            if (entry != null) {
+                invalidations++;
+                unindex(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Drops every cached descriptor of the item the file belongs to
+     */
+    public void invalidateFile(String uniqueId) {
+        invalidateItem(FileDescriptor.getItemStorageId(uniqueId));
+    }
+
+    private void invalidate(FileSetDescriptor descriptor) {
+        for (String itemHandle : itemHandlesOf(descriptor)) {
+            invalidateItem(itemHandle);
+        }
+    }
+
+    private void invalidate(List<FileSetDescriptor> descriptors) {
+        for (FileSetDescriptor descriptor : descriptors) {
+            invalidate(descriptor);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        allInvalidatedAt = ++invalidationSequence;
+        invalidations += entries.size();
+        entries.clear();
+        keysByItemHandle.clear();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CachingDSpaceClient[size=" + entries.size() + "/" + maxEntries + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", invalidations=" + invalidations + "]";
+    }
+
+    // ------------------------------------------------------------------
+    // cached lookups
+    // ------------------------------------------------------------------
+
+    @Override
+    public FileSetDescriptor listAllDescriptorsFromRoot(FileSetDescriptor rootFileSetDescriptor) throws DSpaceClientException {
+        String key = keyOf(LIST_FROM_ROOT, rootFileSetDescriptor);
+        FileSetDescriptor cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        long startedAt = startRead();
+        try {
+            FileSetDescriptor answer = delegate.listAllDescriptorsFromRoot(rootFileSetDescriptor);
+            store(key, startedAt, rootFileSetDescriptor, answer);
+            return answer;
+        } finally {
+            finishRead();
+        }
+    }
+
+    @Override
+    public FileSetDescriptor getRootDescriptor(FileSetDescriptor innerChildDescriptor) throws DSpaceClientException {
+        String key = keyOf(ROOT_DESCRIPTOR, innerChildDescriptor);
+        FileSetDescriptor cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        long startedAt = startRead();
+        try {
+            FileSetDescriptor answer = delegate.getRootDescriptor(innerChildDescriptor);
+            store(key, startedAt, innerChildDescriptor, answer);
+            return answer;
+        } finally {
+            finishRead();
+        }
+    }
+
+    @Override
+    public List<FileSetBatchResult> listAllDescriptorsFromRoots(List<FileSetDescriptor> descriptors)
+            throws DSpaceClientException {
+        return batchLookup(LIST_FROM_ROOT, descriptors);
+    }
+
+    @Override
+    public List<FileSetBatchResult> getRootDescriptors(List<FileSetDescriptor> innerChildDescriptors)
+            throws DSpaceClientException {
+        return batchLookup(ROOT_DESCRIPTOR, innerChildDescriptors);
+    }
+
+    /**
+     * Answers the cached descriptors locally and asks the delegate only for
+     * the missing ones, still in a single batch.
+     */
+    private List<FileSetBatchResult> batchLookup(String operation, List<FileSetDescriptor> descriptors)
+            throws DSpaceClientException {
+        List<FileSetBatchResult> results = new ArrayList<FileSetBatchResult>(descriptors.size());
+        List<FileSetDescriptor> missing = new ArrayList<FileSetDescriptor>();
+        List<Integer> missingIndexes = new ArrayList<Integer>();
+        for (FileSetDescriptor descriptor : descriptors) {
+            FileSetDescriptor cached = lookup(keyOf(operation, descriptor));
+            if (cached != null) {
+                results.add(new FileSetBatchResult(cached));
+            } else {
+                missingIndexes.add(results.size());
+                missing.add(descriptor);
+                results.add(null);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            long startedAt = startRead();
+            try {
+                List<FileSetBatchResult> answers =
+                        LIST_FROM_ROOT.equals(operation) ? delegate.listAllDescriptorsFromRoots(missing) : delegate
+                                .getRootDescriptors(missing);
+                Iterator<Integer> indexes = missingIndexes.iterator();
+                Iterator<FileSetDescriptor> lookedUp = missing.iterator();
+                for (FileSetBatchResult answer : answers) {
+                    FileSetDescriptor descriptor = lookedUp.next();
+                    if (answer.isSuccess()) {
+                        store(keyOf(operation, descriptor), startedAt, descriptor, answer.getFileSetDescriptor());
+                    }
+                    results.set(indexes.next(), answer);
+                }
+            } finally {
+                finishRead();
+            }
+        }
+        return results;
+    }
+
+    // ------------------------------------------------------------------
+    // operations that change items
+    // ------------------------------------------------------------------
+
+    @Override
+    public void deleteFileSet(FileSetDescriptor descriptor) throws DSpaceClientException {
+        try {
+            delegate.deleteFileSet(descriptor);
+        } finally {
+            invalidate(descriptor);
+        }
+    }
+
+    @Override
+    public void changeFileSetPermissions(FileSetDescriptor descriptor, boolean privateFile) throws DSpaceClientException {
+        try {
+            delegate.changeFileSetPermissions(descriptor, privateFile);
+        } finally {
+            invalidate(descriptor);
+        }
+    }
+
+    @Override
+    public List<FileSetBatchResult> deleteFileSets(List<FileSetDescriptor> descriptors) throws DSpaceClientException {
+        try {
+            return delegate.deleteFileSets(descriptors);
+        } finally {
+            invalidate(descriptors);
+        }
+    }
+
+    @Override
+    public List<FileSetBatchResult> changeFileSetsPermissions(List<FileSetDescriptor> descriptors, boolean privateFile)
+            throws DSpaceClientException {
+        try {
+            return delegate.changeFileSetsPermissions(descriptors, privateFile);
+        } finally {
+            invalidate(descriptors);
+        }
+    }
+
+    @Override
+    public void changeItemMetaData(String itemHandler, Collection<FileSetMetaData> metaData) throws DSpaceClientException {
+        try {
+            delegate.changeItemMetaData(itemHandler, metaData);
+        } finally {
+            invalidateItem(itemHandler);
+        }
+    }
+
+    @Override
+    public FileSetDescriptor addFileToItem(VirtualPath path, String name, String itemHandle, FileSet fileSet, boolean privateFile)
+            throws DSpaceClientException {
+        try {
+            return delegate.addFileToItem(path, name, itemHandle, fileSet, privateFile);
+        } finally {
+            invalidateItem(itemHandle);
+        }
+    }
+
+    @Override
+    public void removeFileFromItem(String uniqueId) throws DSpaceClientException {
+        try {
+            delegate.removeFileFromItem(uniqueId);
+        } finally {
+            invalidateFile(uniqueId);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // everything else goes straight to the delegate
+    // ------------------------------------------------------------------
+
+    @Override
+    public FileSetDescriptor uploadFileSet(VirtualPath path, String originalFilename, FileSet fs, boolean privateFile)
+            throws DSpaceClientException {
+        return delegate.uploadFileSet(path, originalFilename, fs, privateFile);
+    }
+
+    @Override
+    public FileSetDescriptor uploadStream(VirtualPath path, String originalFilename, InputStream stream,
+            Collection<FileSetMetaData> metaData, boolean privateFile) throws DSpaceClientException {
+        return delegate.uploadStream(path, originalFilename, stream, metaData, privateFile);
+    }
+
+    @Override
+    public FileSet retrieveFileSet(FileSetDescriptor descriptor) throws DSpaceClientException {
+        return delegate.retrieveFileSet(descriptor);
+    }
+
+    @Override
+    public InputStream retrieveStreamForFile(String uniqueIdentifier) throws DSpaceClientException {
+        return delegate.retrieveStreamForFile(uniqueIdentifier);
+    }
+
+    @Override
+    public FileSetQueryResults searchFileSets(FilesetMetadataQuery query, VirtualPath optionalPathToRestrictSearch)
+            throws DSpaceClientException {
+        return delegate.searchFileSets(query, optionalPathToRestrictSearch);
+    }
+
+    @Override
+    public FileSearchResult searchFiles(FileSearchCriteria criteria) throws DSpaceClientException {
+        return searchFiles(criteria, null);
+    }
+
+    @Override
+    public FileSearchResult searchFiles(FileSearchCriteria criteria, VirtualPath optionalPathToRestrictSearch)
+            throws DSpaceClientException {
+        FilesetMetadataQuery query = criteria.getQuery();
+
+        FileSetQueryResults results = searchFileSets(query, optionalPathToRestrictSearch);
+        // resolved here rather than in the delegate, so that the root descriptors come from the cache
+        return FileSetBatchResult.toSearchResult(query, results,
+                getRootDescriptors(new ArrayList<FileSetDescriptor>(results.getResults())));
+    }
+}
@@ -51,6 +51,7 @@ public class ContentFileManager extends DSpaceFileManager implements IContentFil
 
     @Override
     public void removeFileFromItem(String uniqueId) {
+        evictCachedContent(uniqueId);
         try {
             dspaceClient.removeFileFromItem(uniqueId);
         } catch (DSpaceClientException e) {
@@ -0,0 +1,122 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import pt.utl.ist.fenix.tools.file.FileDescriptor;
+
+/**
+ * Computes the size and the checksum of the content as it is read, so that
+ * a stream can be uploaded without first being copied to a local file.
+ */
+public class CountingDigestInputStream extends FilterInputStream {
+
+    public static final String DEFAULT_ALGORITHM = "MD5";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+
+    private long count = 0;
+
+    private String checksum;
+
+    public CountingDigestInputStream(InputStream in) {
+        this(in, DEFAULT_ALGORITHM);
+    }
+
+    public CountingDigestInputStream(InputStream in, String algorithm) {
+        super(in);
+        try {
+            this.digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Checksum algorithm not available: " + algorithm, e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            digest.update((byte) b);
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0) {
+            digest.update(b, off, read);
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes would not be part of the checksum
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public String getAlgorithm() {
+        return digest.getAlgorithm();
+    }
+
+    /**
+     * @return the hexadecimal checksum of the content. Should only be called
+     *         once the stream has been fully read, as it ends the digest.
+     */
+    public String getChecksum() {
+        if (checksum != null) {
+            return checksum;
+        }
+        byte[] bytes = digest.digest();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        checksum = new String(chars);
+        return checksum;
+    }
+
+    /**
+     * Checks that the descriptor of the stored file matches the content that
+     * was read. The checksum is only compared when the server reports it with
+     * the same algorithm.
+     */
+    public void checkUploaded(FileDescriptor descriptor) throws DSpaceClientException {
+        if (descriptor.getSize() != count) {
+            throw new DSpaceClientException("Uploaded " + count + " bytes but the server stored " + descriptor.getSize()
+                    + " bytes for " + descriptor.getFilename());
+        }
+        if (descriptor.getChecksum() != null && getAlgorithm().equalsIgnoreCase(descriptor.getChecksumAlgorithm())
+                && !getChecksum().equalsIgnoreCase(descriptor.getChecksum())) {
+            throw new DSpaceClientException("Checksum mismatch for " + descriptor.getFilename() + ": sent " + getChecksum()
+                    + " but the server stored " + descriptor.getChecksum());
+        }
+    }
+}
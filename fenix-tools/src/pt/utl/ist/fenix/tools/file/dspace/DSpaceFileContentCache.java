@@ -0,0 +1,606 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import pt.utl.ist.fenix.tools.file.FileDescriptor;
+import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
+import pt.utl.ist.fenix.tools.file.utils.FileUtils;
+
+/**
+ * Keeps the contents of the files retrieved from DSpace on the local disk, so
+ * that popular files are downloaded once instead of on every request.
+ * <p>
+ * Entries are keyed by the unique id of the file but the contents are stored
+ * by checksum, so files with the same content share the same copy on disk and
+ * a file whose content is already cached does not have to be downloaded at
+ * all. The expected size and checksum come from the descriptor of the file and
+ * every download is checked against them before being kept. Files larger than
+ * {@link #MAX_FILE_SIZE_PARAM} or without a descriptor are never cached, and
+ * the least recently used files are evicted once the cached contents exceed
+ * {@link #MAX_SIZE_PARAM} bytes. Concurrent requests for a file that is being
+ * downloaded wait for that download instead of starting another one.
+ * <p>
+ * The cache is only enabled when {@link #DIRECTORY_PARAM} is configured. The
+ * contents are kept in a {@value #CACHE_DIRECTORY} directory the cache creates
+ * inside it, and nothing else in the configured directory is touched. The
+ * index is kept in memory, so the first cache of a process empties that
+ * directory, which must not be shared with other processes. Each cache then
+ * takes a numbered directory of its own inside it, as the file managers of a
+ * process may all be configured with the same directory: the directory of a
+ * cache must not be shared with any other cache, even within a process. It is
+ * deleted when the cache is shut down.
+ * <p>
+ * A file invalidated while it is being downloaded is handed to the caller that
+ * downloaded it, from a file of its own that is deleted once read, and is not
+ * kept.
+ */
+public class DSpaceFileContentCache {
+
+    public final static String DIRECTORY_PARAM = "dspace.cache.files.dir";
+
+    public final static String MAX_SIZE_PARAM = "dspace.cache.files.maxSize";
+
+    public final static String MAX_FILE_SIZE_PARAM = "dspace.cache.files.maxFileSize";
+
+    private final static long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+
+    private final static long DEFAULT_MAX_FILE_SIZE = 50L * 1024 * 1024;
+
+    private static final String CACHE_DIRECTORY = "dspace-file-cache";
+
+    private static final String TEMPORARY_DIRECTORY = "tmp";
+
+    private static final Logger logger = Logger.getLogger(DSpaceFileContentCache.class.getName());
+
+    // the cache directories already emptied by this process
+    private static final Set<File> clearedDirectories = new HashSet<File>();
+
+    private final IDSpaceClient dspaceClient;
+
+    private final File directory;
+
+    private final File temporaryDirectory;
+
+    private final long maxSize;
+
+    private final long maxFileSize;
+
+    // unique id -> cached content, in access order
+    private final LinkedHashMap<String, CachedFile> entries = new LinkedHashMap<String, CachedFile>(16, 0.75f, true);
+
+    // content address -> number of entries sharing it
+    private final Map<String, Integer> references = new HashMap<String, Integer>();
+
+    private final ConcurrentMap<String, FutureTask<CachedFile>> fills = new ConcurrentHashMap<String, FutureTask<CachedFile>>();
+
+    private long totalSize = 0;
+
+    // incremented on every invalidation. A download started before its file
+    // was invalidated is not kept
+    private long invalidationSequence = 0;
+
+    private long allInvalidatedAt = 0;
+
+    // unique id -> sequence of its last invalidation, only kept while
+    // downloads are in flight
+    private final Map<String, Long> invalidatedAt = new HashMap<String, Long>();
+
+    private int fillsInFlight = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long bypasses = 0;
+
+    private long evictions = 0;
+
+    private long bytesDownloaded = 0;
+
+    private static class CachedFile {
+        private final String address;
+
+        private final File file;
+
+        private final long size;
+
+        public CachedFile(String address, File file, long size) {
+            this.address = address;
+            this.file = file;
+            this.size = size;
+        }
+
+        /**
+         * @return false for a download that could not be kept in the cache,
+         *         whose file belongs to the caller that downloaded it
+         */
+        public boolean isKept() {
+            return address != null;
+        }
+    }
+
+    public DSpaceFileContentCache(DSpaceFileManager fileManager, IDSpaceClient dspaceClient) {
+        this.dspaceClient = dspaceClient;
+        this.directory = createDirectory(new File(fileManager.getProperty(DIRECTORY_PARAM).trim(), CACHE_DIRECTORY));
+        this.temporaryDirectory = new File(directory, TEMPORARY_DIRECTORY);
+        this.maxSize = fileManager.getLongProperty(MAX_SIZE_PARAM, DEFAULT_MAX_SIZE);
+        this.maxFileSize = Math.min(maxSize, fileManager.getLongProperty(MAX_FILE_SIZE_PARAM, DEFAULT_MAX_FILE_SIZE));
+
+        if (!temporaryDirectory.mkdirs() && !temporaryDirectory.isDirectory()) {
+            throw new RuntimeException("Unable to create file cache directory " + temporaryDirectory.getAbsolutePath());
+        }
+        logger.log(Level.INFO, "DSpace file cache configured in " + directory.getAbsolutePath() + " with " + maxSize
+                + " bytes, " + maxFileSize + " per file");
+    }
+
+    /**
+     * Empties the cache directory the first time this process uses it, as what
+     * it holds was left by a previous run, and creates a directory of its own
+     * for a new cache inside it.
+     */
+    private static synchronized File createDirectory(File cacheDirectory) {
+        File base = cacheDirectory.getAbsoluteFile();
+        try {
+            base = base.getCanonicalFile();
+        } catch (IOException e) {
+            // the absolute path is good enough to tell the directories apart
+        }
+        if (clearedDirectories.add(base)) {
+            FileUtils.deleteDirectory(base);
+        }
+        base.mkdirs();
+        for (int i = 0;; i++) {
+            File directory = new File(base, Integer.toString(i));
+            if (directory.mkdir()) {
+                return directory;
+            }
+            if (!directory.isDirectory()) {
+                throw new RuntimeException("Unable to create file cache directory " + directory.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * @return whether the cache is configured for the given file manager
+     */
+    public static boolean isEnabled(DSpaceFileManager fileManager) {
+        String value = fileManager.getProperty(DIRECTORY_PARAM);
+        return value != null && value.trim().length() > 0;
+    }
+
+    /**
+     * @return a stream over the content of the file, served from the disk when
+     *         possible
+     */
+    public InputStream retrieve(String uniqueId) throws DSpaceClientException {
+        // an entry may be evicted between being looked up and being opened
+        for (int attempt = 0; attempt < 2; attempt++) {
+            CachedFile cached = lookupOrFill(uniqueId);
+            if (cached == null) {
+                break;
+            }
+            try {
+                return cached.isKept() ? new FileInputStream(cached.file) : deletingOnClose(cached.file);
+            } catch (FileNotFoundException e) {
+                remove(uniqueId, cached);
+            }
+        }
+        return dspaceClient.retrieveStreamForFile(uniqueId);
+    }
+
+    private static InputStream deletingOnClose(final File file) throws FileNotFoundException {
+        return new FilterInputStream(new FileInputStream(file)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    file.delete();
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes the content of the file to the given channel. Cached files are
+     * sent with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+     * which avoids copying them through the heap when the target is a socket or
+     * another file.
+     *
+     * @return the number of bytes written
+     */
+    public long transferTo(String uniqueId, WritableByteChannel target) throws DSpaceClientException, IOException {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            CachedFile cached = lookupOrFill(uniqueId);
+            if (cached == null) {
+                break;
+            }
+            FileInputStream input;
+            try {
+                input = new FileInputStream(cached.file);
+            } catch (FileNotFoundException e) {
+                remove(uniqueId, cached);
+                continue;
+            }
+            try {
+                FileChannel channel = input.getChannel();
+                long size = channel.size();
+                long position = 0;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, target);
+                }
+                return position;
+            } finally {
+                input.close();
+                if (!cached.isKept()) {
+                    cached.file.delete();
+                }
+            }
+        }
+
+        InputStream input = dspaceClient.retrieveStreamForFile(uniqueId);
+        try {
+            byte[] buffer = new byte[8192];
+            long written = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, read);
+                while (wrapped.hasRemaining()) {
+                    target.write(wrapped);
+                }
+                written += read;
+            }
+            return written;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @return the cached file, downloading it if needed, or null if the file
+     *         cannot be cached and must be read from DSpace
+     */
+    private CachedFile lookupOrFill(final String uniqueId) throws DSpaceClientException {
+        synchronized (this) {
+            CachedFile cached = entries.get(uniqueId);
+            if (cached != null) {
+                if (cached.file.length() == cached.size) {
+                    hits++;
+                    return cached;
+                }
+                logger.warning("Cached content of " + uniqueId + " was modified on disk, discarding it");
+                remove(uniqueId, cached);
+            }
+            misses++;
+        }
+
+        FutureTask<CachedFile> fill = new FutureTask<CachedFile>(new Callable<CachedFile>() {
+            @Override
+            public CachedFile call() throws DSpaceClientException {
+                return fill(uniqueId);
+            }
+        });
+        FutureTask<CachedFile> inFlight = fills.putIfAbsent(uniqueId, fill);
+        if (inFlight == null) {
+            inFlight = fill;
+            try {
+                fill.run();
+            } finally {
+                fills.remove(uniqueId, fill);
+            }
+        }
+
+        try {
+            CachedFile cached = inFlight.get();
+            if (cached != null && !cached.isKept() && inFlight != fill) {
+                // only the caller that downloaded it may read it
+                cached = null;
+            }
+            if (cached == null || !cached.isKept()) {
+                synchronized (this) {
+                    bypasses++;
+                }
+            }
+            return cached;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DSpaceClientException("Interrupted while waiting for the download of " + uniqueId, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DSpaceClientException) {
+                throw (DSpaceClientException) e.getCause();
+            }
+            throw new DSpaceClientException(e.getCause());
+        }
+    }
+
+    private CachedFile fill(String uniqueId) throws DSpaceClientException {
+        long startedAt;
+        synchronized (this) {
+            fillsInFlight++;
+            startedAt = invalidationSequence;
+        }
+        try {
+            return download(uniqueId, startedAt);
+        } finally {
+            synchronized (this) {
+                if (--fillsInFlight == 0) {
+                    invalidatedAt.clear();
+                }
+            }
+        }
+    }
+
+    private CachedFile download(String uniqueId, long startedAt) throws DSpaceClientException {
+        FileDescriptor expected = findDescriptor(uniqueId);
+        if (expected == null || expected.getSize() > maxFileSize) {
+            return null;
+        }
+
+        String algorithm = expected.getChecksumAlgorithm();
+        if (algorithm == null || expected.getChecksum() == null) {
+            // without a checksum there is no content address to store it under
+            return null;
+        }
+        String address = algorithm.toLowerCase() + File.separator + expected.getChecksum().toLowerCase();
+        File file = new File(directory, address);
+
+        synchronized (this) {
+            if (invalidatedSince(uniqueId, startedAt)) {
+                // the descriptor may already be stale
+                return null;
+            }
+            if (references.containsKey(address)) {
+                return add(uniqueId, new CachedFile(address, file, expected.getSize()));
+            }
+        }
+
+        File temporary = null;
+        boolean handedOut = false;
+        try {
+            temporary = File.createTempFile("fill", ".part", temporaryDirectory);
+            CountingDigestInputStream input = new CountingDigestInputStream(dspaceClient.retrieveStreamForFile(uniqueId),
+                    algorithm);
+            try {
+                OutputStream output = new FileOutputStream(temporary);
+                try {
+                    FileUtils.copyInputStreamToOutputStream(input, output);
+                } finally {
+                    output.close();
+                }
+            } finally {
+                input.close();
+            }
+            synchronized (this) {
+                bytesDownloaded += input.getCount();
+            }
+
+            if (input.getCount() != expected.getSize() || !input.getChecksum().equalsIgnoreCase(expected.getChecksum())) {
+                logger.warning("Downloaded content of " + uniqueId + " does not match its descriptor: " + input.getCount()
+                        + " bytes with checksum " + input.getChecksum() + " instead of " + expected.getSize()
+                        + " bytes with checksum " + expected.getChecksum());
+                // it is still what DSpace answers, so it is not downloaded again
+                handedOut = true;
+                return new CachedFile(null, temporary, input.getCount());
+            }
+
+            synchronized (this) {
+                if (invalidatedSince(uniqueId, startedAt)) {
+                    // only the caller that downloaded it reads it, from its
+                    // own file
+                    handedOut = true;
+                    return new CachedFile(null, temporary, input.getCount());
+                }
+                if (!references.containsKey(address)) {
+                    file.getParentFile().mkdirs();
+                    if (!temporary.renameTo(file)) {
+                        logger.warning("Unable to move downloaded content of " + uniqueId + " to " + file.getAbsolutePath());
+                        handedOut = true;
+                        return new CachedFile(null, temporary, input.getCount());
+                    }
+                }
+                return add(uniqueId, new CachedFile(address, file, expected.getSize()));
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to cache the content of " + uniqueId, e);
+            return null;
+        } catch (RuntimeException e) {
+            // an unavailable checksum algorithm
+            logger.log(Level.WARNING, "Unable to cache the content of " + uniqueId, e);
+            return null;
+        } finally {
+            if (!handedOut && temporary != null && temporary.exists()) {
+                temporary.delete();
+            }
+        }
+    }
+
+    private FileDescriptor findDescriptor(String uniqueId) throws DSpaceClientException {
+        FileDescriptor lookup = new FileDescriptor();
+        lookup.setUniqueId(uniqueId);
+        FileSetDescriptor root = dspaceClient.listAllDescriptorsFromRoot(new FileSetDescriptor(lookup));
+        if (root == null) {
+            return null;
+        }
+        for (FileDescriptor descriptor : root.recursiveListAllFileDescriptors()) {
+            if (uniqueId.equals(descriptor.getUniqueId())) {
+                return descriptor;
+            }
+        }
+        return null;
+    }
+
+    private synchronized boolean invalidatedSince(String uniqueId, long startedAt) {
+        Long invalidated = invalidatedAt.get(uniqueId);
+        return allInvalidatedAt > startedAt || (invalidated != null && invalidated > startedAt);
+    }
+
+    private synchronized CachedFile add(String uniqueId, CachedFile cached) {
+        Integer count = references.get(cached.address);
+        references.put(cached.address, count == null ? 1 : count + 1);
+        if (count == null) {
+            totalSize += cached.size;
+        }
+
+        CachedFile previous = entries.put(uniqueId, cached);
+        if (previous != null) {
+            release(previous);
+        }
+        evictToQuota(uniqueId);
+        return cached;
+    }
+
+    private void evictToQuota(String keep) {
+        Iterator<Map.Entry<String, CachedFile>> iterator = entries.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, CachedFile> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            release(eldest.getValue());
+            evictions++;
+        }
+    }
+
+    private void release(CachedFile cached) {
+        Integer count = references.get(cached.address);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            references.put(cached.address, count - 1);
+            return;
+        }
+        references.remove(cached.address);
+        totalSize -= cached.size;
+        // streams still reading the file keep their content
+        if (cached.file.exists() && !cached.file.delete()) {
+            logger.warning("Unable to delete cached file " + cached.file.getAbsolutePath());
+        }
+    }
+
+    private synchronized void remove(String uniqueId, CachedFile cached) {
+        if (entries.get(uniqueId) == cached) {
+            entries.remove(uniqueId);
+            release(cached);
+        }
+    }
+
+    /**
+     * Discards the cached content of a file, to be called when it is removed
+     * from DSpace.
+     */
+    public synchronized void invalidate(String uniqueId) {
+        invalidationSequence++;
+        if (fillsInFlight > 0) {
+            invalidatedAt.put(uniqueId, invalidationSequence);
+        }
+        CachedFile cached = entries.remove(uniqueId);
+        if (cached != null) {
+            release(cached);
+        }
+    }
+
+    public void invalidate(FileSetDescriptor descriptor) {
+        for (FileDescriptor fileDescriptor : descriptor.recursiveListAllFileDescriptors()) {
+            if (fileDescriptor.getUniqueId() != null) {
+                invalidate(fileDescriptor.getUniqueId());
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        allInvalidatedAt = ++invalidationSequence;
+        for (CachedFile cached : entries.values()) {
+            release(cached);
+        }
+        entries.clear();
+    }
+
+    /**
+     * Discards every cached content and deletes the directory of this cache.
+     * Streams already open keep reading their files.
+     */
+    public synchronized void shutdown() {
+        invalidateAll();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of misses that could not be cached and were read
+     *         directly from DSpace
+     */
+    public synchronized long getBypasses() {
+        return bypasses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DSpaceFileContentCache[entries=" + entries.size() + ", size=" + totalSize + "/" + maxSize + ", hits="
+                + hits + ", misses=" + misses + ", bypasses=" + bypasses + ", evictions=" + evictions + "]";
+    }
+}
@@ -1,30 +1,56 @@
 package pt.utl.ist.fenix.tools.file.dspace;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import pt.utl.ist.fenix.tools.file.AbstractFileManager;
+import pt.utl.ist.fenix.tools.file.FileDescriptor;
 import pt.utl.ist.fenix.tools.file.FileManagerException;
 import pt.utl.ist.fenix.tools.file.FileSearchCriteria;
 import pt.utl.ist.fenix.tools.file.FileSearchResult;
 import pt.utl.ist.fenix.tools.file.FileSet;
 import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
+import pt.utl.ist.fenix.tools.file.FileSetMetaData;
 import pt.utl.ist.fenix.tools.file.FileSetQueryResults;
 import pt.utl.ist.fenix.tools.file.FileSetType;
 import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery;
 import pt.utl.ist.fenix.tools.file.VirtualPath;
+import pt.utl.ist.fenix.tools.file.ZipEntryFile;
 
 public class DSpaceFileManager extends AbstractFileManager {
 
+    /**
+     * When "true", uploaded streams are sent to the server as they are read,
+     * instead of being first written to a temporary file. The file is then
+     * sent before its describing message, which the server must accept, so it
+     * is off by default.
+     */
+    public final static String STREAMING_UPLOAD_PARAM = "dspace.upload.streaming";
+
     private Logger logger = Logger.getLogger(DSpaceFileManager.class.getName());
 
     private String downloadUrlFormat;
 
     protected IDSpaceClient dspaceClient;
 
+    private boolean streamingUpload;
+
+    private DSpaceFileContentCache contentCache;
+
     public DSpaceFileManager() {
         super();
         init();
@@ -39,11 +65,19 @@ public class DSpaceFileManager extends AbstractFileManager {
         try {
             downloadUrlFormat = getProperty("dspace.serverUrl") + "/" + getProperty("dspace.downloadUriFormat");
             logger.log(Level.INFO, "Configured downloadUrlFormat " + downloadUrlFormat);
+            streamingUpload = "true".equalsIgnoreCase(getProperty(STREAMING_UPLOAD_PARAM));
             final String dspaceClientClassName = getProperty("dspace.client.transport.class");
             logger.log(Level.INFO, "DSpace client class name " + dspaceClientClassName);
             dspaceClient = (IDSpaceClient) Class.forName(dspaceClientClassName).newInstance();
+            if (CachingDSpaceClient.isEnabled(this)) {
+                dspaceClient = new CachingDSpaceClient(dspaceClient);
+            }
             logger.log(Level.INFO, "Initializing dspace client");
             dspaceClient.init(this);
+            if (DSpaceFileContentCache.isEnabled(this)) {
+                contentCache = new DSpaceFileContentCache(this, dspaceClient);
+            }
+            startUploadQueue();
         } catch (InstantiationException e) {
             throw new RuntimeException("Error loading dspace file manager", e);
         } catch (IllegalAccessException e) {
@@ -53,14 +87,92 @@ public class DSpaceFileManager extends AbstractFileManager {
         }
     }
 
+    /**
+     * Stops the upload queue, deletes the content cache and releases the
+     * resources of the dspace client, such as its pooled connections. It
+     * should be called when the application is undeployed.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (contentCache != null) {
+            contentCache.shutdown();
+        }
+        if (dspaceClient != null) {
+            logger.log(Level.INFO, "Shutting down dspace client");
+            dspaceClient.shutdown();
+        }
+    }
+
     @Override
     public FileSetDescriptor internalSaveFileSet(VirtualPath virtualPath, String originalFileName, boolean privateFile,
             FileSet fileSet, FileSetType fileSetType) {
+        // the entries of an archive that was not extracted are all read
+        // through the same open archive
+        Closeable archives;
+        try {
+            archives = ZipEntryFile.openArchives(fileSet);
+        } catch (IOException e) {
+            throw new FileManagerException(e.getMessage(), e);
+        }
         try {
             return dspaceClient.uploadFileSet(virtualPath, originalFileName, fileSet, privateFile);
         } catch (DSpaceClientException e) {
             logger.warning(this.getClass().getName() + ": " + e.getMessage());
             throw new FileManagerException(e.getMessage(), e);
+        } finally {
+            try {
+                archives.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to close the archives of " + originalFileName, e);
+            }
+        }
+    }
+
+    @Override
+    protected FileDescriptor internalSaveFileStream(VirtualPath filePath, String originalFilename, boolean privateFile,
+            Collection<FileSetMetaData> fileMetadata, InputStream fileInputStream) {
+        if (!streamingUpload) {
+            return null;
+        }
+        try {
+            return dspaceClient.uploadStream(filePath, originalFilename, fileInputStream, fileMetadata, privateFile)
+                    .getContentFileDescriptor(0);
+        } catch (DSpaceClientException e) {
+            logger.warning(this.getClass().getName() + ": " + e.getMessage());
+            throw new FileManagerException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the descriptor cache in front of the dspace client, or null if
+     *         it was disabled by setting {@link CachingDSpaceClient#MAX_ENTRIES_PARAM} to 0
+     */
+    public CachingDSpaceClient getDescriptorCache() {
+        return dspaceClient instanceof CachingDSpaceClient ? (CachingDSpaceClient) dspaceClient : null;
+    }
+
+    /**
+     * @return the local cache of file contents, or null if
+     *         {@link DSpaceFileContentCache#DIRECTORY_PARAM} is not configured
+     */
+    public DSpaceFileContentCache getContentCache() {
+        return contentCache;
+    }
+
+    /**
+     * Discards the locally cached contents of the files of a fileset that is
+     * about to be removed from DSpace.
+     */
+    protected void evictCachedContent(FileSetDescriptor fileSetDescriptor) {
+        if (contentCache != null) {
+            contentCache.invalidate(fileSetDescriptor);
+        }
+    }
+
+    protected void evictCachedContent(String uniqueId) {
+        if (contentCache != null) {
+            contentCache.invalidate(uniqueId);
         }
     }
 
@@ -77,12 +189,47 @@ public class DSpaceFileManager extends AbstractFileManager {
     @Override
     public InputStream retrieveFile(String uniqueId) {
         try {
+            if (contentCache != null) {
+                return contentCache.retrieve(uniqueId);
+            }
             return dspaceClient.retrieveStreamForFile(uniqueId);
         } catch (DSpaceClientException e) {
             throw new FileManagerException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Writes the content of a file to the given channel. When the file is in
+     * the local cache it is sent without being copied through the heap.
+     *
+     * @return the number of bytes written
+     */
+    public long transferFile(String uniqueId, WritableByteChannel target) throws IOException {
+        try {
+            if (contentCache != null) {
+                return contentCache.transferTo(uniqueId, target);
+            }
+            InputStream input = dspaceClient.retrieveStreamForFile(uniqueId);
+            try {
+                long written = 0;
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, read);
+                    while (wrapped.hasRemaining()) {
+                        target.write(wrapped);
+                    }
+                    written += read;
+                }
+                return written;
+            } finally {
+                input.close();
+            }
+        } catch (DSpaceClientException e) {
+            throw new FileManagerException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public FileSet readFileSet(FileSetDescriptor fileSetDescriptor) {
         try {
@@ -103,6 +250,7 @@ public class DSpaceFileManager extends AbstractFileManager {
 
     @Override
     public void deleteFileSet(FileSetDescriptor fileSetDescriptor) {
+        evictCachedContent(fileSetDescriptor);
         try {
             dspaceClient.deleteFileSet(fileSetDescriptor);
         } catch (DSpaceClientException e) {
@@ -110,6 +258,104 @@ public class DSpaceFileManager extends AbstractFileManager {
         }
     }
 
+    @Override
+    public void deleteFiles(Collection<String> uniqueIds) {
+        applyToRootFileSets(uniqueIds, "Unable to delete files:", new RootFileSetsOperation() {
+            @Override
+            public List<FileSetBatchResult> apply(List<FileSetDescriptor> roots) throws DSpaceClientException {
+                for (FileSetDescriptor root : roots) {
+                    evictCachedContent(root);
+                }
+                return dspaceClient.deleteFileSets(roots);
+            }
+        });
+    }
+
+    @Override
+    public void changeFilesPermissions(Collection<String> uniqueIds, final Boolean privateFile) {
+        applyToRootFileSets(uniqueIds, "Unable to change permissions of files:", new RootFileSetsOperation() {
+            @Override
+            public List<FileSetBatchResult> apply(List<FileSetDescriptor> roots) throws DSpaceClientException {
+                return dspaceClient.changeFileSetsPermissions(roots, privateFile.booleanValue());
+            }
+        });
+    }
+
+    private static interface RootFileSetsOperation {
+        public List<FileSetBatchResult> apply(List<FileSetDescriptor> roots) throws DSpaceClientException;
+    }
+
+    /**
+     * Does the same as {@link #deleteFile(String)} or
+     * {@link #changeFilePermissions(String, Boolean)} for many files, but with
+     * two remote calls in total: one to list the filesets of all the files and
+     * another to apply the operation to all of them.
+     */
+    private void applyToRootFileSets(Collection<String> uniqueIds, String failureMessage, RootFileSetsOperation operation) {
+        List<FileSetDescriptor> lookups = new ArrayList<FileSetDescriptor>(uniqueIds.size());
+        for (String uniqueId : uniqueIds) {
+            FileSetDescriptor setDescriptor = new FileSetDescriptor();
+            FileDescriptor fileDescriptor = new FileDescriptor();
+            fileDescriptor.setUniqueId(uniqueId);
+            setDescriptor.addContentFileDescriptor(fileDescriptor);
+            lookups.add(setDescriptor);
+        }
+
+        StringBuilder failures = new StringBuilder();
+        try {
+            List<FileSetBatchResult> listed = dspaceClient.listAllDescriptorsFromRoots(lookups);
+            // files of the same fileset resolve to the same root, which must
+            // only be handed to the operation once
+            Map<String, FileSetDescriptor> roots = new LinkedHashMap<String, FileSetDescriptor>();
+            Map<String, String> rootIds = new HashMap<String, String>();
+            Iterator<String> ids = uniqueIds.iterator();
+            for (FileSetBatchResult result : listed) {
+                String uniqueId = ids.next();
+                if (!result.isSuccess()) {
+                    failures.append("\n").append(uniqueId).append(": ").append(result.getError());
+                } else if (result.getFileSetDescriptor() != null) {
+                    String key = getRootKey(result.getFileSetDescriptor(), uniqueId);
+                    if (roots.containsKey(key)) {
+                        rootIds.put(key, rootIds.get(key) + ", " + uniqueId);
+                    } else {
+                        roots.put(key, result.getFileSetDescriptor());
+                        rootIds.put(key, uniqueId);
+                    }
+                }
+            }
+
+            if (!roots.isEmpty()) {
+                List<String> keys = new ArrayList<String>(roots.keySet());
+                List<FileSetBatchResult> applied = operation.apply(new ArrayList<FileSetDescriptor>(roots.values()));
+                for (int i = 0; i < applied.size(); i++) {
+                    if (!applied.get(i).isSuccess()) {
+                        failures.append("\n").append(rootIds.get(keys.get(i))).append(": ").append(applied.get(i).getError());
+                    }
+                }
+            }
+        } catch (DSpaceClientException e) {
+            throw new FileManagerException(e.getMessage(), e);
+        }
+
+        if (failures.length() > 0) {
+            logger.warning(this.getClass().getName() + ": " + failureMessage + failures);
+            throw new FileManagerException(failureMessage + failures);
+        }
+    }
+
+    /**
+     * A root fileset is told by the unique id of its first file. One without
+     * files can only be told by the unique id it was looked up from.
+     */
+    private static String getRootKey(FileSetDescriptor root, String uniqueId) {
+        for (FileDescriptor descriptor : root.getAllFileDescriptors()) {
+            if (descriptor.getUniqueId() != null) {
+                return descriptor.getUniqueId();
+            }
+        }
+        return "lookup:" + uniqueId;
+    }
+
     public boolean isDirectDownloadURISupported() {
         return true;
     }
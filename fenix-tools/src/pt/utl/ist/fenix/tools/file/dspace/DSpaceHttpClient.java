@@ -1,15 +1,28 @@
 package pt.utl.ist.fenix.tools.file.dspace;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
 
-import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
@@ -17,6 +30,8 @@ import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.PartBase;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
 import org.apache.commons.httpclient.methods.multipart.StringPart;
 
 import pt.utl.ist.fenix.tools.file.FileDescriptor;
@@ -29,22 +44,41 @@ import pt.utl.ist.fenix.tools.file.FileSetQueryResults;
 import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery;
 import pt.utl.ist.fenix.tools.file.VirtualPath;
 import pt.utl.ist.fenix.tools.file.XMLSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreamSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreams;
+import pt.utl.ist.fenix.tools.file.ZipEntryFile;
+import pt.utl.ist.fenix.tools.file.dspace.FileSetBatchResult.ItemOperation;
+import pt.utl.ist.fenix.tools.file.filters.SimpleFileSetFilter;
 import pt.utl.ist.fenix.tools.file.utils.FileUtils;
 
 public class DSpaceHttpClient implements IDSpaceClient {
 
+    /**
+     * When "true", the xml of the messages is written into the request as it is
+     * serialized, which sends the request with chunked encoding. The server,
+     * and any proxy on the way, must accept chunked requests, so it is off by
+     * default and the xml is first serialized into a buffer to learn its
+     * length.
+     */
+    public final static String CHUNKED_MESSAGES_PARAM = "dspace.http.chunkedMessages";
+
     private static final String DSPACE_ENCODING = "UTF-8";
 
     private static final String SUCCESS_CODE = "SUCCESS";
 
     private static final String UNEXPECTED_ERROR_CODE = "UNEXPECTED_ERROR";
 
+    // answered by servers that do not know the called method
+    private static final String UNKNOWN_METHOD_CODE = "UNKNOWN_METHOD";
+
     private static final String DSPACE_REMOTE_MANAGER_SERVLET = "/DSpaceHTTPRemoteManagerServlet";
 
     private static final String DSPACE_REMOTE_DOWNLOAD_SERVLET = "/DSpaceFileSetDownloadServlet";
 
     private static final String DSPACE_INTERNAL_ERROR = "DSPACE_INTERNAL_ERROR";
 
+    private static final Logger logger = Logger.getLogger(DSpaceHttpClient.class.getName());
+
     private String remoteInterfaceUrl;
 
     private String remoteDownloadInterfaceUrl;
@@ -53,6 +87,18 @@ public class DSpaceHttpClient implements IDSpaceClient {
 
     private String password;
 
+    private DSpaceHttpConnectionPool connectionPool;
+
+    private DSpaceHttpFileSetDownloader fileSetDownloader;
+
+    private boolean chunkedMessages;
+
+    /**
+     * Batched methods the server answered not to know, which are then run one
+     * descriptor at a time
+     */
+    private final Set<String> unsupportedBatchMethods = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     // private DSpaceFileManager fileManager=null;
 
     public DSpaceHttpClient() {
@@ -65,6 +111,23 @@ public class DSpaceHttpClient implements IDSpaceClient {
         this.remoteDownloadInterfaceUrl = fileManager.getProperty("dspace.serverUrl") + DSPACE_REMOTE_DOWNLOAD_SERVLET;
         this.username = fileManager.getProperty("dspace.username");
         this.password = fileManager.getProperty("dspace.password");
+        this.connectionPool = new DSpaceHttpConnectionPool(fileManager);
+        this.fileSetDownloader = new DSpaceHttpFileSetDownloader(connectionPool, fileManager);
+        this.chunkedMessages = "true".equalsIgnoreCase(fileManager.getProperty(CHUNKED_MESSAGES_PARAM));
+    }
+
+    @Override
+    public void shutdown() {
+        if (fileSetDownloader != null) {
+            fileSetDownloader.shutdown();
+        }
+        if (connectionPool != null) {
+            connectionPool.shutdown();
+        }
+    }
+
+    public DSpaceHttpConnectionPool getConnectionPool() {
+        return connectionPool;
     }
 
     @Override
@@ -79,7 +142,7 @@ public class DSpaceHttpClient implements IDSpaceClient {
         int i = 0;
         for (File f : allFiles) {
             try {
-                additionalParts[i++] = new FilePart(f.getAbsolutePath(), f);
+                additionalParts[i++] = createFilePart(f);
             } catch (FileNotFoundException e) {
                 throw new DSpaceClientException(e);
             }
@@ -96,6 +159,155 @@ public class DSpaceHttpClient implements IDSpaceClient {
         return descriptor;
     }
 
+    @Override
+    public FileSetDescriptor uploadStream(VirtualPath path, final String originalFilename, InputStream stream,
+            Collection<FileSetMetaData> metaData, boolean privateFile) throws DSpaceClientException {
+
+        // the file never exists locally, its path only names the multipart part
+        File virtualFile = new File(originalFilename);
+        final FileSet fs = new FileSet(virtualFile, metaData);
+        final FileSetUploadRequest request = new FileSetUploadRequest(path, originalFilename, privateFile, fs);
+        final CountingDigestInputStream content = new CountingDigestInputStream(stream);
+
+        Part[] parts = new Part[5];
+        parts[0] = new StringPart("username", username, DSPACE_ENCODING);
+        parts[1] = new StringPart("password", password, DSPACE_ENCODING);
+        parts[2] = new StringPart("method", "uploadFileSet", DSPACE_ENCODING);
+        parts[3] = new FilePart(virtualFile.getAbsolutePath(), new StreamPartSource(originalFilename, content)) {
+            // keeps the client from resending an already consumed stream when
+            // retrying after an authentication challenge or a redirect
+            @Override
+            public boolean isRepeatable() {
+                return false;
+            }
+        };
+        // sent after the content, once its size is known. The request is
+        // chunked anyway, as the length of the content is not known
+        parts[4] = new XMLStreamPart("message", request, true) {
+            @Override
+            protected void sendData(OutputStream out) throws IOException {
+                SimpleFileSetFilter.addFormatMetaInfo(fs, originalFilename, content.getCount());
+                super.sendData(out);
+            }
+        };
+
+        FileSetDescriptor descriptor =
+                ((FileSetUploadResponse) executeRemoteMethod(parts, FileSetUploadResponse.class)).getFileSetDescriptor();
+
+        content.checkUploaded(descriptor.getContentFileDescriptor(0));
+        return descriptor;
+    }
+
+    /**
+     * Entries of archives that were not extracted are read from the archive.
+     */
+    private static FilePart createFilePart(final File f) throws FileNotFoundException {
+        if (!(f instanceof ZipEntryFile)) {
+            return new FilePart(f.getAbsolutePath(), f);
+        }
+        return new FilePart(f.getAbsolutePath(), new PartSource() {
+            @Override
+            public long getLength() {
+                return f.length();
+            }
+
+            @Override
+            public String getFileName() {
+                return f.getName();
+            }
+
+            @Override
+            public InputStream createInputStream() throws IOException {
+                return FileSet.openContent(f);
+            }
+        });
+    }
+
+    /**
+     * The content of a file part read from a stream of unknown length, which
+     * makes the request be sent with chunked encoding. It can only be sent
+     * once.
+     */
+    private static class StreamPartSource implements PartSource {
+
+        private final String filename;
+
+        private InputStream stream;
+
+        public StreamPartSource(String filename, InputStream stream) {
+            this.filename = filename;
+            this.stream = stream;
+        }
+
+        @Override
+        public long getLength() {
+            return -1;
+        }
+
+        @Override
+        public String getFileName() {
+            return filename;
+        }
+
+        @Override
+        public InputStream createInputStream() throws IOException {
+            if (stream == null) {
+                throw new IOException("The content of " + filename + " was already sent");
+            }
+            InputStream retVal = new FilterInputStream(stream) {
+                @Override
+                public void close() {
+                    // the caller owns the stream
+                }
+            };
+            stream = null;
+            return retVal;
+        }
+    }
+
+    /**
+     * A text part with the xml of a message, written without building a dom4j
+     * document and a string first. Unless it is chunked, the xml is serialized
+     * once into a buffer, which gives the part its length.
+     */
+    private static class XMLStreamPart extends PartBase {
+
+        private final XMLStreamSerializable message;
+
+        private final boolean chunked;
+
+        private byte[] data;
+
+        public XMLStreamPart(String name, XMLStreamSerializable message, boolean chunked) {
+            super(name, StringPart.DEFAULT_CONTENT_TYPE, DSPACE_ENCODING, StringPart.DEFAULT_TRANSFER_ENCODING);
+            this.message = message;
+            this.chunked = chunked;
+        }
+
+        private byte[] getData() throws IOException {
+            if (data == null) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                XMLStreams.write(message, buffer, DSPACE_ENCODING);
+                data = buffer.toByteArray();
+            }
+            return data;
+        }
+
+        @Override
+        protected long lengthOfData() throws IOException {
+            return chunked ? -1 : getData().length;
+        }
+
+        @Override
+        protected void sendData(OutputStream out) throws IOException {
+            if (chunked) {
+                XMLStreams.write(message, out, DSPACE_ENCODING);
+            } else {
+                out.write(getData());
+            }
+        }
+    }
+
     @Override
     public FileSetDescriptor addFileToItem(VirtualPath path, String name, String itemHandle, FileSet fileSet, boolean privateFile)
             throws DSpaceClientException {
@@ -108,7 +320,7 @@ public class DSpaceHttpClient implements IDSpaceClient {
         int i = 0;
         for (File f : allFiles) {
             try {
-                additionalParts[i++] = new FilePart(f.getAbsolutePath(), f);
+                additionalParts[i++] = createFilePart(f);
             } catch (FileNotFoundException e) {
                 throw new DSpaceClientException(e);
             }
@@ -159,22 +371,25 @@ public class DSpaceHttpClient implements IDSpaceClient {
 
     @Override
     public InputStream retrieveStreamForFile(String uniqueIdentifier) throws DSpaceClientException {
-        HttpClient client = new HttpClient();
         String downloadUrl =
                 remoteDownloadInterfaceUrl + "?username=" + username + "&password=" + password + "&uniqueId=" + uniqueIdentifier;
         GetMethod gm = new GetMethod(downloadUrl);
 
         int result;
         try {
-            result = client.executeMethod(gm);
+            result = connectionPool.executeMethod(gm);
             if (result == HttpStatus.SC_OK) {
-                return gm.getResponseBodyAsStream();
+                // the connection goes back to the pool when the caller closes the stream
+                return connectionPool.releasingStream(gm);
             } else {
+                gm.releaseConnection();
                 throw new DSpaceClientException("Unable get stream for " + uniqueIdentifier);
             }
         } catch (HttpException e) {
+            gm.releaseConnection();
             throw new DSpaceClientException(e);
         } catch (IOException e) {
+            gm.releaseConnection();
             throw new DSpaceClientException(e);
         }
 
@@ -199,44 +414,18 @@ public class DSpaceHttpClient implements IDSpaceClient {
 
         // by now all the descriptors recursively should be in
         // allDescriptorsRecursive...
-        // now download them all via http
-        HttpClient client = new HttpClient();
+        // now download them all via http, a few at a time
+        Map<FileDescriptor, File> targets = new LinkedHashMap<FileDescriptor, File>();
         for (FileDescriptor desc : allDescriptorsRecursive) {
-            String downloadUrl =
-                    remoteDownloadInterfaceUrl + "?username=" + username + "&password=" + password + "&uniqueId="
-                            + desc.getUniqueId();
+            targets.put(desc, new File(dirForTempDownload, FileUtils.makeRelativePath(absoluteParentPath,
+                    desc.getOriginalAbsoluteFilePath(), desc.getFilename())));
+        }
 
-            GetMethod gm = new GetMethod(downloadUrl);
-            try {
-                int result = client.executeMethod(gm);
-
-                if (result == HttpStatus.SC_OK) {
-                    File f =
-                            new File(dirForTempDownload, FileUtils.makeRelativePath(absoluteParentPath,
-                                    desc.getOriginalAbsoluteFilePath(), desc.getFilename()));
-                    FileOutputStream fos;
-                    try {
-                        fos = new FileOutputStream(f);
-                        FileUtils.copyInputStreamToOutputStream(gm.getResponseBodyAsStream(), fos);
-                        // fsRetVal.addContentFile(f);
-                        fsRetVal.replaceFileWithAbsolutePath(desc.getOriginalAbsoluteFilePath(), f);
-                    } catch (FileNotFoundException e) {
-                        throw new DSpaceClientException(e);
-                    } catch (IOException e) {
-                        throw new DSpaceClientException(e);
-                    }
-                } else {
-                    throw new DSpaceClientException("Unable to download file " + desc.getFilename() + " with unique id "
-                            + desc.getUniqueId() + " because of an http error: " + result);
-                }
+        fileSetDownloader.download(remoteDownloadInterfaceUrl + "?username=" + username + "&password=" + password + "&uniqueId=",
+                targets);
 
-            } catch (HttpException e) {
-                throw new DSpaceClientException(e);
-            } catch (IOException e) {
-                throw new DSpaceClientException(e);
-            } finally {
-                gm.releaseConnection();
-            }
+        for (Entry<FileDescriptor, File> entry : targets.entrySet()) {
+            fsRetVal.replaceFileWithAbsolutePath(entry.getKey().getOriginalAbsoluteFilePath(), entry.getValue());
         }
         return fsRetVal;
     }
@@ -255,23 +444,114 @@ public class DSpaceHttpClient implements IDSpaceClient {
 
     }
 
+    @Override
+    public List<FileSetBatchResult> deleteFileSets(List<FileSetDescriptor> descriptors) throws DSpaceClientException {
+        return executeBatchMethod("deleteFileSets", new FileSetBatchRequest(descriptors), new ItemOperation() {
+            @Override
+            FileSetDescriptor execute(FileSetDescriptor descriptor) throws DSpaceClientException {
+                deleteFileSet(descriptor);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<FileSetBatchResult> changeFileSetsPermissions(List<FileSetDescriptor> descriptors, final boolean privateFile)
+            throws DSpaceClientException {
+        return executeBatchMethod("changeFileSetsPermissions", new FileSetBatchRequest(descriptors, privateFile), new ItemOperation() {
+            @Override
+            FileSetDescriptor execute(FileSetDescriptor descriptor) throws DSpaceClientException {
+                changeFileSetPermissions(descriptor, privateFile);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<FileSetBatchResult> listAllDescriptorsFromRoots(List<FileSetDescriptor> descriptors)
+            throws DSpaceClientException {
+        return executeBatchMethod("listRecursiveFileSets", new FileSetBatchRequest(descriptors), new ItemOperation() {
+            @Override
+            FileSetDescriptor execute(FileSetDescriptor descriptor) throws DSpaceClientException {
+                return listAllDescriptorsFromRoot(descriptor);
+            }
+        });
+    }
+
+    @Override
+    public List<FileSetBatchResult> getRootDescriptors(List<FileSetDescriptor> innerChildDescriptors)
+            throws DSpaceClientException {
+        return executeBatchMethod("getRootDescriptors", new FileSetBatchRequest(innerChildDescriptors), new ItemOperation() {
+            @Override
+            FileSetDescriptor execute(FileSetDescriptor descriptor) throws DSpaceClientException {
+                return getRootDescriptor(descriptor);
+            }
+        });
+    }
+
+    private List<FileSetBatchResult> executeBatchMethod(String methodName, FileSetBatchRequest request,
+            ItemOperation fallback) throws DSpaceClientException {
+        if (request.getFileSetDescriptors().isEmpty()) {
+            return new ArrayList<FileSetBatchResult>(0);
+        }
+        if (unsupportedBatchMethods.contains(methodName)) {
+            return FileSetBatchResult.executeEach(request.getFileSetDescriptors(), fallback);
+        }
+        FileSetBatchResponse response;
+        try {
+            response =
+                    ((FileSetBatchResponse) executeRemoteMethod(methodName, request, username, password,
+                            FileSetBatchResponse.class, new Part[0]));
+        } catch (UnknownRemoteMethodException e) {
+            logger.log(Level.INFO, "The server does not support " + methodName + ", running it for each descriptor");
+            unsupportedBatchMethods.add(methodName);
+            return FileSetBatchResult.executeEach(request.getFileSetDescriptors(), fallback);
+        }
+        if (response.getError() != null) {
+            throw new DSpaceClientException(response.getError());
+        }
+        return FileSetBatchResult.checkCount(methodName, response.getResults(), request.getFileSetDescriptors().size());
+    }
+
     public XMLSerializable executeRemoteMethod(String methodName, XMLSerializable request, String username, String password,
             Class<? extends XMLSerializable> responseClass, Part... additionalParts) throws DSpaceClientException {
+        Part[] parts = new Part[4 + (additionalParts != null ? additionalParts.length : 0)];
+        parts[0] = new StringPart("username", username, DSPACE_ENCODING);
+        parts[1] = new StringPart("password", password, DSPACE_ENCODING);
+        parts[2] = new StringPart("method", methodName, DSPACE_ENCODING);
+        if (request instanceof XMLStreamSerializable) {
+            parts[3] = new XMLStreamPart("message", (XMLStreamSerializable) request, chunkedMessages);
+        } else {
+            parts[3] = new StringPart("message", request.toXMLString(), DSPACE_ENCODING);
+        }
+        if (additionalParts != null) {
+            System.arraycopy(additionalParts, 0, parts, 4, additionalParts.length);
+        }
+        return executeRemoteMethod(parts, responseClass);
+    }
+
+    private XMLSerializable executeRemoteMethod(Part[] parts, Class<? extends XMLSerializable> responseClass)
+            throws DSpaceClientException {
+        XMLSerializable responseObject;
+        try {
+            responseObject = responseClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new DSpaceClientException(e);
+        } catch (IllegalAccessException e) {
+            throw new DSpaceClientException(e);
+        }
+
         PostMethod post = new PostMethod(remoteInterfaceUrl);
         DspaceResponse response;
         try {
-            HttpClient client = new HttpClient();
-            Part[] parts = new Part[4 + (additionalParts != null ? additionalParts.length : 0)];
-            parts[0] = new StringPart("username", username, DSPACE_ENCODING);
-            parts[1] = new StringPart("password", password, DSPACE_ENCODING);
-            parts[2] = new StringPart("method", methodName, DSPACE_ENCODING);
-            parts[3] = new StringPart("message", request.toXMLString(), DSPACE_ENCODING);
-            if (additionalParts != null) {
-                System.arraycopy(additionalParts, 0, parts, 4, additionalParts.length);
-            }
-
             post.setRequestEntity(new MultipartRequestEntity(parts, post.getParams()));
-            client.executeMethod(post);
+            if (connectionPool.executeMethod(post) == HttpStatus.SC_NOT_IMPLEMENTED) {
+                throw new UnknownRemoteMethodException(post.getStatusLine().toString());
+            }
+            if (responseObject instanceof XMLStreamSerializable) {
+                readStreamedResponse(post, (XMLStreamSerializable) responseObject);
+                return responseObject;
+            }
             response = getDspaceResponse(post.getResponseBodyAsString());
 
         } catch (HttpException e) {
@@ -282,20 +562,60 @@ public class DSpaceHttpClient implements IDSpaceClient {
             post.releaseConnection();
         }
 
-        if (!response.responseCode.equals(SUCCESS_CODE)) {
-            throw new DSpaceClientException(response.responseCode + "\nBODY_MESSAGE:\n" + response.responseMessage);
+        checkResponseCode(response.responseCode, response.responseMessage);
+
+        responseObject.fromXMLString(response.responseMessage);
+        return responseObject;
+    }
+
+    /**
+     * Reads the response code and then parses the message straight from the
+     * response body, without first reading it into a string.
+     */
+    private static void readStreamedResponse(PostMethod post, XMLStreamSerializable responseObject) throws IOException,
+            DSpaceClientException {
+        InputStream body = post.getResponseBodyAsStream();
+        if (body == null) {
+            throw new DSpaceClientException(UNEXPECTED_ERROR_CODE);
+        }
+        Reader reader = new InputStreamReader(body, post.getResponseCharSet());
+
+        StringBuilder responseCode = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1 && c != '\n') {
+            responseCode.append((char) c);
+        }
+        if (c == -1) {
+            throw new DSpaceClientException(responseCode.length() == 0 ? UNEXPECTED_ERROR_CODE : UNEXPECTED_ERROR_CODE + "\n"
+                    + responseCode);
+        }
+
+        if (!responseCode.toString().equals(SUCCESS_CODE)) {
+            StringBuilder responseMessage = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                responseMessage.append(buffer, 0, read);
+            }
+            checkResponseCode(responseCode.toString(), responseMessage);
         }
 
-        XMLSerializable responseObject;
         try {
-            responseObject = responseClass.newInstance();
-            responseObject.fromXMLString(response.responseMessage);
-            return responseObject;
-        } catch (InstantiationException e) {
-            throw new DSpaceClientException(e);
-        } catch (IllegalAccessException e) {
-            throw new DSpaceClientException(e);
+            XMLStreams.read(responseObject, reader);
+        } catch (XMLStreamException e) {
+            throw new DSpaceClientException("Error parsing the response of the remote method", e);
+        }
+    }
+
+    private static void checkResponseCode(String responseCode, CharSequence responseMessage) throws DSpaceClientException {
+        if (responseCode.equals(SUCCESS_CODE)) {
+            return;
+        }
+        String message = responseCode + "\nBODY_MESSAGE:\n" + responseMessage;
+        if (responseCode.equals(UNKNOWN_METHOD_CODE)) {
+            throw new UnknownRemoteMethodException(message);
         }
+        throw new DSpaceClientException(message);
     }
 
     private static class DspaceResponse {
@@ -359,15 +679,13 @@ public class DSpaceHttpClient implements IDSpaceClient {
     @Override
     public FileSearchResult searchFiles(FileSearchCriteria criteria, VirtualPath optionalPathToRestrictSearch)
             throws DSpaceClientException {
-        List<FileDescriptor> descriptors = new ArrayList<FileDescriptor>();
         FilesetMetadataQuery query = criteria.getQuery();
 
         FileSetQueryResults results = searchFileSets(query, optionalPathToRestrictSearch);
-        for (FileSetDescriptor descriptor : results.getResults()) {
-            descriptors.add(getRootDescriptor(descriptor).getContentFileDescriptor(0));
-        }
-
-        return new FileSearchResult(descriptors, query.getStart(), query.getPageSize(), results.getHitsCount());
+        // a single remote call for the whole page, instead of one per hit,
+        // unless the server only resolves them one at a time
+        return FileSetBatchResult.toSearchResult(query, results,
+                getRootDescriptors(new ArrayList<FileSetDescriptor>(results.getResults())));
     }
 
     @Override
@@ -0,0 +1,213 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * Keeps the HTTP connections used to talk with the DSpace server alive between
+ * requests, so that concurrent users reuse already established TCP (and TLS)
+ * connections instead of paying for a handshake on every call.
+ *
+ * All the settings are read from the {@link DSpaceFileManager} properties and
+ * fall back to sensible defaults when absent.
+ */
+public class DSpaceHttpConnectionPool {
+
+    public final static String MAX_CONNECTIONS_PER_HOST_PARAM = "dspace.http.maxConnectionsPerHost";
+
+    public final static String MAX_TOTAL_CONNECTIONS_PARAM = "dspace.http.maxTotalConnections";
+
+    public final static String CONNECTION_TIMEOUT_PARAM = "dspace.http.connectionTimeout";
+
+    public final static String SOCKET_TIMEOUT_PARAM = "dspace.http.socketTimeout";
+
+    public final static String IDLE_CONNECTION_TIMEOUT_PARAM = "dspace.http.idleConnectionTimeout";
+
+    public final static String POOL_TIMEOUT_PARAM = "dspace.http.connectionPoolTimeout";
+
+    private final static int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+
+    private final static int DEFAULT_MAX_TOTAL_CONNECTIONS = 40;
+
+    private final static int DEFAULT_CONNECTION_TIMEOUT = 10000;
+
+    private final static int DEFAULT_SOCKET_TIMEOUT = 120000;
+
+    private final static int DEFAULT_IDLE_CONNECTION_TIMEOUT = 60000;
+
+    private final static int DEFAULT_POOL_TIMEOUT = 30000;
+
+    private static final Logger logger = Logger.getLogger(DSpaceHttpConnectionPool.class.getName());
+
+    private final MultiThreadedHttpConnectionManager connectionManager;
+
+    private final IdleConnectionTimeoutThread idleConnectionReaper;
+
+    private final HttpClient client;
+
+    private final AtomicLong executedRequests = new AtomicLong();
+
+    private final AtomicLong failedRequests = new AtomicLong();
+
+    private final AtomicLong openStreams = new AtomicLong();
+
+    private final AtomicInteger connectionsInUse = new AtomicInteger();
+
+    private volatile boolean shutdown = false;
+
+    public DSpaceHttpConnectionPool(DSpaceFileManager fileManager) {
+        // the manager's own in use count is deprecated, leased connections are
+        // counted here instead
+        connectionManager = new MultiThreadedHttpConnectionManager() {
+            @Override
+            public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+                    throws ConnectionPoolTimeoutException {
+                HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+                connectionsInUse.incrementAndGet();
+                return connection;
+            }
+
+            @Override
+            public void releaseConnection(HttpConnection conn) {
+                super.releaseConnection(conn);
+                connectionsInUse.decrementAndGet();
+            }
+        };
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(fileManager.getIntProperty(MAX_CONNECTIONS_PER_HOST_PARAM,
+                DEFAULT_MAX_CONNECTIONS_PER_HOST));
+        params.setMaxTotalConnections(fileManager.getIntProperty(MAX_TOTAL_CONNECTIONS_PARAM, DEFAULT_MAX_TOTAL_CONNECTIONS));
+        params.setConnectionTimeout(fileManager.getIntProperty(CONNECTION_TIMEOUT_PARAM, DEFAULT_CONNECTION_TIMEOUT));
+        params.setSoTimeout(fileManager.getIntProperty(SOCKET_TIMEOUT_PARAM, DEFAULT_SOCKET_TIMEOUT));
+        // pooled connections may have been closed by the server while idle
+        params.setStaleCheckingEnabled(true);
+
+        client = new HttpClient(connectionManager);
+        client.getParams().setConnectionManagerTimeout(fileManager.getIntProperty(POOL_TIMEOUT_PARAM, DEFAULT_POOL_TIMEOUT));
+
+        int idleTimeout = fileManager.getIntProperty(IDLE_CONNECTION_TIMEOUT_PARAM, DEFAULT_IDLE_CONNECTION_TIMEOUT);
+        idleConnectionReaper = new IdleConnectionTimeoutThread();
+        idleConnectionReaper.setName("DSpaceHttpIdleConnectionReaper");
+        idleConnectionReaper.setDaemon(true);
+        idleConnectionReaper.setConnectionTimeout(idleTimeout);
+        idleConnectionReaper.setTimeoutInterval(Math.max(1000, idleTimeout / 2));
+        idleConnectionReaper.addConnectionManager(connectionManager);
+        idleConnectionReaper.start();
+
+        logger.log(Level.INFO, "DSpace http connection pool configured with " + params.getMaxTotalConnections()
+                + " total connections, " + params.getDefaultMaxConnectionsPerHost() + " per host");
+    }
+
+    /**
+     * Executes the method using a pooled connection. The caller is responsible
+     * for releasing the connection through {@link HttpMethod#releaseConnection()}
+     * once the response body has been read.
+     */
+    public int executeMethod(HttpMethod method) throws IOException {
+        executedRequests.incrementAndGet();
+        try {
+            return client.executeMethod(method);
+        } catch (IOException e) {
+            failedRequests.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps the response body of an already executed method, so that the
+     * pooled connection is given back when the stream is closed.
+     */
+    public InputStream releasingStream(final HttpMethod method) throws IOException {
+        InputStream body = method.getResponseBodyAsStream();
+        if (body == null) {
+            method.releaseConnection();
+            throw new IOException("Empty response body for " + method.getPath());
+        }
+        openStreams.incrementAndGet();
+        return new FilterInputStream(body) {
+            private boolean released = false;
+
+            @Override
+            public void close() throws IOException {
+                if (released) {
+                    return;
+                }
+                released = true;
+                openStreams.decrementAndGet();
+                method.releaseConnection();
+            }
+        };
+    }
+
+    /**
+     * Stops the idle connection reaper and closes every pooled connection. It
+     * must be called when the application is undeployed, the pool cannot be
+     * used afterwards.
+     */
+    public synchronized void shutdown() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        idleConnectionReaper.shutdown();
+        connectionManager.shutdown();
+        logger.log(Level.INFO, "DSpace http connection pool shut down");
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public int getConnectionsInUse() {
+        return connectionsInUse.get();
+    }
+
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    public int getMaxTotalConnections() {
+        return connectionManager.getParams().getMaxTotalConnections();
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return connectionManager.getParams().getDefaultMaxConnectionsPerHost();
+    }
+
+    public long getExecutedRequests() {
+        return executedRequests.get();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.get();
+    }
+
+    /**
+     * @return the number of download streams handed out that were not closed
+     *         yet, each of them holding a pooled connection
+     */
+    public long getOpenStreams() {
+        return openStreams.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DSpaceHttpConnectionPool[inUse=" + getConnectionsInUse() + ", pooled=" + getConnectionsInPool() + ", max="
+                + getMaxTotalConnections() + ", perHost=" + getMaxConnectionsPerHost() + ", requests=" + getExecutedRequests()
+                + ", failed=" + getFailedRequests() + ", openStreams=" + getOpenStreams() + "]";
+    }
+}
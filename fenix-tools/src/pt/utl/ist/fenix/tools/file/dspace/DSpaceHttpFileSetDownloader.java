@@ -0,0 +1,270 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import pt.utl.ist.fenix.tools.file.FileDescriptor;
+
+/**
+ * Downloads the files of a FileSet through the pooled connections of a
+ * {@link DSpaceHttpConnectionPool}, several at a time.
+ *
+ * Each file is retried a few times, and when a large file breaks in the
+ * middle of the transfer the download is resumed with an HTTP Range request
+ * instead of starting over. The whole FileSet must be downloaded within a
+ * configurable time limit.
+ */
+class DSpaceHttpFileSetDownloader {
+
+    public final static String DOWNLOAD_THREADS_PARAM = "dspace.http.download.threads";
+
+    public final static String DOWNLOAD_RETRIES_PARAM = "dspace.http.download.retries";
+
+    public final static String DOWNLOAD_TIMEOUT_PARAM = "dspace.http.download.timeout";
+
+    public final static String DOWNLOAD_RESUME_THRESHOLD_PARAM = "dspace.http.download.resumeThreshold";
+
+    private final static int DEFAULT_DOWNLOAD_THREADS = 4;
+
+    private final static int DEFAULT_DOWNLOAD_RETRIES = 3;
+
+    private final static int DEFAULT_DOWNLOAD_TIMEOUT = 10 * 60 * 1000;
+
+    private final static int DEFAULT_DOWNLOAD_RESUME_THRESHOLD = 256 * 1024;
+
+    private final static long RETRY_BACKOFF = 500;
+
+    private final static int BUFFER_SIZE = 32 * 1024;
+
+    private static final Logger logger = Logger.getLogger(DSpaceHttpFileSetDownloader.class.getName());
+
+    private final DSpaceHttpConnectionPool connectionPool;
+
+    private final ExecutorService executor;
+
+    private final int retries;
+
+    private final long timeout;
+
+    private final long resumeThreshold;
+
+    public DSpaceHttpFileSetDownloader(DSpaceHttpConnectionPool connectionPool, DSpaceFileManager fileManager) {
+        this.connectionPool = connectionPool;
+        this.retries = Math.max(0, fileManager.getIntProperty(DOWNLOAD_RETRIES_PARAM, DEFAULT_DOWNLOAD_RETRIES));
+        this.timeout = fileManager.getIntProperty(DOWNLOAD_TIMEOUT_PARAM, DEFAULT_DOWNLOAD_TIMEOUT);
+        this.resumeThreshold =
+                fileManager.getIntProperty(DOWNLOAD_RESUME_THRESHOLD_PARAM, DEFAULT_DOWNLOAD_RESUME_THRESHOLD);
+        int threads = Math.max(1, fileManager.getIntProperty(DOWNLOAD_THREADS_PARAM, DEFAULT_DOWNLOAD_THREADS));
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DSpaceHttpDownload-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Downloads every file into its target location, returning only when all
+     * of them are complete. If any of them fails or the time limit is exceeded
+     * the remaining downloads are aborted.
+     *
+     * @param downloadUrlPrefix the download url, to which the unique id of
+     *            each file is appended
+     * @param targets the local file where each descriptor should be stored
+     */
+    public void download(String downloadUrlPrefix, Map<FileDescriptor, File> targets) throws DSpaceClientException {
+        long deadline = System.currentTimeMillis() + timeout;
+        CompletionService<File> completionService = new ExecutorCompletionService<File>(executor);
+        List<FileDownload> downloads = new ArrayList<FileDownload>(targets.size());
+        List<Future<File>> futures = new ArrayList<Future<File>>(targets.size());
+
+        for (Entry<FileDescriptor, File> entry : targets.entrySet()) {
+            FileDownload download =
+                    new FileDownload(downloadUrlPrefix + entry.getKey().getUniqueId(), entry.getKey(), entry.getValue(), deadline);
+            downloads.add(download);
+            futures.add(completionService.submit(download));
+        }
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                long remaining = deadline - System.currentTimeMillis();
+                Future<File> done = remaining > 0 ? completionService.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                if (done == null) {
+                    throw new DSpaceClientException("Timed out after " + timeout + " ms downloading " + targets.size()
+                            + " files (" + i + " completed)");
+                }
+                done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortAll(downloads, futures);
+            throw new DSpaceClientException(e);
+        } catch (ExecutionException e) {
+            abortAll(downloads, futures);
+            if (e.getCause() instanceof DSpaceClientException) {
+                throw (DSpaceClientException) e.getCause();
+            }
+            throw new DSpaceClientException(e.getCause());
+        } catch (DSpaceClientException e) {
+            abortAll(downloads, futures);
+            throw e;
+        }
+    }
+
+    private static void abortAll(List<FileDownload> downloads, List<Future<File>> futures) {
+        for (FileDownload download : downloads) {
+            download.abort();
+        }
+        for (Future<File> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private class FileDownload implements Callable<File> {
+
+        private final String url;
+
+        private final FileDescriptor descriptor;
+
+        private final File target;
+
+        private final long deadline;
+
+        private volatile boolean aborted = false;
+
+        private volatile GetMethod currentMethod;
+
+        public FileDownload(String url, FileDescriptor descriptor, File target, long deadline) {
+            this.url = url;
+            this.descriptor = descriptor;
+            this.target = target;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public File call() throws Exception {
+            File parent = target.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+
+            IOException lastFailure = null;
+            for (int attempt = 0; attempt <= retries; attempt++) {
+                if (aborted || System.currentTimeMillis() > deadline) {
+                    break;
+                }
+                if (attempt > 0) {
+                    logger.log(Level.INFO, "Retrying download of " + descriptor.getFilename() + " with unique id "
+                            + descriptor.getUniqueId() + " (attempt " + (attempt + 1) + ")");
+                    Thread.sleep(RETRY_BACKOFF * attempt);
+                }
+                try {
+                    fetch();
+                    return target;
+                } catch (IOException e) {
+                    lastFailure = e;
+                }
+            }
+            throw new DSpaceClientException("Unable to download file " + descriptor.getFilename() + " with unique id "
+                    + descriptor.getUniqueId(), lastFailure);
+        }
+
+        private void fetch() throws IOException, DSpaceClientException {
+            long expectedSize = descriptor.getSize();
+            long offset = target.exists() ? target.length() : 0;
+            if (offset < resumeThreshold) {
+                // not worth a range request, start over
+                offset = 0;
+            }
+            if (expectedSize > 0 && offset >= expectedSize) {
+                return;
+            }
+
+            GetMethod gm = new GetMethod(url);
+            if (offset > 0) {
+                gm.setRequestHeader("Range", "bytes=" + offset + "-");
+            }
+            currentMethod = gm;
+            try {
+                if (aborted) {
+                    throw new IOException("Download aborted");
+                }
+                int result = connectionPool.executeMethod(gm);
+                boolean append;
+                if (result == HttpStatus.SC_PARTIAL_CONTENT && offset > 0) {
+                    append = true;
+                } else if (result == HttpStatus.SC_OK) {
+                    // the server ignored the range, the whole file is coming
+                    append = false;
+                } else if (result >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                    throw new IOException("Http error " + result + " downloading " + descriptor.getUniqueId());
+                } else {
+                    throw new DSpaceClientException("Unable to download file " + descriptor.getFilename() + " with unique id "
+                            + descriptor.getUniqueId() + " because of an http error: " + result);
+                }
+
+                InputStream in = gm.getResponseBodyAsStream();
+                FileOutputStream fos = new FileOutputStream(target, append);
+                try {
+                    if (in != null) {
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            if (aborted) {
+                                throw new IOException("Download aborted");
+                            }
+                            fos.write(buffer, 0, read);
+                        }
+                    }
+                } finally {
+                    fos.close();
+                }
+
+                if (expectedSize > 0 && target.length() < expectedSize) {
+                    throw new IOException("Truncated download of " + descriptor.getUniqueId() + ": got " + target.length()
+                            + " of " + expectedSize + " bytes");
+                }
+            } finally {
+                currentMethod = null;
+                gm.releaseConnection();
+            }
+        }
+
+        public void abort() {
+            aborted = true;
+            GetMethod gm = currentMethod;
+            if (gm != null) {
+                gm.abort();
+            }
+        }
+    }
+}
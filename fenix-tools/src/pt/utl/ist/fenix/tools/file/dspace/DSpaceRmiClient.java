@@ -1,23 +1,32 @@
 package pt.utl.ist.fenix.tools.file.dspace;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.naming.NamingException;
 import javax.rmi.PortableRemoteObject;
 
-import pt.utl.ist.fenix.tools.file.FileDescriptor;
 import pt.utl.ist.fenix.tools.file.FileSearchCriteria;
 import pt.utl.ist.fenix.tools.file.FileSearchResult;
 import pt.utl.ist.fenix.tools.file.FileSet;
@@ -26,11 +35,15 @@ import pt.utl.ist.fenix.tools.file.FileSetMetaData;
 import pt.utl.ist.fenix.tools.file.FileSetQueryResults;
 import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery;
 import pt.utl.ist.fenix.tools.file.VirtualPath;
+import pt.utl.ist.fenix.tools.file.dspace.FileSetBatchResult.ItemOperation;
+import pt.utl.ist.fenix.tools.file.filters.SimpleFileSetFilter;
 import pt.utl.ist.fenix.tools.file.rmi.IRemoteFile;
 import pt.utl.ist.fenix.tools.file.rmi.IRemoteFileSetManager;
+import pt.utl.ist.fenix.tools.file.rmi.IRemoteOutputStream;
 import pt.utl.ist.fenix.tools.file.rmi.RMIConfig;
 import pt.utl.ist.fenix.tools.file.rmi.RemoteFileInputStream;
 import pt.utl.ist.fenix.tools.file.rmi.RemoteFileOutputStream;
+import pt.utl.ist.fenix.tools.file.rmi.StreamCompression;
 import pt.utl.ist.fenix.tools.file.utils.FileUtils;
 
 /**
@@ -47,6 +60,12 @@ public class DSpaceRmiClient implements IDSpaceClient {
 
     private static Logger logger = Logger.getLogger(DSpaceRmiClient.class.getName());
 
+    /**
+     * How many times the upload of a file of a file set is attempted, when
+     * they are transferred concurrently
+     */
+    public static final int MAX_UPLOAD_ATTEMPTS = 3;
+
     private String username = null;
 
     private String password = null;
@@ -57,6 +76,31 @@ public class DSpaceRmiClient implements IDSpaceClient {
 
     private int maxBytesLength = RMIConfig.DEFAULT_REMOTE_STREAM_BUFFER_MAX_PARAM;
 
+    private int readAheadLength = RMIConfig.DEFAULT_REMOTE_STREAM_READ_AHEAD_PARAM;
+
+    private int chunkLength = RMIConfig.DEFAULT_REMOTE_STREAM_CHUNK_PARAM;
+
+    private int uploadWindow = RMIConfig.DEFAULT_REMOTE_STREAM_WINDOW_PARAM;
+
+    // sends the chunks of pipelined uploads
+    private ExecutorService uploadExecutor = null;
+
+    // transfers the files of a file set concurrently, null to transfer them in sequence
+    private ExecutorService transferExecutor = null;
+
+    /**
+     * Batched methods the server does not know, which are then run one
+     * descriptor at a time
+     */
+    private final Set<String> unsupportedBatchMethods = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Whether the server only knows the remote file methods of older versions,
+     * null until it is first asked. Its files are then transferred in
+     * sequence, through streams that are not pipelined.
+     */
+    private volatile Boolean oldStreamProtocol = null;
+
     private String dspaceManagerJndiName = null;
 
     /*
@@ -128,6 +172,11 @@ public class DSpaceRmiClient implements IDSpaceClient {
             RMIConfig.getInstance().setDefaultPortNumber(Integer.parseInt(ctx.getProperty(RMIConfig.RMI_SERVER_PORT_PARAM)));
             RMIConfig.getInstance().setSslTrustStore(ctx.getProperty(RMIConfig.RMI_SSL_TRUSTSTORE_PARAM));
             RMIConfig.getInstance().setSslTrustStorePass(ctx.getProperty(RMIConfig.RMI_SSL_TRUSTSTORE_PASS_PARAM));
+            RMIConfig.getInstance().setSslSessionCacheSize(
+                    ctx.getIntProperty(RMIConfig.RMI_SSL_SESSION_CACHE_SIZE_PARAM,
+                            RMIConfig.DEFAULT_RMI_SSL_SESSION_CACHE_SIZE_PARAM));
+            RMIConfig.getInstance().setSslSessionTimeout(
+                    ctx.getIntProperty(RMIConfig.RMI_SSL_SESSION_TIMEOUT_PARAM, RMIConfig.DEFAULT_RMI_SSL_SESSION_TIMEOUT_PARAM));
             RMIConfig.getInstance().initializeSocketFactories();
 
             dspaceManagerJndiName = ctx.getProperty("dspace.rmi.server.name");
@@ -139,6 +188,25 @@ public class DSpaceRmiClient implements IDSpaceClient {
             } catch (Exception e) {
                 logger.log(Level.INFO, "Unable to parse buffer block sizes... Assuming defaults!");
             }
+            readAheadLength = ctx.getIntProperty(RMIConfig.REMOTE_STREAM_READ_AHEAD_PARAM, readAheadLength);
+            chunkLength = ctx.getIntProperty(RMIConfig.REMOTE_STREAM_CHUNK_PARAM, chunkLength);
+            String compression = ctx.getProperty(RMIConfig.REMOTE_STREAM_COMPRESSION_PARAM);
+            if (compression != null) {
+                RMIConfig.getInstance().setStreamCompression(Boolean.parseBoolean(compression.trim()));
+            }
+            uploadWindow = ctx.getIntProperty(RMIConfig.REMOTE_STREAM_WINDOW_PARAM, uploadWindow);
+            int transferThreads =
+                    ctx.getIntProperty(RMIConfig.REMOTE_TRANSFER_THREADS_PARAM, RMIConfig.DEFAULT_REMOTE_TRANSFER_THREADS_PARAM);
+            if (uploadWindow > 1) {
+                // each stream bounds its own chunks in flight to the window, the
+                // pool must let every concurrent transfer fill it
+                uploadExecutor =
+                        Executors.newFixedThreadPool(Math.max(1, transferThreads) * uploadWindow,
+                                daemonThreads("DSpaceRmiClient-upload"));
+            }
+            if (transferThreads > 1) {
+                transferExecutor = Executors.newFixedThreadPool(transferThreads, daemonThreads("DSpaceRmiClient-transfer"));
+            }
 
         } catch (Exception e) {
             throw new RuntimeException("Unable to read configuration properties for " + getClass().getName(), e);
@@ -151,6 +219,28 @@ public class DSpaceRmiClient implements IDSpaceClient {
 
     }
 
+    @Override
+    public void shutdown() {
+        if (uploadExecutor != null) {
+            uploadExecutor.shutdownNow();
+        }
+        if (transferExecutor != null) {
+            transferExecutor.shutdownNow();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
     @Override
     public FileSetDescriptor uploadFileSet(VirtualPath path, String originalFilename, FileSet fs, boolean privateFile)
             throws DSpaceClientException {
@@ -170,17 +260,101 @@ public class DSpaceRmiClient implements IDSpaceClient {
         }
     }
 
+    @Override
+    public FileSetDescriptor uploadStream(VirtualPath path, String originalFilename, InputStream stream,
+            Collection<FileSetMetaData> metaData, boolean privateFile) throws DSpaceClientException {
+        try {
+            IRemoteFile remoteDir = findRemote().getBaseRemoteDir(username, password);
+            remoteDir.createFile(originalFilename);
+            CountingDigestInputStream content = new CountingDigestInputStream(stream);
+            RemoteFileOutputStream rfos = createRemoteOutputStream(remoteDir, originalFilename);
+            FileUtils.adaptativeCopyInputStreamToOutputStream(content, rfos, bytesStartLength, maxBytesLength,
+                    bytesIncreaseLength);
+            rfos.close();
+            logTransfer("Uploaded", originalFilename, rfos.getLength(), rfos.getTransferredLength());
+
+            FileSet fs = new FileSet(new File(remoteDir.getAbsolutePath()), metaData);
+            SimpleFileSetFilter.addFormatMetaInfo(fs, originalFilename, content.getCount());
+            FileSetDescriptor retVal =
+                    findRemote().uploadFileSet(remoteDir, path, originalFilename, privateFile, fs, username, password);
+            content.checkUploaded(retVal.getContentFileDescriptor(0));
+            return retVal;
+        } catch (RemoteException e) {
+            throw new DSpaceClientException(e);
+        } catch (IOException e) {
+            throw new DSpaceClientException(e);
+        }
+    }
+
+    /**
+     * The stream is pipelined when {@link RMIConfig#REMOTE_STREAM_WINDOW_PARAM}
+     * is above 1, so the copy block sizes only matter for reading the local
+     * data.
+     */
+    private RemoteFileOutputStream createRemoteOutputStream(IRemoteFile remoteFile, String filename) throws IOException {
+        return createRemoteOutputStream(remoteFile.getOuputStream(), filename, !usesOldStreamProtocol(remoteFile));
+    }
+
+    private RemoteFileOutputStream createRemoteOutputStream(IRemoteOutputStream remoteStream, String filename,
+            boolean pipelined) {
+        RemoteFileOutputStream rfos =
+                new RemoteFileOutputStream(remoteStream, pipelined ? uploadExecutor : null, chunkLength, uploadWindow);
+        rfos.setCompression(RMIConfig.getInstance().isStreamCompression() && StreamCompression.isCompressible(filename));
+        return rfos;
+    }
+
+    /**
+     * Asks the server, the first time, for a method it only has since the
+     * streams can be opened by path, pipelined and checked.
+     */
+    private boolean usesOldStreamProtocol(IRemoteFile remoteDir) throws RemoteException {
+        if (oldStreamProtocol == null) {
+            try {
+                remoteDir.getAbsolutePath("");
+                oldStreamProtocol = Boolean.FALSE;
+            } catch (RemoteException e) {
+                if (!RMIConfig.isUnknownMethod(e)) {
+                    throw e;
+                }
+                logger.log(Level.WARNING, "The DSpace server does not know the current remote file methods,"
+                        + " transferring files in sequence through unpipelined streams");
+                oldStreamProtocol = Boolean.TRUE;
+            }
+        }
+        return oldStreamProtocol.booleanValue();
+    }
+
+    private void logTransfer(String transfer, String filename, long length, long transferredLength) {
+        if (logger.isLoggable(Level.FINE) && transferredLength > 0) {
+            logger.fine(transfer + " " + filename + ": " + length + " bytes as " + transferredLength + " ("
+                    + Math.round(100.0 * transferredLength / length) + "%)");
+        }
+    }
+
     public void uploadTransferFileSetRecursive(String localBaseDir, IRemoteFile remoteDir, FileSet fs) throws IOException,
             RemoteException {
+        if (transferExecutor != null && !usesOldStreamProtocol(remoteDir)) {
+            List<Future<PathReplacement>> transfers = new ArrayList<Future<PathReplacement>>();
+            submitUploads(localBaseDir, remoteDir, fs, transfers);
+            completeTransfers(transfers);
+            return;
+        }
+
         HashMap<String, String> pathReplacements = new HashMap<String, String>();
 
         for (File f : fs.getAllFiles()) {
-            String relativePath = FileUtils.makeRelativePath(localBaseDir, f.getAbsolutePath());
+            String relativePath = getRelativePath(localBaseDir, f);
             remoteDir.createFile(relativePath);
-            RemoteFileOutputStream rfos = new RemoteFileOutputStream(remoteDir);
-            FileUtils.adaptativeCopyInputStreamToOutputStream(new FileInputStream(f), rfos, bytesStartLength, maxBytesLength,
-                    bytesIncreaseLength);
+            RemoteFileOutputStream rfos = createRemoteOutputStream(remoteDir, f.getName());
+            InputStream fis = FileSet.openContent(f);
+            try {
+                FileUtils.adaptativeCopyInputStreamToOutputStream(fis, rfos, bytesStartLength, maxBytesLength,
+                        bytesIncreaseLength);
+            } finally {
+                fis.close();
+            }
             rfos.close();
+            logTransfer("Uploaded", relativePath, rfos.getLength(), rfos.getTransferredLength());
             pathReplacements.put(f.getAbsolutePath(), remoteDir.getAbsolutePath());
         }
 
@@ -192,6 +366,187 @@ public class DSpaceRmiClient implements IDSpaceClient {
         }
     }
 
+    /**
+     * Files that the filters created outside of the directory of the file set,
+     * such as image derivatives, are placed under the name of their own
+     * temporary directory, which is unique.
+     */
+    private static String getRelativePath(String localBaseDir, File f) {
+        File parent = f.getAbsoluteFile().getParentFile();
+        if (parent != null && !f.getAbsolutePath().startsWith(localBaseDir + File.separator)) {
+            return parent.getName() + "/" + f.getName();
+        }
+        return FileUtils.makeRelativePath(localBaseDir, f.getAbsolutePath());
+    }
+
+    /**
+     * A file of a file set that was transferred, and the path that replaces
+     * its old one in the file set.
+     */
+    private static class PathReplacement {
+        private final FileSet fileSet;
+
+        private final String oldPath;
+
+        private final String newPath;
+
+        public PathReplacement(FileSet fileSet, String oldPath, String newPath) {
+            this.fileSet = fileSet;
+            this.oldPath = oldPath;
+            this.newPath = newPath;
+        }
+    }
+
+    /**
+     * Each file is written through its own remote stream, the shared remote
+     * directory handle is never moved.
+     */
+    private void submitUploads(String localBaseDir, final IRemoteFile remoteDir, final FileSet fs,
+            List<Future<PathReplacement>> transfers) {
+        for (final File f : fs.getAllFiles()) {
+            final String relativePath = getRelativePath(localBaseDir, f);
+            transfers.add(transferExecutor.submit(new Callable<PathReplacement>() {
+                @Override
+                public PathReplacement call() throws IOException {
+                    uploadFile(remoteDir, relativePath, f);
+                    return new PathReplacement(fs, f.getAbsolutePath(), remoteDir.getAbsolutePath(relativePath));
+                }
+            }));
+        }
+        for (FileSet childFs : fs.getChildSets()) {
+            submitUploads(localBaseDir, remoteDir, childFs, transfers);
+        }
+    }
+
+    /**
+     * Uploads a file through its own remote stream. If the upload fails, it is
+     * resumed from what the remote file already has, up to
+     * {@link #MAX_UPLOAD_ATTEMPTS} times. A file that fails its checksum is
+     * deleted by the server, so resuming it starts over.
+     */
+    private void uploadFile(IRemoteFile remoteDir, String relativePath, File f) throws IOException {
+        for (int attempt = 1;; attempt++) {
+            IRemoteOutputStream remoteStream = null;
+            try {
+                remoteStream =
+                        attempt == 1 ? remoteDir.createOutputStream(relativePath) : remoteDir.resumeOutputStream(relativePath);
+                RemoteFileOutputStream rfos = createRemoteOutputStream(remoteStream, f.getName(), true);
+                InputStream fis = FileSet.openContent(f);
+                try {
+                    rfos.resume(fis);
+                    FileUtils.adaptativeCopyInputStreamToOutputStream(fis, rfos, bytesStartLength, maxBytesLength,
+                            bytesIncreaseLength);
+                } finally {
+                    fis.close();
+                }
+                rfos.close();
+                logTransfer("Uploaded", relativePath, rfos.getLength(), rfos.getTransferredLength());
+                return;
+            } catch (IOException e) {
+                closeQuietly(remoteStream, relativePath);
+                if (attempt >= MAX_UPLOAD_ATTEMPTS) {
+                    throw e;
+                }
+                logger.log(Level.WARNING, "Upload of " + relativePath + " failed, resuming it", e);
+            }
+        }
+    }
+
+    /**
+     * Releases the remote stream of a failed attempt, so the server does not
+     * keep it exported until it expires. Its content is kept, without checking
+     * it, for the next attempt to resume.
+     */
+    private static void closeQuietly(IRemoteOutputStream remoteStream, String relativePath) {
+        if (remoteStream == null) {
+            return;
+        }
+        try {
+            remoteStream.close();
+        } catch (RemoteException e) {
+            logger.log(Level.FINE, "Could not close the failed upload of " + relativePath, e);
+        }
+    }
+
+    /**
+     * The server decides whether the file is worth compressing.
+     */
+    private RemoteFileInputStream createRemoteInputStream(IRemoteFile remoteBaseDir, String relativePath)
+            throws RemoteException {
+        if (usesOldStreamProtocol(remoteBaseDir)) {
+            remoteBaseDir.getFile(relativePath);
+            return new RemoteFileInputStream(remoteBaseDir.getInputStream(), readAheadLength);
+        }
+        return new RemoteFileInputStream(remoteBaseDir.getInputStream(relativePath, RMIConfig.getInstance()
+                .isStreamCompression()), readAheadLength);
+    }
+
+    private void submitDownloads(final File localBaseDir, String remoteBaseDirAbsolutePath, final IRemoteFile remoteBaseDir,
+            final FileSet remoteFileSet, List<Future<PathReplacement>> transfers) {
+        for (File f : remoteFileSet.getAllFiles()) {
+            final String relativePath = FileUtils.makeRelativePath(remoteBaseDirAbsolutePath, f.getAbsolutePath());
+            transfers.add(transferExecutor.submit(new Callable<PathReplacement>() {
+                @Override
+                public PathReplacement call() throws IOException {
+                    File localFile = new File(localBaseDir, relativePath);
+                    localFile.getParentFile().mkdirs();
+                    FileOutputStream fos = new FileOutputStream(localFile);
+                    RemoteFileInputStream rfis = createRemoteInputStream(remoteBaseDir, relativePath);
+                    try {
+                        FileUtils.adaptativeCopyInputStreamToOutputStream(rfis, fos, bytesStartLength, maxBytesLength,
+                                bytesIncreaseLength);
+                    } finally {
+                        rfis.close();
+                        fos.close();
+                    }
+                    logTransfer("Downloaded", relativePath, rfis.getLength(), rfis.getTransferredLength());
+                    return new PathReplacement(remoteFileSet, remoteBaseDir.getAbsolutePath(relativePath), localFile
+                            .getAbsolutePath());
+                }
+            }));
+        }
+        for (FileSet childFs : remoteFileSet.getChildSets()) {
+            submitDownloads(localBaseDir, remoteBaseDirAbsolutePath, remoteBaseDir, childFs, transfers);
+        }
+    }
+
+    /**
+     * Waits for all the transfers and then updates the paths of the files in
+     * their file sets. On the first failure the remaining transfers are
+     * cancelled.
+     */
+    private void completeTransfers(List<Future<PathReplacement>> transfers) throws IOException {
+        List<PathReplacement> replacements = new ArrayList<PathReplacement>(transfers.size());
+        try {
+            for (Future<PathReplacement> transfer : transfers) {
+                replacements.add(transfer.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelTransfers(transfers);
+            throw new IOException("Interrupted while transferring files");
+        } catch (ExecutionException e) {
+            cancelTransfers(transfers);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+
+        for (PathReplacement replacement : replacements) {
+            replacement.fileSet.replaceFileWithAbsolutePath(replacement.oldPath, replacement.newPath);
+        }
+    }
+
+    private void cancelTransfers(List<Future<PathReplacement>> transfers) {
+        for (Future<PathReplacement> transfer : transfers) {
+            transfer.cancel(true);
+        }
+    }
+
     @Override
     public FileSet retrieveFileSet(FileSetDescriptor descriptor) throws DSpaceClientException {
         try {
@@ -210,6 +565,12 @@ public class DSpaceRmiClient implements IDSpaceClient {
 
     public void downloadTransferRecursiveFileSet(File localBaseDir, String remoteBaseDirAbsolutePath, IRemoteFile remoteBaseDir,
             FileSet remoteFileSet) throws IOException, RemoteException {
+        if (transferExecutor != null && !usesOldStreamProtocol(remoteBaseDir)) {
+            List<Future<PathReplacement>> transfers = new ArrayList<Future<PathReplacement>>();
+            submitDownloads(localBaseDir, remoteBaseDirAbsolutePath, remoteBaseDir, remoteFileSet, transfers);
+            completeTransfers(transfers);
+            return;
+        }
 
         HashMap<String, String> pathReplacements = new HashMap<String, String>();
 
@@ -220,8 +581,15 @@ public class DSpaceRmiClient implements IDSpaceClient {
             localFile.createNewFile();
             FileOutputStream fos = new FileOutputStream(localFile);
             remoteBaseDir.getFile(relativePath);
-            RemoteFileInputStream rfis = new RemoteFileInputStream(remoteBaseDir);
-            FileUtils.adaptativeCopyInputStreamToOutputStream(rfis, fos, bytesStartLength, maxBytesLength, bytesIncreaseLength);
+            RemoteFileInputStream rfis = createRemoteInputStream(remoteBaseDir, relativePath);
+            try {
+                FileUtils.adaptativeCopyInputStreamToOutputStream(rfis, fos, bytesStartLength, maxBytesLength,
+                        bytesIncreaseLength);
+            } finally {
+                rfis.close();
+                fos.close();
+            }
+            logTransfer("Downloaded", relativePath, rfis.getLength(), rfis.getTransferredLength());
             pathReplacements.put(remoteBaseDir.getAbsolutePath(), localFile.getAbsolutePath());
         }
 
@@ -253,6 +621,114 @@ public class DSpaceRmiClient implements IDSpaceClient {
 
     }
 
+    @Override
+    public List<FileSetBatchResult> deleteFileSets(final List<FileSetDescriptor> descriptors) throws DSpaceClientException {
+        return executeBatchMethod("deleteFileSets", descriptors, new BatchMethod() {
+            @Override
+            List<FileSetBatchResult> execute(IRemoteFileSetManager remote) throws RemoteException {
+                return remote.deleteFileSets(descriptors, username, password);
+            }
+
+            @Override
+            FileSetDescriptor execute(FileSetDescriptor descriptor) throws DSpaceClientException {
+                deleteFileSet(descriptor);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<FileSetBatchResult> changeFileSetsPermissions(final List<FileSetDescriptor> descriptors,
+            final boolean privateFile) throws DSpaceClientException {
+        return executeBatchMethod("changeFileSetsPermissions", descriptors, new BatchMethod() {
+            @Override
+            List<FileSetBatchResult> execute(IRemoteFileSetManager remote) throws RemoteException {
+                return remote.changeFileSetsPermissions(descriptors, privateFile, username, password);
+            }
+
+            @Override
+            FileSetDescriptor execute(FileSetDescriptor descriptor) throws DSpaceClientException {
+                changeFileSetPermissions(descriptor, privateFile);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<FileSetBatchResult> listAllDescriptorsFromRoots(final List<FileSetDescriptor> descriptors)
+            throws DSpaceClientException {
+        return executeBatchMethod("listRecursiveFromRoots", descriptors, new BatchMethod() {
+            @Override
+            List<FileSetBatchResult> execute(IRemoteFileSetManager remote) throws RemoteException {
+                return remote.listRecursiveFromRoots(descriptors, username, password);
+            }
+
+            @Override
+            FileSetDescriptor execute(FileSetDescriptor descriptor) throws DSpaceClientException {
+                return listAllDescriptorsFromRoot(descriptor);
+            }
+        });
+    }
+
+    @Override
+    public List<FileSetBatchResult> getRootDescriptors(final List<FileSetDescriptor> innerChildDescriptors)
+            throws DSpaceClientException {
+        return executeBatchMethod("getRootDescriptors", innerChildDescriptors, new BatchMethod() {
+            @Override
+            List<FileSetBatchResult> execute(IRemoteFileSetManager remote) throws RemoteException {
+                return remote.getRootDescriptors(innerChildDescriptors, username, password);
+            }
+
+            @Override
+            FileSetDescriptor execute(FileSetDescriptor descriptor) throws DSpaceClientException {
+                return getRootDescriptor(descriptor);
+            }
+        });
+    }
+
+    /**
+     * A batched remote method, along with the single descriptor operation it
+     * falls back to when the server does not implement it.
+     */
+    private static abstract class BatchMethod extends ItemOperation {
+        abstract List<FileSetBatchResult> execute(IRemoteFileSetManager remote) throws RemoteException;
+    }
+
+    private List<FileSetBatchResult> executeBatchMethod(String methodName, List<FileSetDescriptor> descriptors,
+            BatchMethod method) throws DSpaceClientException {
+        if (descriptors.isEmpty()) {
+            return new ArrayList<FileSetBatchResult>(0);
+        }
+        if (unsupportedBatchMethods.contains(methodName)) {
+            return FileSetBatchResult.executeEach(descriptors, method);
+        }
+        List<FileSetBatchResult> results;
+        try {
+            results = method.execute(findRemote());
+        } catch (RemoteException e) {
+            if (!isUnknownMethod(e)) {
+                throw new DSpaceClientException(e);
+            }
+            logger.log(Level.INFO, "The server does not support " + methodName + ", running it for each descriptor");
+            unsupportedBatchMethods.add(methodName);
+            return FileSetBatchResult.executeEach(descriptors, method);
+        }
+        return FileSetBatchResult.checkCount(methodName, results, descriptors.size());
+    }
+
+    /**
+     * A server whose remote interface predates a method rejects its hash.
+     */
+    private static boolean isUnknownMethod(RemoteException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UnmarshalException && cause.getMessage() != null
+                    && cause.getMessage().contains("unrecognized method hash")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public FileSetDescriptor listAllDescriptorsFromRoot(FileSetDescriptor rootFileSetDescriptor) throws DSpaceClientException {
         try {
@@ -285,15 +761,13 @@ public class DSpaceRmiClient implements IDSpaceClient {
     @Override
     public FileSearchResult searchFiles(FileSearchCriteria criteria, VirtualPath optionalPathToRestrictSearch)
             throws DSpaceClientException {
-        List<FileDescriptor> descriptors = new ArrayList<FileDescriptor>();
         FilesetMetadataQuery query = criteria.getQuery();
 
         FileSetQueryResults results = searchFileSets(query, optionalPathToRestrictSearch);
-        for (FileSetDescriptor descriptor : results.getResults()) {
-            descriptors.add(getRootDescriptor(descriptor).getContentFileDescriptor(0));
-        }
-
-        return new FileSearchResult(descriptors, query.getStart(), query.getPageSize(), results.getHitsCount());
+        // a single remote call for the whole page, instead of one per hit,
+        // unless the server only resolves them one at a time
+        return FileSetBatchResult.toSearchResult(query, results,
+                getRootDescriptors(new ArrayList<FileSetDescriptor>(results.getResults())));
     }
 
     @Override
@@ -0,0 +1,125 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.tree.BaseElement;
+
+import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
+import pt.utl.ist.fenix.tools.file.XMLStreamSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreams;
+
+/**
+ * Carries many descriptors in a single remote call. The remote method name
+ * decides what is done with each of them, and the answer is a
+ * {@link FileSetBatchResponse} with one result per descriptor, in the same
+ * order.
+ */
+public class FileSetBatchRequest implements Serializable, XMLStreamSerializable {
+
+    private List<FileSetDescriptor> fsDescriptors = new ArrayList<FileSetDescriptor>();
+
+    // only meaningful for permission changes
+    private Boolean privateFile;
+
+    //Serialization support
+    public FileSetBatchRequest() {
+
+    }
+
+    public FileSetBatchRequest(List<FileSetDescriptor> fsDescriptors) {
+        this(fsDescriptors, null);
+    }
+
+    public FileSetBatchRequest(List<FileSetDescriptor> fsDescriptors, Boolean privateFile) {
+        this.fsDescriptors = fsDescriptors;
+        this.privateFile = privateFile;
+    }
+
+    public List<FileSetDescriptor> getFileSetDescriptors() {
+        return this.fsDescriptors;
+    }
+
+    public Boolean isPrivateFile() {
+        return this.privateFile;
+    }
+
+    @Override
+    public String toXMLString() {
+        return toXML().asXML();
+    }
+
+    public Element toXML() {
+        Element rootElement = new BaseElement("filesetbatchrequest");
+        if (privateFile != null) {
+            rootElement.addAttribute("privatefile", privateFile.toString());
+        }
+        for (FileSetDescriptor descriptor : fsDescriptors) {
+            rootElement.add(descriptor.toXML());
+        }
+        return rootElement;
+    }
+
+    public static FileSetBatchRequest createFromXml(String xml) {
+        FileSetBatchRequest retVal = new FileSetBatchRequest();
+        retVal.fromXMLString(xml);
+        return retVal;
+    }
+
+    @Override
+    public void fromXMLString(String xml) {
+        try {
+            fromXML(DocumentHelper.parseText(xml).getRootElement());
+        } catch (DocumentException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void fromXML(Element xmlElement) {
+        String privateFileAttribute = xmlElement.attributeValue("privatefile");
+        this.privateFile = privateFileAttribute == null ? null : Boolean.valueOf(privateFileAttribute);
+        this.fsDescriptors = new ArrayList<FileSetDescriptor>();
+        for (Element descriptorElement : (List<Element>) xmlElement.elements("filesetdescriptor")) {
+            FileSetDescriptor descriptor = new FileSetDescriptor();
+            descriptor.fromXML(descriptorElement);
+            this.fsDescriptors.add(descriptor);
+        }
+    }
+
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetbatchrequest");
+        if (privateFile != null) {
+            writer.writeAttribute("privatefile", privateFile.toString());
+        }
+        for (FileSetDescriptor descriptor : fsDescriptors) {
+            descriptor.writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        String privateFileAttribute = reader.getAttributeValue(null, "privatefile");
+        this.privateFile = privateFileAttribute == null ? null : Boolean.valueOf(privateFileAttribute);
+        this.fsDescriptors = new ArrayList<FileSetDescriptor>();
+        while (XMLStreams.nextChild(reader)) {
+            if ("filesetdescriptor".equals(reader.getLocalName())) {
+                FileSetDescriptor descriptor = new FileSetDescriptor();
+                descriptor.readXML(reader);
+                this.fsDescriptors.add(descriptor);
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.tree.BaseElement;
+
+import pt.utl.ist.fenix.tools.file.XMLStreamSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreams;
+
+public class FileSetBatchResponse implements Serializable, XMLStreamSerializable {
+
+    private String error;
+
+    private List<FileSetBatchResult> results = new ArrayList<FileSetBatchResult>();
+
+    public FileSetBatchResponse() {
+    }
+
+    public FileSetBatchResponse(String error) {
+        this.error = error;
+    }
+
+    public FileSetBatchResponse(List<FileSetBatchResult> results) {
+        this.results = results;
+    }
+
+    /**
+     * @return an error that prevented the whole batch from being processed
+     */
+    public String getError() {
+        return error;
+    }
+
+    public List<FileSetBatchResult> getResults() {
+        return results;
+    }
+
+    @Override
+    public String toXMLString() {
+        return toXML().asXML();
+
+    }
+
+    public Element toXML() {
+        Element rootElement = new BaseElement("filesetbatchresponse");
+
+        if (getError() != null) {
+            rootElement.addElement("error").setText(getError());
+        } else {
+            for (FileSetBatchResult result : results) {
+                rootElement.add(result.toXML());
+            }
+        }
+
+        return rootElement;
+    }
+
+    public static FileSetBatchResponse createFromXml(String xml) {
+        FileSetBatchResponse retVal = new FileSetBatchResponse();
+        retVal.fromXMLString(xml);
+        return retVal;
+    }
+
+    @Override
+    public void fromXMLString(String xml) {
+        try {
+            fromXML(DocumentHelper.parseText(xml).getRootElement());
+        } catch (DocumentException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void fromXML(Element xmlElement) {
+
+        Element errorElement = xmlElement.element("error");
+        if (errorElement != null) {
+            this.error = errorElement.getText();
+        } else {
+            this.results = new ArrayList<FileSetBatchResult>();
+            for (Element resultElement : (List<Element>) xmlElement.elements("filesetbatchresult")) {
+                FileSetBatchResult result = new FileSetBatchResult();
+                result.fromXML(resultElement);
+                this.results.add(result);
+            }
+        }
+    }
+
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetbatchresponse");
+        if (getError() != null) {
+            XMLStreams.writeElement(writer, "error", getError());
+        } else {
+            for (FileSetBatchResult result : results) {
+                result.writeXML(writer);
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        this.results = new ArrayList<FileSetBatchResult>();
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("error".equals(name)) {
+                this.error = reader.getElementText();
+            } else if ("filesetbatchresult".equals(name)) {
+                FileSetBatchResult result = new FileSetBatchResult();
+                result.readXML(reader);
+                this.results.add(result);
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
+}
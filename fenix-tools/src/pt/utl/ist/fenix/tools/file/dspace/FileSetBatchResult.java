@@ -0,0 +1,176 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.tree.BaseElement;
+
+import pt.utl.ist.fenix.tools.file.FileDescriptor;
+import pt.utl.ist.fenix.tools.file.FileSearchResult;
+import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
+import pt.utl.ist.fenix.tools.file.FileSetQueryResults;
+import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery;
+import pt.utl.ist.fenix.tools.file.XMLStreamSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreams;
+
+/**
+ * The outcome of a batched operation for one of the descriptors of a
+ * {@link FileSetBatchRequest}: either an error message, or success with an
+ * optional resulting descriptor (for lookups).
+ */
+public class FileSetBatchResult implements Serializable, XMLStreamSerializable {
+
+    private static final Logger logger = Logger.getLogger(FileSetBatchResult.class.getName());
+
+    private String error;
+
+    private FileSetDescriptor fileSetDescriptor;
+
+    public FileSetBatchResult() {
+    }
+
+    public FileSetBatchResult(String error) {
+        this.error = error;
+    }
+
+    public FileSetBatchResult(FileSetDescriptor fileSetDescriptor) {
+        this.fileSetDescriptor = fileSetDescriptor;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public FileSetDescriptor getFileSetDescriptor() {
+        return fileSetDescriptor;
+    }
+
+    /**
+     * One descriptor of a batch, run on its own against servers that do not
+     * implement the batched method.
+     */
+    static abstract class ItemOperation {
+        abstract FileSetDescriptor execute(FileSetDescriptor descriptor) throws DSpaceClientException;
+    }
+
+    static List<FileSetBatchResult> executeEach(List<FileSetDescriptor> descriptors, ItemOperation operation) {
+        List<FileSetBatchResult> results = new ArrayList<FileSetBatchResult>(descriptors.size());
+        for (FileSetDescriptor descriptor : descriptors) {
+            try {
+                results.add(new FileSetBatchResult(operation.execute(descriptor)));
+            } catch (DSpaceClientException e) {
+                results.add(new FileSetBatchResult(e.getMessage() != null ? e.getMessage() : e.toString()));
+            }
+        }
+        return results;
+    }
+
+    static List<FileSetBatchResult> checkCount(String methodName, List<FileSetBatchResult> results, int expected)
+            throws DSpaceClientException {
+        int count = results == null ? 0 : results.size();
+        if (count != expected) {
+            throw new DSpaceClientException(methodName + " answered " + count + " results for " + expected + " descriptors");
+        }
+        return results;
+    }
+
+    /**
+     * Turns a page of search hits into the first content file of the root
+     * fileset of each hit. A hit whose root cannot be resolved is left out of
+     * the page instead of failing the whole search.
+     * 
+     * @param roots
+     *            the root of each of the results, in the same order
+     */
+    static FileSearchResult toSearchResult(FilesetMetadataQuery query, FileSetQueryResults results,
+            List<FileSetBatchResult> roots) {
+        List<FileDescriptor> descriptors = new ArrayList<FileDescriptor>(roots.size());
+        for (int i = 0; i < roots.size(); i++) {
+            FileSetBatchResult root = roots.get(i);
+            if (!root.isSuccess()) {
+                logger.warning("Skipping search hit " + (query.getStart() + i) + ", its root could not be found: "
+                        + root.getError());
+            } else if (root.getFileSetDescriptor() == null || root.getFileSetDescriptor().getContentFilesDescriptors().isEmpty()) {
+                logger.warning("Skipping search hit " + (query.getStart() + i) + ", it has no root descriptor");
+            } else {
+                descriptors.add(root.getFileSetDescriptor().getContentFileDescriptor(0));
+            }
+        }
+        return new FileSearchResult(descriptors, query.getStart(), query.getPageSize(), results.getHitsCount());
+    }
+
+    @Override
+    public String toXMLString() {
+        return toXML().asXML();
+    }
+
+    public Element toXML() {
+        Element rootElement = new BaseElement("filesetbatchresult");
+
+        if (getError() != null) {
+            rootElement.addElement("error").setText(getError());
+        } else if (fileSetDescriptor != null) {
+            rootElement.add(fileSetDescriptor.toXML());
+        }
+
+        return rootElement;
+    }
+
+    @Override
+    public void fromXMLString(String xml) {
+        try {
+            fromXML(DocumentHelper.parseText(xml).getRootElement());
+        } catch (DocumentException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void fromXML(Element xmlElement) {
+        Element errorElement = xmlElement.element("error");
+        if (errorElement != null) {
+            this.error = errorElement.getText();
+        } else if (xmlElement.element("filesetdescriptor") != null) {
+            this.fileSetDescriptor = new FileSetDescriptor();
+            this.fileSetDescriptor.fromXML(xmlElement.element("filesetdescriptor"));
+        }
+    }
+
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetbatchresult");
+        if (getError() != null) {
+            XMLStreams.writeElement(writer, "error", getError());
+        } else if (fileSetDescriptor != null) {
+            fileSetDescriptor.writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("error".equals(name)) {
+                this.error = reader.getElementText();
+            } else if ("filesetdescriptor".equals(name)) {
+                this.fileSetDescriptor = new FileSetDescriptor();
+                this.fileSetDescriptor.readXML(reader);
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
+}
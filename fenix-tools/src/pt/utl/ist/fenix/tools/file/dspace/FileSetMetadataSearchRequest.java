@@ -2,6 +2,10 @@ package pt.utl.ist.fenix.tools.file.dspace;
 
 import java.io.Serializable;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
@@ -9,9 +13,10 @@ import org.dom4j.tree.BaseElement;
 
 import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery;
 import pt.utl.ist.fenix.tools.file.VirtualPath;
-import pt.utl.ist.fenix.tools.file.XMLSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreamSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreams;
 
-public class FileSetMetadataSearchRequest implements Serializable, XMLSerializable {
+public class FileSetMetadataSearchRequest implements Serializable, XMLStreamSerializable {
 
     private FilesetMetadataQuery query;
     private VirtualPath optionalVirtualPath;
@@ -81,4 +86,30 @@ public class FileSetMetadataSearchRequest implements Serializable, XMLSerializab
             optionalVirtualPath.fromXML(xmlElement.element("virtualpath"));
         }
     }
+
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetmetadatasearchrequest");
+        query.writeXML(writer);
+        if (optionalVirtualPath != null) {
+            optionalVirtualPath.writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("filesetmetadataquery".equals(name)) {
+                this.query = new FilesetMetadataQuery();
+                query.readXML(reader);
+            } else if ("virtualpath".equals(name)) {
+                this.optionalVirtualPath = new VirtualPath();
+                optionalVirtualPath.readXML(reader);
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
@@ -2,15 +2,20 @@ package pt.utl.ist.fenix.tools.file.dspace;
 
 import java.io.Serializable;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.tree.BaseElement;
 
 import pt.utl.ist.fenix.tools.file.FileSetQueryResults;
-import pt.utl.ist.fenix.tools.file.XMLSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreamSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreams;
 
-public class FileSetMetadataSearchResponse implements Serializable, XMLSerializable {
+public class FileSetMetadataSearchResponse implements Serializable, XMLStreamSerializable {
 
     private String error;
     private FileSetQueryResults results;
@@ -81,4 +86,29 @@ public class FileSetMetadataSearchResponse implements Serializable, XMLSerializa
         }
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetmetadatasearchresponse");
+        if (getError() != null) {
+            XMLStreams.writeElement(writer, "error", getError());
+        } else {
+            results.writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("error".equals(name)) {
+                this.error = reader.getElementText();
+            } else if ("filesetqueryresults".equals(name)) {
+                this.results = new FileSetQueryResults();
+                this.results.readXML(reader);
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
@@ -2,15 +2,20 @@ package pt.utl.ist.fenix.tools.file.dspace;
 
 import java.io.Serializable;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.tree.BaseElement;
 
 import pt.utl.ist.fenix.tools.file.FileSet;
-import pt.utl.ist.fenix.tools.file.XMLSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreamSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreams;
 
-public class FileSetRetrieveResponse implements Serializable, XMLSerializable {
+public class FileSetRetrieveResponse implements Serializable, XMLStreamSerializable {
 
     private String error;
     private FileSet fileSet;
@@ -78,4 +83,29 @@ public class FileSetRetrieveResponse implements Serializable, XMLSerializable {
         }
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetretrieveresponse");
+        if (getError() != null) {
+            XMLStreams.writeElement(writer, "error", getError());
+        } else {
+            fileSet.writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("error".equals(name)) {
+                this.error = reader.getElementText();
+            } else if ("fileset".equals(name)) {
+                this.fileSet = new FileSet();
+                this.fileSet.readXML(reader);
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
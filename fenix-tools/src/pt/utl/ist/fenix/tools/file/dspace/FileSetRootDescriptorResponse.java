@@ -2,15 +2,20 @@ package pt.utl.ist.fenix.tools.file.dspace;
 
 import java.io.Serializable;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.tree.BaseElement;
 
 import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
-import pt.utl.ist.fenix.tools.file.XMLSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreamSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreams;
 
-public class FileSetRootDescriptorResponse implements Serializable, XMLSerializable {
+public class FileSetRootDescriptorResponse implements Serializable, XMLStreamSerializable {
 
     private String error;
     private FileSetDescriptor fileSetDescriptor;
@@ -78,4 +83,29 @@ public class FileSetRootDescriptorResponse implements Serializable, XMLSerializa
         }
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetrootdescriptorresponse");
+        if (getError() != null) {
+            XMLStreams.writeElement(writer, "error", getError());
+        } else {
+            fileSetDescriptor.writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("error".equals(name)) {
+                this.error = reader.getElementText();
+            } else if ("filesetdescriptor".equals(name)) {
+                this.fileSetDescriptor = new FileSetDescriptor();
+                this.fileSetDescriptor.readXML(reader);
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
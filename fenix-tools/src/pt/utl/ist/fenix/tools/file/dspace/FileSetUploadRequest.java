@@ -2,6 +2,10 @@ package pt.utl.ist.fenix.tools.file.dspace;
 
 import java.io.Serializable;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
@@ -9,9 +13,10 @@ import org.dom4j.tree.BaseElement;
 
 import pt.utl.ist.fenix.tools.file.FileSet;
 import pt.utl.ist.fenix.tools.file.VirtualPath;
-import pt.utl.ist.fenix.tools.file.XMLSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreamSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreams;
 
-public class FileSetUploadRequest implements Serializable, XMLSerializable {
+public class FileSetUploadRequest implements Serializable, XMLStreamSerializable {
 
     private VirtualPath path;
 
@@ -92,4 +97,46 @@ public class FileSetUploadRequest implements Serializable, XMLSerializable {
         this.privateFile = Boolean.parseBoolean(xmlElement.element("privatefile").getText());
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetuploadrequest");
+        getPath().writeXML(writer);
+        if (getFileSet().getItemHandle() != null) {
+            XMLStreams.writeElement(writer, "itemHandle", getFileSet().getItemHandle());
+        }
+        XMLStreams.writeElement(writer, "filename", getOriginalFilename());
+        XMLStreams.writeElement(writer, "privatefile", "" + isPrivateFile());
+        getFileSet().writeXML(writer);
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        String itemHandle = null;
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("virtualpath".equals(name)) {
+                this.path = new VirtualPath();
+                this.path.readXML(reader);
+            } else if ("itemHandle".equals(name)) {
+                itemHandle = reader.getElementText();
+            } else if ("fileset".equals(name)) {
+                this.fileSet = new FileSet();
+                this.fileSet.readXML(reader);
+            } else if ("filename".equals(name)) {
+                this.originalFilename = reader.getElementText();
+            } else if ("privatefile".equals(name)) {
+                this.privateFile = Boolean.parseBoolean(reader.getElementText());
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+        if (this.fileSet == null) {
+            this.fileSet = new FileSet();
+        }
+        // the handle inside the fileset takes precedence, as in fromXML
+        if (itemHandle != null && this.fileSet.getItemHandle() == null) {
+            this.fileSet.setItemHandle(itemHandle);
+        }
+    }
 }
@@ -2,15 +2,20 @@ package pt.utl.ist.fenix.tools.file.dspace;
 
 import java.io.Serializable;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.tree.BaseElement;
 
 import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
-import pt.utl.ist.fenix.tools.file.XMLSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreamSerializable;
+import pt.utl.ist.fenix.tools.file.XMLStreams;
 
-public class FileSetUploadResponse implements Serializable, XMLSerializable {
+public class FileSetUploadResponse implements Serializable, XMLStreamSerializable {
 
     private String error;
 
@@ -80,4 +85,29 @@ public class FileSetUploadResponse implements Serializable, XMLSerializable {
         }
     }
 
+    @Override
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("filesetuploadresponse");
+        if (this.error != null) {
+            XMLStreams.writeElement(writer, "error", this.error);
+        } else {
+            getFileSetDescriptor().writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    public void readXML(XMLStreamReader reader) throws XMLStreamException {
+        while (XMLStreams.nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("error".equals(name)) {
+                this.error = reader.getElementText();
+            } else if ("filesetdescriptor".equals(name)) {
+                this.fileSetDescriptor = new FileSetDescriptor();
+                this.fileSetDescriptor.readXML(reader);
+            } else {
+                XMLStreams.skipElement(reader);
+            }
+        }
+    }
 }
@@ -2,6 +2,7 @@ package pt.utl.ist.fenix.tools.file.dspace;
 
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.List;
 
 import pt.utl.ist.fenix.tools.file.FileSearchCriteria;
 import pt.utl.ist.fenix.tools.file.FileSearchResult;
@@ -32,6 +33,13 @@ public interface IDSpaceClient {
      */
     public void init(DSpaceFileManager filemanager);
 
+    /**
+     * Releases the connections and threads held by this client. It is called
+     * when the file manager is shut down, no other method may be called
+     * afterwards.
+     */
+    public void shutdown();
+
     /**
      * This method should implement the upload of a file to the server
      * 
@@ -43,6 +51,17 @@ public interface IDSpaceClient {
     public FileSetDescriptor uploadFileSet(VirtualPath path, String originalFilename, FileSet fs, boolean privateFile)
             throws DSpaceClientException;
 
+    /**
+     * Uploads a single file read from the stream, without storing it on local
+     * disk first. The format metadata (size and mime type) is computed while
+     * the stream is transferred.
+     * 
+     * @param stream the content of the file, read until its end but not closed
+     * @throws DSpaceClientException if any error occurs during the upload process
+     */
+    public FileSetDescriptor uploadStream(VirtualPath path, String originalFilename, InputStream stream,
+            Collection<FileSetMetaData> metaData, boolean privateFile) throws DSpaceClientException;
+
     /**
      * This method implements the upload of a file to an existing item
      * 
@@ -79,6 +98,21 @@ public interface IDSpaceClient {
      */
     public void changeFileSetPermissions(FileSetDescriptor descriptor, boolean privateFile) throws DSpaceClientException;
 
+    /**
+     * Deletes several filesets in a single remote call
+     * 
+     * @return one result per descriptor, in the same order
+     */
+    public List<FileSetBatchResult> deleteFileSets(List<FileSetDescriptor> descriptors) throws DSpaceClientException;
+
+    /**
+     * Changes the permissions of several filesets in a single remote call
+     * 
+     * @return one result per descriptor, in the same order
+     */
+    public List<FileSetBatchResult> changeFileSetsPermissions(List<FileSetDescriptor> descriptors, boolean privateFile)
+            throws DSpaceClientException;
+
     public FileSet retrieveFileSet(FileSetDescriptor descriptor) throws DSpaceClientException;
 
     public InputStream retrieveStreamForFile(String uniqueIdentifier) throws DSpaceClientException;
@@ -87,6 +121,24 @@ public interface IDSpaceClient {
 
     public FileSetDescriptor getRootDescriptor(FileSetDescriptor innerChildDescriptor) throws DSpaceClientException;
 
+    /**
+     * Batched version of {@link #listAllDescriptorsFromRoot(FileSetDescriptor)}
+     * 
+     * @return one result per descriptor, in the same order, holding the listed
+     *         descriptor (null if none was found)
+     */
+    public List<FileSetBatchResult> listAllDescriptorsFromRoots(List<FileSetDescriptor> descriptors)
+            throws DSpaceClientException;
+
+    /**
+     * Batched version of {@link #getRootDescriptor(FileSetDescriptor)}
+     * 
+     * @return one result per descriptor, in the same order, holding the root
+     *         descriptor
+     */
+    public List<FileSetBatchResult> getRootDescriptors(List<FileSetDescriptor> innerChildDescriptors)
+            throws DSpaceClientException;
+
     public FileSetQueryResults searchFileSets(FilesetMetadataQuery query, VirtualPath optionalPathToRestrictSearch)
             throws DSpaceClientException;
 
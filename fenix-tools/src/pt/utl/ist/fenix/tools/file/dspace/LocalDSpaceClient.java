@@ -0,0 +1,775 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.dom4j.tree.BaseElement;
+
+import pt.utl.ist.fenix.tools.file.FileDescriptor;
+import pt.utl.ist.fenix.tools.file.FileSearchCriteria;
+import pt.utl.ist.fenix.tools.file.FileSearchResult;
+import pt.utl.ist.fenix.tools.file.FileSet;
+import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
+import pt.utl.ist.fenix.tools.file.FileSetMetaData;
+import pt.utl.ist.fenix.tools.file.FileSetQueryResults;
+import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery;
+import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery.ConjunctionType;
+import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery.MetadataQuery;
+import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery.MetadataQueryComponent;
+import pt.utl.ist.fenix.tools.file.VirtualPath;
+import pt.utl.ist.fenix.tools.file.VirtualPathNode;
+import pt.utl.ist.fenix.tools.file.filters.SimpleFileSetFilter;
+import pt.utl.ist.fenix.tools.file.utils.FileUtils;
+
+/**
+ * A stand-in for a DSpace server that keeps the filesets in a local directory,
+ * so that the file managers and the filters can be exercised and measured
+ * without a running server. It is selected by setting
+ * <code>dspace.client.transport.class</code> to this class.
+ * <p>
+ * Each uploaded fileset becomes an item in its own directory of
+ * {@link #DIRECTORY_PARAM}, holding its files and an <code>item.xml</code>
+ * with its descriptor, and is indexed in memory when the client starts. Search
+ * is a simple match of the query terms against the metadata of the items.
+ * <p>
+ * To make measurements reproducible every call can be delayed by
+ * {@link #LATENCY_PARAM} milliseconds, and every transfer of file contents can
+ * be limited to {@link #BANDWIDTH_PARAM} bytes per second.
+ */
+public class LocalDSpaceClient implements IDSpaceClient {
+
+    public final static String DIRECTORY_PARAM = "dspace.local.dir";
+
+    public final static String LATENCY_PARAM = "dspace.local.latency";
+
+    public final static String BANDWIDTH_PARAM = "dspace.local.bandwidth";
+
+    private static final String HANDLE_PREFIX = "local/";
+
+    private static final String ITEM_FILE = "item.xml";
+
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    private static final Logger logger = Logger.getLogger(LocalDSpaceClient.class.getName());
+
+    private File directory;
+
+    private long latency = 0;
+
+    private long bandwidth = 0;
+
+    // item handle -> item
+    private final Map<String, LocalItem> items = new LinkedHashMap<String, LocalItem>();
+
+    private int lastItemNumber = 0;
+
+    private static class LocalItem {
+        private final String handle;
+
+        private final File dir;
+
+        private boolean privateFile;
+
+        private VirtualPath path;
+
+        private FileSetDescriptor root;
+
+        private int lastSequence = 0;
+
+        public LocalItem(String handle, File dir) {
+            this.handle = handle;
+            this.dir = dir;
+        }
+
+        public synchronized String nextUniqueId() {
+            return handle + "/" + (++lastSequence);
+        }
+    }
+
+    @Override
+    public void init(DSpaceFileManager filemanager) {
+        String directoryName = filemanager.getProperty(DIRECTORY_PARAM);
+        if (directoryName == null || directoryName.trim().length() == 0) {
+            throw new RuntimeException(DIRECTORY_PARAM + " must be configured to use " + getClass().getName());
+        }
+        directory = new File(directoryName.trim());
+        if (!directory.mkdirs() && !directory.isDirectory()) {
+            throw new RuntimeException("Unable to create the local dspace directory " + directory.getAbsolutePath());
+        }
+        latency = filemanager.getIntProperty(LATENCY_PARAM, 0);
+        bandwidth = filemanager.getIntProperty(BANDWIDTH_PARAM, 0);
+
+        loadItems();
+        logger.log(Level.INFO, "Local dspace in " + directory.getAbsolutePath() + " with " + items.size() + " items, latency "
+                + latency + "ms, bandwidth " + (bandwidth > 0 ? bandwidth + " bytes/s" : "unlimited"));
+    }
+
+    @Override
+    public void shutdown() {
+        // nothing is held between calls
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized int getItemCount() {
+        return items.size();
+    }
+
+    /*
+     * Storage
+     */
+
+    private synchronized void loadItems() {
+        File[] itemDirs = directory.listFiles();
+        if (itemDirs == null) {
+            return;
+        }
+        for (File itemDir : itemDirs) {
+            File itemFile = new File(itemDir, ITEM_FILE);
+            if (!itemFile.isFile()) {
+                continue;
+            }
+            try {
+                LocalItem item = readItem(itemDir, new SAXReader().read(itemFile).getRootElement());
+                items.put(item.handle, item);
+                lastItemNumber = Math.max(lastItemNumber, Integer.parseInt(itemDir.getName()));
+            } catch (DocumentException e) {
+                logger.log(Level.WARNING, "Ignoring unreadable item " + itemFile.getAbsolutePath(), e);
+            } catch (NumberFormatException e) {
+                logger.log(Level.WARNING, "Ignoring unexpected directory " + itemDir.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    private static LocalItem readItem(File itemDir, Element itemElement) {
+        LocalItem item = new LocalItem(itemElement.attributeValue("handle"), itemDir);
+        item.privateFile = Boolean.parseBoolean(itemElement.attributeValue("privatefile"));
+        item.lastSequence = Integer.parseInt(itemElement.attributeValue("lastsequence"));
+        item.path = new VirtualPath();
+        if (itemElement.element("virtualpath") != null) {
+            item.path.fromXML(itemElement.element("virtualpath"));
+        }
+        item.root = new FileSetDescriptor();
+        item.root.fromXML(itemElement.element("filesetdescriptor"));
+        return item;
+    }
+
+    private void saveItem(LocalItem item) throws DSpaceClientException {
+        Element itemElement = new BaseElement("localitem");
+        itemElement.addAttribute("handle", item.handle);
+        itemElement.addAttribute("privatefile", "" + item.privateFile);
+        synchronized (item) {
+            itemElement.addAttribute("lastsequence", "" + item.lastSequence);
+        }
+        itemElement.add(item.path.toXML());
+        itemElement.add(item.root.toXML());
+        Document document = DocumentHelper.createDocument(itemElement);
+
+        File itemFile = new File(item.dir, ITEM_FILE);
+        File temporary = new File(item.dir, ITEM_FILE + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                out.write(document.asXML().getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new DSpaceClientException("Unable to save item " + item.handle, e);
+        }
+        itemFile.delete();
+        if (!temporary.renameTo(itemFile)) {
+            throw new DSpaceClientException("Unable to save item " + item.handle);
+        }
+    }
+
+    private synchronized LocalItem createItem(VirtualPath path, boolean privateFile) throws DSpaceClientException {
+        int number = ++lastItemNumber;
+        File itemDir = new File(directory, Integer.toString(number));
+        if (!itemDir.mkdirs()) {
+            throw new DSpaceClientException("Unable to create the directory of item " + number);
+        }
+        LocalItem item = new LocalItem(HANDLE_PREFIX + number, itemDir);
+        item.privateFile = privateFile;
+        item.path = path != null ? path : new VirtualPath();
+        return item;
+    }
+
+    private File fileOf(LocalItem item, String uniqueId) {
+        return new File(item.dir, uniqueId.substring(uniqueId.lastIndexOf('/') + 1));
+    }
+
+    private FileSetDescriptor store(LocalItem item, FileSet fs) throws DSpaceClientException {
+        FileSetDescriptor descriptor = new FileSetDescriptor();
+        if (fs.getMetaInfo() != null) {
+            descriptor.addMetaInfo(fs.getMetaInfo());
+        }
+        try {
+            for (File file : fs.getContentFiles()) {
+                descriptor.addContentFileDescriptor(storeFile(item, FileSet.openContent(file), file.getName(), file
+                        .getAbsolutePath()));
+            }
+            for (File file : fs.getMetaFiles()) {
+                descriptor.addMetaFileDescriptors(storeFile(item, FileSet.openContent(file), file.getName(), file
+                        .getAbsolutePath()));
+            }
+        } catch (IOException e) {
+            throw new DSpaceClientException(e);
+        }
+        for (FileSet child : fs.getChildSets()) {
+            descriptor.addChildSet(store(item, child));
+        }
+        return descriptor;
+    }
+
+    private FileDescriptor storeFile(LocalItem item, InputStream input, String filename, String originalAbsolutePath)
+            throws DSpaceClientException {
+        String uniqueId = item.nextUniqueId();
+        CountingDigestInputStream content = new CountingDigestInputStream(throttle(input));
+        try {
+            try {
+                OutputStream output = new FileOutputStream(fileOf(item, uniqueId));
+                try {
+                    FileUtils.copyInputStreamToOutputStream(content, output);
+                } finally {
+                    output.close();
+                }
+            } finally {
+                content.close();
+            }
+        } catch (IOException e) {
+            throw new DSpaceClientException("Unable to store " + filename, e);
+        }
+        String mimeType = URLConnection.guessContentTypeFromName(filename);
+        return new FileDescriptor(originalAbsolutePath, filename, mimeType != null ? mimeType : DEFAULT_MIME_TYPE, content
+                .getChecksum(), content.getAlgorithm(), (int) content.getCount(), uniqueId);
+    }
+
+    /*
+     * Lookups
+     */
+
+    private synchronized LocalItem requireItem(String itemHandle) throws DSpaceClientException {
+        LocalItem item = items.get(itemHandle);
+        if (item == null) {
+            throw new DSpaceClientException("No item with handle " + itemHandle);
+        }
+        return item;
+    }
+
+    private LocalItem itemOf(FileSetDescriptor descriptor) throws DSpaceClientException {
+        for (FileDescriptor fileDescriptor : descriptor.recursiveListAllFileDescriptors()) {
+            if (fileDescriptor.getUniqueId() != null) {
+                return requireItem(fileDescriptor.getItemStorageId());
+            }
+        }
+        throw new DSpaceClientException("The descriptor does not identify any file");
+    }
+
+    private static FileSetDescriptor copyOf(FileSetDescriptor descriptor) {
+        FileSetDescriptor copy = new FileSetDescriptor();
+        copy.fromXML(descriptor.toXML());
+        return copy;
+    }
+
+    private static FileDescriptor findFile(FileSetDescriptor descriptor, String uniqueId) {
+        for (FileDescriptor fileDescriptor : descriptor.recursiveListAllFileDescriptors()) {
+            if (uniqueId.equals(fileDescriptor.getUniqueId())) {
+                return fileDescriptor;
+            }
+        }
+        return null;
+    }
+
+    private static boolean removeFile(FileSetDescriptor descriptor, String uniqueId) {
+        for (FileDescriptor fileDescriptor : descriptor.getContentFilesDescriptors()) {
+            if (uniqueId.equals(fileDescriptor.getUniqueId())) {
+                descriptor.removeContentFileDescriptor(fileDescriptor);
+                return true;
+            }
+        }
+        for (FileDescriptor fileDescriptor : descriptor.getMetaFilesDescriptors()) {
+            if (uniqueId.equals(fileDescriptor.getUniqueId())) {
+                descriptor.removeMetaFileDescriptor(fileDescriptor);
+                return true;
+            }
+        }
+        for (FileSetDescriptor child : descriptor.getChildSets()) {
+            if (removeFile(child, uniqueId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Simulated network
+     */
+
+    private void simulateLatency() throws DSpaceClientException {
+        if (latency <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DSpaceClientException("Interrupted", e);
+        }
+    }
+
+    private InputStream throttle(InputStream input) {
+        return bandwidth > 0 ? new ThrottledInputStream(input, bandwidth) : input;
+    }
+
+    /**
+     * Limits the rate at which a stream can be read, as if it came through a
+     * link with the given bandwidth.
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+
+        private final long bytesPerSecond;
+
+        private final long start = System.currentTimeMillis();
+
+        private long count = 0;
+
+        public ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                account(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // at most a tenth of a second worth of data at a time
+            int read = in.read(b, off, (int) Math.min(len, Math.max(1, bytesPerSecond / 10)));
+            if (read > 0) {
+                account(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            account(skipped);
+            return skipped;
+        }
+
+        private void account(long bytes) throws IOException {
+            count += bytes;
+            long wait = count * 1000 / bytesPerSecond - (System.currentTimeMillis() - start);
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+        }
+    }
+
+    /*
+     * IDSpaceClient
+     */
+
+    @Override
+    public FileSetDescriptor uploadFileSet(VirtualPath path, String originalFilename, FileSet fs, boolean privateFile)
+            throws DSpaceClientException {
+        if (fs.getItemHandle() != null) {
+            return addFileToItem(path, originalFilename, fs.getItemHandle(), fs, privateFile);
+        }
+        simulateLatency();
+        LocalItem item = createItem(path, privateFile);
+        item.root = store(item, fs);
+        return register(item);
+    }
+
+    @Override
+    public FileSetDescriptor uploadStream(VirtualPath path, String originalFilename, InputStream stream,
+            Collection<FileSetMetaData> metaData, boolean privateFile) throws DSpaceClientException {
+        simulateLatency();
+        LocalItem item = createItem(path, privateFile);
+        FileDescriptor fileDescriptor = storeFile(item, stream, originalFilename, new File(originalFilename).getAbsolutePath());
+
+        FileSet fs = new FileSet();
+        fs.addMetaInfo(metaData);
+        SimpleFileSetFilter.addFormatMetaInfo(fs, originalFilename, fileDescriptor.getSize());
+        item.root = new FileSetDescriptor(fileDescriptor, fs.getMetaInfo());
+        return register(item);
+    }
+
+    private FileSetDescriptor register(LocalItem item) throws DSpaceClientException {
+        synchronized (this) {
+            saveItem(item);
+            items.put(item.handle, item);
+            return copyOf(item.root);
+        }
+    }
+
+    @Override
+    public FileSetDescriptor addFileToItem(VirtualPath path, String name, String itemHandle, FileSet fileSet, boolean privateFile)
+            throws DSpaceClientException {
+        simulateLatency();
+        LocalItem item = requireItem(itemHandle);
+        FileSetDescriptor added = store(item, fileSet);
+        synchronized (this) {
+            item.root.addChildSet(added);
+            saveItem(item);
+            return copyOf(added);
+        }
+    }
+
+    @Override
+    public void removeFileFromItem(String uniqueId) throws DSpaceClientException {
+        simulateLatency();
+        LocalItem item = requireItem(FileDescriptor.getItemStorageId(uniqueId));
+        synchronized (this) {
+            if (!removeFile(item.root, uniqueId)) {
+                throw new DSpaceClientException("No file with id " + uniqueId);
+            }
+            saveItem(item);
+        }
+        fileOf(item, uniqueId).delete();
+    }
+
+    @Override
+    public void deleteFileSet(FileSetDescriptor descriptor) throws DSpaceClientException {
+        simulateLatency();
+        delete(descriptor);
+    }
+
+    private void delete(FileSetDescriptor descriptor) throws DSpaceClientException {
+        LocalItem item = itemOf(descriptor);
+        synchronized (this) {
+            items.remove(item.handle);
+        }
+        FileUtils.deleteDirectory(item.dir);
+    }
+
+    @Override
+    public void changeItemMetaData(String itemHandler, Collection<FileSetMetaData> metaData) throws DSpaceClientException {
+        simulateLatency();
+        LocalItem item = requireItem(itemHandler);
+        synchronized (this) {
+            item.root.setMetaInfo(new ArrayList<FileSetMetaData>(metaData));
+            saveItem(item);
+        }
+    }
+
+    @Override
+    public void changeFileSetPermissions(FileSetDescriptor descriptor, boolean privateFile) throws DSpaceClientException {
+        simulateLatency();
+        changePermissions(descriptor, privateFile);
+    }
+
+    private void changePermissions(FileSetDescriptor descriptor, boolean privateFile) throws DSpaceClientException {
+        LocalItem item = itemOf(descriptor);
+        synchronized (this) {
+            item.privateFile = privateFile;
+            saveItem(item);
+        }
+    }
+
+    @Override
+    public List<FileSetBatchResult> deleteFileSets(List<FileSetDescriptor> descriptors) throws DSpaceClientException {
+        simulateLatency();
+        List<FileSetBatchResult> results = new ArrayList<FileSetBatchResult>(descriptors.size());
+        for (FileSetDescriptor descriptor : descriptors) {
+            try {
+                delete(descriptor);
+                results.add(new FileSetBatchResult((FileSetDescriptor) null));
+            } catch (DSpaceClientException e) {
+                results.add(new FileSetBatchResult(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<FileSetBatchResult> changeFileSetsPermissions(List<FileSetDescriptor> descriptors, boolean privateFile)
+            throws DSpaceClientException {
+        simulateLatency();
+        List<FileSetBatchResult> results = new ArrayList<FileSetBatchResult>(descriptors.size());
+        for (FileSetDescriptor descriptor : descriptors) {
+            try {
+                changePermissions(descriptor, privateFile);
+                results.add(new FileSetBatchResult((FileSetDescriptor) null));
+            } catch (DSpaceClientException e) {
+                results.add(new FileSetBatchResult(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public FileSet retrieveFileSet(FileSetDescriptor descriptor) throws DSpaceClientException {
+        simulateLatency();
+        LocalItem item = itemOf(descriptor);
+        try {
+            File baseDir = File.createTempFile("DSpaceTempDownload", ".tmp");
+            if (!baseDir.delete() || !baseDir.mkdirs()) {
+                throw new DSpaceClientException("Unable to create a temporary directory");
+            }
+            return retrieve(item, descriptor, baseDir);
+        } catch (IOException e) {
+            throw new DSpaceClientException(e);
+        }
+    }
+
+    private FileSet retrieve(LocalItem item, FileSetDescriptor descriptor, File baseDir) throws IOException {
+        FileSet fs = new FileSet();
+        fs.addMetaInfo(descriptor.getMetaInfo());
+        for (FileDescriptor fileDescriptor : descriptor.getContentFilesDescriptors()) {
+            fs.addContentFile(retrieve(item, fileDescriptor, baseDir));
+        }
+        for (FileDescriptor fileDescriptor : descriptor.getMetaFilesDescriptors()) {
+            fs.addMetaFile(retrieve(item, fileDescriptor, baseDir));
+        }
+        for (FileSetDescriptor child : descriptor.getChildSets()) {
+            fs.addChildSet(retrieve(item, child, baseDir));
+        }
+        return fs;
+    }
+
+    private File retrieve(LocalItem item, FileDescriptor fileDescriptor, File baseDir) throws IOException {
+        String uniqueId = fileDescriptor.getUniqueId();
+        File target = new File(new File(baseDir, uniqueId.substring(uniqueId.lastIndexOf('/') + 1)), fileDescriptor
+                .getFilename());
+        target.getParentFile().mkdirs();
+        InputStream input = throttle(new FileInputStream(fileOf(item, uniqueId)));
+        try {
+            OutputStream output = new FileOutputStream(target);
+            try {
+                FileUtils.copyInputStreamToOutputStream(input, output);
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+        return target;
+    }
+
+    @Override
+    public InputStream retrieveStreamForFile(String uniqueIdentifier) throws DSpaceClientException {
+        simulateLatency();
+        LocalItem item = requireItem(FileDescriptor.getItemStorageId(uniqueIdentifier));
+        try {
+            return throttle(new FileInputStream(fileOf(item, uniqueIdentifier)));
+        } catch (FileNotFoundException e) {
+            throw new DSpaceClientException("No file with id " + uniqueIdentifier, e);
+        }
+    }
+
+    @Override
+    public FileSetDescriptor listAllDescriptorsFromRoot(FileSetDescriptor rootFileSetDescriptor) throws DSpaceClientException {
+        simulateLatency();
+        return lookupRoot(rootFileSetDescriptor);
+    }
+
+    @Override
+    public FileSetDescriptor getRootDescriptor(FileSetDescriptor innerChildDescriptor) throws DSpaceClientException {
+        simulateLatency();
+        return lookupRoot(innerChildDescriptor);
+    }
+
+    private FileSetDescriptor lookupRoot(FileSetDescriptor descriptor) throws DSpaceClientException {
+        LocalItem item = itemOf(descriptor);
+        synchronized (this) {
+            return copyOf(item.root);
+        }
+    }
+
+    @Override
+    public List<FileSetBatchResult> listAllDescriptorsFromRoots(List<FileSetDescriptor> descriptors)
+            throws DSpaceClientException {
+        simulateLatency();
+        return lookupRoots(descriptors);
+    }
+
+    @Override
+    public List<FileSetBatchResult> getRootDescriptors(List<FileSetDescriptor> innerChildDescriptors)
+            throws DSpaceClientException {
+        simulateLatency();
+        return lookupRoots(innerChildDescriptors);
+    }
+
+    private List<FileSetBatchResult> lookupRoots(List<FileSetDescriptor> descriptors) {
+        List<FileSetBatchResult> results = new ArrayList<FileSetBatchResult>(descriptors.size());
+        for (FileSetDescriptor descriptor : descriptors) {
+            try {
+                results.add(new FileSetBatchResult(lookupRoot(descriptor)));
+            } catch (DSpaceClientException e) {
+                results.add(new FileSetBatchResult(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /*
+     * Search
+     */
+
+    @Override
+    public FileSetQueryResults searchFileSets(FilesetMetadataQuery query, VirtualPath optionalPathToRestrictSearch)
+            throws DSpaceClientException {
+        simulateLatency();
+        List<FileSetDescriptor> hits = new ArrayList<FileSetDescriptor>();
+        synchronized (this) {
+            for (LocalItem item : items.values()) {
+                if (isInPath(item, optionalPathToRestrictSearch) && matches(item, query)) {
+                    hits.add(item.root);
+                }
+            }
+        }
+
+        List<FileSetDescriptor> page = new ArrayList<FileSetDescriptor>();
+        int end = Math.min(hits.size(), query.getStart() + query.getPageSize());
+        for (int i = query.getStart(); i < end; i++) {
+            page.add(copyOf(hits.get(i)));
+        }
+
+        FileSetQueryResults results = new FileSetQueryResults();
+        results.setStart(query.getStart());
+        results.setPageSize(query.getPageSize());
+        results.setHitsCount(hits.size());
+        results.setResults(page);
+        return results;
+    }
+
+    @Override
+    public FileSearchResult searchFiles(FileSearchCriteria criteria) throws DSpaceClientException {
+        return searchFiles(criteria, null);
+    }
+
+    @Override
+    public FileSearchResult searchFiles(FileSearchCriteria criteria, VirtualPath optionalPathToRestrictSearch)
+            throws DSpaceClientException {
+        FilesetMetadataQuery query = criteria.getQuery();
+        FileSetQueryResults results = searchFileSets(query, optionalPathToRestrictSearch);
+        List<FileDescriptor> descriptors = new ArrayList<FileDescriptor>();
+        for (FileSetDescriptor result : results.getResults()) {
+            descriptors.add(result.getContentFileDescriptor(0));
+        }
+        return new FileSearchResult(descriptors, query.getStart(), query.getPageSize(), results.getHitsCount());
+    }
+
+    private static boolean isInPath(LocalItem item, VirtualPath path) {
+        if (path == null) {
+            return true;
+        }
+        List<VirtualPathNode> prefix = path.getNodes();
+        List<VirtualPathNode> nodes = item.path.getNodes();
+        if (prefix.size() > nodes.size()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.size(); i++) {
+            if (!equal(prefix.get(i).getName(), nodes.get(i).getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Evaluates the components of the query from left to right, each one
+     * joined to the previous with its conjunction (AND if not given).
+     */
+    private static boolean matches(LocalItem item, FilesetMetadataQuery query) {
+        Collection<FileSetMetaData> metaInfo = new ArrayList<FileSetMetaData>();
+        collectMetaInfo(item.root, metaInfo);
+
+        boolean result = true;
+        ConjunctionType conjunction = ConjunctionType.AND;
+        for (Iterator<MetadataQueryComponent> iterator = query.iterator(); iterator.hasNext();) {
+            MetadataQueryComponent component = iterator.next();
+            boolean match = matches(metaInfo, component.getQuery());
+            result = conjunction == ConjunctionType.OR ? result || match : result && match;
+            conjunction = component.getNextQueryConjunction() != null ? component.getNextQueryConjunction()
+                    : ConjunctionType.AND;
+        }
+        return result;
+    }
+
+    private static void collectMetaInfo(FileSetDescriptor descriptor, Collection<FileSetMetaData> metaInfo) {
+        if (descriptor.getMetaInfo() != null) {
+            metaInfo.addAll(descriptor.getMetaInfo());
+        }
+        for (FileSetDescriptor child : descriptor.getChildSets()) {
+            collectMetaInfo(child, metaInfo);
+        }
+    }
+
+    private static boolean matches(Collection<FileSetMetaData> metaInfo, MetadataQuery query) {
+        String field = query.getField();
+        // the criteria are written for lucene, as in "some words"~10
+        String[] terms = normalize(query.getSearchString().replaceAll("~\\d+$", "").replace("\"", "")).split("\\s+");
+        for (FileSetMetaData metaData : metaInfo) {
+            if (!MetadataQuery.ANY_FIELD.equals(field) && !field.equals(metaData.getElement())
+                    && !field.equals(metaData.getQualifier())) {
+                continue;
+            }
+            if (metaData.getValues() == null) {
+                continue;
+            }
+            for (String value : metaData.getValues()) {
+                if (value != null && containsAll(normalize(value), terms)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAll(String value, String[] terms) {
+        for (String term : terms) {
+            if (value.indexOf(term) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{InCombiningDiacriticalMarks}+", "")
+                .toLowerCase().trim();
+    }
+}
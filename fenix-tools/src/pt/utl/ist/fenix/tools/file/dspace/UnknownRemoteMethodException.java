@@ -0,0 +1,19 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+/**
+ * Signals that the server does not know the remote method that was called: it
+ * answered with the HTTP status 501 Not Implemented or with the UNKNOWN_METHOD
+ * response code. No part of the request was run.
+ */
+public class UnknownRemoteMethodException extends DSpaceClientException {
+
+    private static final long serialVersionUID = -6042718465093275316L;
+
+    /**
+     * @param message The message for this Exception
+     */
+    public UnknownRemoteMethodException(String message) {
+        super(message);
+    }
+
+}
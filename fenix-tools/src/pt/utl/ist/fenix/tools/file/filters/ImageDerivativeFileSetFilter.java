@@ -0,0 +1,291 @@
+package pt.utl.ist.fenix.tools.file.filters;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import pt.utl.ist.fenix.tools.file.FileSet;
+import pt.utl.ist.fenix.tools.file.FileSetMetaData;
+import pt.utl.ist.fenix.tools.file.utils.FileUtils;
+
+/**
+ * Creates smaller versions of an image, a thumbnail and a version for web
+ * pages, each as a child file set of the image, so that pages can show them
+ * instead of the original.
+ * <p>
+ * The image is decoded with source subsampling, which only reads every n-th
+ * pixel of each row and column, so a large image is never decoded at its full
+ * size. The decoding happens on a bounded pool of threads shared by every
+ * upload, which limits the memory used by concurrent uploads of large images.
+ * <p>
+ * The derivatives are written to a temporary directory of the file set, which
+ * the file manager deletes once the file set is saved. An image that cannot be
+ * decoded is still uploaded, without derivatives.
+ */
+public class ImageDerivativeFileSetFilter implements FileSetFilter {
+
+    /**
+     * System property with the number of images decoded at the same time
+     */
+    public static final String THREADS_PARAM = "file.filter.image.derivatives.threads";
+
+    /**
+     * System property with the largest side of thumbnails, in pixels. 0 or
+     * less creates no thumbnails.
+     */
+    public static final String THUMBNAIL_SIZE_PARAM = "file.filter.image.thumbnail.size";
+
+    /**
+     * System property with the largest side of the versions for web pages, in
+     * pixels. 0 or less creates no such versions.
+     */
+    public static final String WEB_SIZE_PARAM = "file.filter.image.web.size";
+
+    public static final int DEFAULT_THREADS = 2;
+
+    public static final int DEFAULT_THUMBNAIL_SIZE = 160;
+
+    public static final int DEFAULT_WEB_SIZE = 1024;
+
+    /**
+     * The meta info element that tells which derivative a child file set is.
+     * It is only added when the
+     * {@link SimpleImageFileSetFilter#EXTENDED_META_INFO_PARAM} system property
+     * is true, as the DSpace server must have it registered in its metadata
+     * registry. Otherwise the derivative is only told by its file name.
+     */
+    public static final String DERIVATIVE_ELEMENT = "derivative";
+
+    public static final String THUMBNAIL = "thumbnail";
+
+    public static final String WEB = "web";
+
+    private static final Logger logger = Logger.getLogger(ImageDerivativeFileSetFilter.class.getName());
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Integer.getInteger(THREADS_PARAM, DEFAULT_THREADS)), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ImageDerivativeFileSetFilter-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final int thumbnailSize = Integer.getInteger(THUMBNAIL_SIZE_PARAM, DEFAULT_THUMBNAIL_SIZE);
+
+    private final int webSize = Integer.getInteger(WEB_SIZE_PARAM, DEFAULT_WEB_SIZE);
+
+    private final boolean extendedMetaInfo = Boolean.getBoolean(SimpleImageFileSetFilter.EXTENDED_META_INFO_PARAM);
+
+    public ImageDerivativeFileSetFilter() {
+        super();
+    }
+
+    @Override
+    public void handleFileSet(FileSet fs) throws FileSetFilterException {
+        Collection<File> supposedImageFiles = fs.getContentFiles();
+        if (supposedImageFiles != null && supposedImageFiles.size() != 0) {
+            final File supposedImageFile = supposedImageFiles.iterator().next();
+            if (SimpleImageFileSetFilter.isReadableImage(supposedImageFile) && (thumbnailSize > 0 || webSize > 0)) {
+                final File dir;
+                try {
+                    dir = FileUtils.createTemporaryDir("image_derivatives_", "_temp");
+                } catch (IOException e) {
+                    throw new IOFileSetFilterException(e);
+                }
+                fs.addTemporaryDirectory(dir);
+                Future<Collection<FileSet>> derivatives = executor.submit(new Callable<Collection<FileSet>>() {
+                    @Override
+                    public Collection<FileSet> call() throws Exception {
+                        return createDerivatives(supposedImageFile, dir);
+                    }
+                });
+                for (FileSet derivative : waitFor(derivatives)) {
+                    fs.addChildSet(derivative);
+                }
+            }
+        }
+    }
+
+    private Collection<FileSet> waitFor(Future<Collection<FileSet>> derivatives) throws FileSetFilterException {
+        try {
+            return derivatives.get();
+        } catch (InterruptedException e) {
+            derivatives.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOFileSetFilterException("Interrupted while creating the image derivatives", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FileSetFilterException) {
+                throw (FileSetFilterException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOFileSetFilterException(cause);
+        }
+    }
+
+    private Collection<FileSet> createDerivatives(File imageFile, File dir) throws FileSetFilterException {
+        Collection<FileSet> derivatives = new ArrayList<FileSet>(2);
+        try {
+            SubsampledImage subsampled = readSubsampled(imageFile, Math.max(thumbnailSize, webSize));
+            if (subsampled == null) {
+                return derivatives;
+            }
+            int largestSide = Math.max(subsampled.width, subsampled.height);
+            // a derivative is only worth it if the image does not already fit
+            boolean web = webSize > 0 && largestSide > webSize;
+            boolean thumbnail = thumbnailSize > 0 && largestSide > thumbnailSize;
+            BufferedImage image = subsampled.image;
+            String name = imageFile.getName();
+            String baseName = name.substring(0, name.lastIndexOf('.'));
+            // jpeg images stay jpeg, the others become png so that they keep
+            // any transparency
+            String format = name.endsWith(".jpg") ? "jpg" : "png";
+            boolean opaque = "jpg".equals(format) || !image.getColorModel().hasAlpha();
+            if (web) {
+                image = scale(image, webSize, opaque);
+                addDerivative(derivatives, image, new File(dir, baseName + "-" + WEB + "." + format), format, WEB);
+            }
+            if (thumbnail) {
+                addDerivative(derivatives, scale(image, thumbnailSize, opaque), new File(dir, baseName + "-" + THUMBNAIL
+                        + "." + format), format, THUMBNAIL);
+            }
+            return derivatives;
+        } catch (IOException e) {
+            return skipDerivatives(imageFile, e);
+        } catch (RuntimeException e) {
+            // some readers fail with unchecked exceptions on images they
+            // cannot handle
+            return skipDerivatives(imageFile, e);
+        }
+    }
+
+    private static Collection<FileSet> skipDerivatives(File imageFile, Exception e) {
+        logger.log(Level.WARNING, "Unable to create the derivatives of " + imageFile.getName() + ", uploading it without them",
+                e);
+        return new ArrayList<FileSet>(0);
+    }
+
+    /**
+     * A decoded image, along with the dimensions of the image before it was
+     * subsampled
+     */
+    private static class SubsampledImage {
+        private final BufferedImage image;
+
+        private final int width;
+
+        private final int height;
+
+        private SubsampledImage(BufferedImage image, int width, int height) {
+            this.image = image;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Decodes the image skipping as many pixels as possible while keeping its
+     * largest side at least as large as the target size.
+     * 
+     * @return the image, or null if it cannot be read
+     */
+    private SubsampledImage readSubsampled(File imageFile, int targetSize) throws IOException, FileSetFilterException {
+        ImageInputStream iis = ImageIO.createImageInputStream(imageFile);
+        if (iis == null) {
+            return null;
+        }
+        ImageReader reader = null;
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            reader = readers.next();
+            reader.setInput(iis, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            SimpleImageFileSetFilter.checkPixels(imageFile.getName(), width, height);
+            int subsampling = Math.max(1, Math.max(width, height) / targetSize);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return new SubsampledImage(reader.read(0, param), width, height);
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            iis.close();
+        }
+    }
+
+    /**
+     * Scales the image so that its largest side has the given size, halving
+     * it first while it is more than twice as large, which keeps the bilinear
+     * interpolation from skipping pixels.
+     */
+    private static BufferedImage scale(BufferedImage image, int size, boolean opaque) {
+        int largestSide = Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round((double) image.getWidth() * size / largestSide));
+        int height = Math.max(1, (int) Math.round((double) image.getHeight() * size / largestSide));
+        BufferedImage current = image;
+        do {
+            int stepWidth = Math.max(width, current.getWidth() / 2);
+            int stepHeight = Math.max(height, current.getHeight() / 2);
+            if (current.getWidth() <= 2 * width && current.getHeight() <= 2 * height) {
+                stepWidth = width;
+                stepHeight = height;
+            }
+            BufferedImage step = new BufferedImage(stepWidth, stepHeight, opaque ? BufferedImage.TYPE_INT_RGB
+                    : BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = step.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(current, 0, 0, stepWidth, stepHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = step;
+        } while (current.getWidth() != width || current.getHeight() != height);
+        return current;
+    }
+
+    private void addDerivative(Collection<FileSet> derivatives, BufferedImage image, File file, String format,
+            String derivative) throws IOException {
+        if (!ImageIO.write(image, format, file)) {
+            throw new IOException("No image writer for " + format);
+        }
+        FileSet derivativeSet = new FileSet(file);
+        if (extendedMetaInfo) {
+            derivativeSet.addMetaInfo(new FileSetMetaData(DERIVATIVE_ELEMENT, null, null, derivative));
+        }
+        derivativeSet.addMetaInfo(FileSetMetaData.createWidthMeta(image.getWidth()));
+        derivativeSet.addMetaInfo(FileSetMetaData.createHeightMeta(image.getHeight()));
+        SimpleFileSetFilter.addFormatMetaInfo(derivativeSet, file.getName(), file.length());
+        derivatives.add(derivativeSet);
+    }
+
+}
@@ -0,0 +1,21 @@
+package pt.utl.ist.fenix.tools.file.filters;
+
+public class ImageTooLargeFileSetFilterException extends FileSetFilterException {
+
+    public ImageTooLargeFileSetFilterException() {
+        super();
+    }
+
+    public ImageTooLargeFileSetFilterException(String message) {
+        super(message);
+    }
+
+    public ImageTooLargeFileSetFilterException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ImageTooLargeFileSetFilterException(Throwable cause) {
+        super(cause);
+    }
+
+}
@@ -21,12 +21,20 @@ public class SimpleFileSetFilter extends RecursiveFileSetFilter {
         if (supposedFiles != null && supposedFiles.size() != 0) {
             File supposedFile = supposedFiles.toArray(new File[0])[0];
             if (supposedFile.exists() && supposedFile.canRead()) {
-                String findByFileName = MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(supposedFile.getName());
-                String mimeType = (findByFileName == null) ? "application/octet-stream" : findByFileName;
-                leveledFs.addMetaInfo(new FileSetMetaData("format", "extent", null, "" + supposedFile.length()));
-                leveledFs.addMetaInfo(new FileSetMetaData("format", "mimetype", null, mimeType));
+                addFormatMetaInfo(leveledFs, supposedFile.getName(), supposedFile.length());
             }
         }
     }
 
+    /**
+     * Adds the same format metadata this filter infers from a file on disk, for
+     * content that is uploaded without ever being stored locally.
+     */
+    public static void addFormatMetaInfo(FileSet fileSet, String filename, long length) {
+        String findByFileName = MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(filename);
+        String mimeType = (findByFileName == null) ? "application/octet-stream" : findByFileName;
+        fileSet.addMetaInfo(new FileSetMetaData("format", "extent", null, "" + length));
+        fileSet.addMetaInfo(new FileSetMetaData("format", "mimetype", null, mimeType));
+    }
+
 }
@@ -3,23 +3,70 @@
  */
 package pt.utl.ist.fenix.tools.file.filters;
 
-import java.awt.image.BufferedImage;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+
+import org.w3c.dom.Node;
 
 import pt.utl.ist.fenix.tools.file.FileSet;
 import pt.utl.ist.fenix.tools.file.FileSetMetaData;
 
 /**
  * An example class to extract meta info from Gif FileSets
+ * <p>
+ * The image is only probed through an {@link ImageReader}, which reads the
+ * dimensions, the colour model and the metadata from the headers of the file
+ * without decoding its pixels. Images with more pixels than
+ * {@link #getMaxPixels()} are rejected.
+ * <p>
+ * Only the width and height are added by default. The format, colour,
+ * resolution and orientation of the image are only added when the
+ * {@link #EXTENDED_META_INFO_PARAM} system property is true, as the DSpace
+ * server must have the format.image, color.space, color.depth, color.count,
+ * orientation, resolution.horizontal and resolution.vertical elements
+ * registered in its metadata registry to accept them.
  * 
  * @author José Pedro Pereira - Linkare TI
  */
 public class SimpleImageFileSetFilter implements FileSetFilter {
 
+    /**
+     * System property with the largest number of pixels accepted in an image.
+     * 0 or less accepts any image.
+     */
+    public static final String MAX_PIXELS_PARAM = "file.filter.image.max.pixels";
+
+    public static final long DEFAULT_MAX_PIXELS = 100L * 1000 * 1000;
+
+    /**
+     * System property that makes the image filters add the meta info elements
+     * that are not in the default DSpace metadata registry - true or false
+     */
+    public static final String EXTENDED_META_INFO_PARAM = "file.filter.image.extended.metadata";
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private static final int EXIF_MARKER = 0xE1;
+
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    private static volatile long maxPixels = Long.getLong(MAX_PIXELS_PARAM, DEFAULT_MAX_PIXELS);
+
+    private final boolean extendedMetaInfo = Boolean.getBoolean(EXTENDED_META_INFO_PARAM);
+
     /**
 	 * 
 	 */
@@ -27,6 +74,36 @@ public class SimpleImageFileSetFilter implements FileSetFilter {
         super();
     }
 
+    /**
+     * @return the largest number of pixels accepted in an image, 0 or less if
+     *         there is no limit
+     */
+    public static long getMaxPixels() {
+        return maxPixels;
+    }
+
+    /**
+     * @param maxPixels
+     *            the largest number of pixels accepted in an image, 0 or less
+     *            for no limit
+     */
+    public static void setMaxPixels(long maxPixels) {
+        SimpleImageFileSetFilter.maxPixels = maxPixels;
+    }
+
+    public static void checkPixels(String filename, int width, int height) throws ImageTooLargeFileSetFilterException {
+        long limit = maxPixels;
+        if (limit > 0 && (long) width * height > limit) {
+            throw new ImageTooLargeFileSetFilterException(filename + " has " + width + "x" + height
+                    + " pixels, more than the " + limit + " accepted");
+        }
+    }
+
+    static boolean isReadableImage(File file) {
+        return file.exists() && file.canRead()
+                && (file.getName().endsWith(".gif") || file.getName().endsWith(".jpg") || file.getName().endsWith(".png"));
+    }
+
     /* (non-Javadoc)
      * @see pt.utl.ist.fenix.tools.file.filters.FileSetFilter#handleFileSet(pt.utl.ist.fenix.tools.file.FileSet)
      */
@@ -35,23 +112,169 @@ public class SimpleImageFileSetFilter implements FileSetFilter {
         Collection<File> supposedGifFiles = fs.getContentFiles();
         if (supposedGifFiles != null && supposedGifFiles.size() != 0) {
             File supposedGifFile = supposedGifFiles.toArray(new File[0])[0];
-            if (supposedGifFile.exists()
-                    && supposedGifFile.canRead()
-                    && (supposedGifFile.getName().endsWith(".gif") || supposedGifFile.getName().endsWith(".jpg") || supposedGifFile
-                            .getName().endsWith(".png"))) {
-                BufferedImage bfImage;
+            if (isReadableImage(supposedGifFile)) {
+                probeImage(fs, supposedGifFile);
+            }
+
+        }
+    }
+
+    private void probeImage(FileSet fs, File file) throws FileSetFilterException {
+        ImageInputStream iis = null;
+        ImageReader reader = null;
+        try {
+            iis = ImageIO.createImageInputStream(file);
+            Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+            if (readers == null || !readers.hasNext()) {
+                throw new ParseFileSetFilterException("No image reader for " + file.getAbsolutePath());
+            }
+            reader = readers.next();
+            reader.setInput(iis, true, false);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            checkPixels(file.getName(), width, height);
+            fs.addMetaInfo(FileSetMetaData.createWidthMeta(width));
+            fs.addMetaInfo(FileSetMetaData.createHeightMeta(height));
+            if (!extendedMetaInfo) {
+                return;
+            }
+            fs.addMetaInfo(new FileSetMetaData("format", "image", null, reader.getFormatName().toLowerCase()));
+            try {
+                addColorMetaInfo(fs, reader.getRawImageType(0));
+                addResolutionAndOrientationMetaInfo(fs, reader.getImageMetadata(0));
+            } catch (IOException e) {
+                // the remaining meta info is optional, the image may still
+                // be decoded without it
+            }
+        } catch (IOException e) {
+            throw new IOFileSetFilterException(e);
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            if (iis != null) {
                 try {
-                    bfImage = ImageIO.read(supposedGifFile);
-                } catch (IOException e) {
-                    throw new IOFileSetFilterException(e);
+                    iis.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void addColorMetaInfo(FileSet fs, ImageTypeSpecifier imageType) {
+        if (imageType == null) {
+            return;
+        }
+        ColorModel colorModel = imageType.getColorModel();
+        fs.addMetaInfo(new FileSetMetaData("color", "space", null, getColorSpaceName(colorModel.getColorSpace())));
+        fs.addMetaInfo(new FileSetMetaData("color", "depth", null, "" + colorModel.getPixelSize()));
+        if (colorModel instanceof IndexColorModel) {
+            fs.addMetaInfo(new FileSetMetaData("color", "count", null, "" + ((IndexColorModel) colorModel).getMapSize()));
+        }
+    }
+
+    private static String getColorSpaceName(ColorSpace colorSpace) {
+        switch (colorSpace.getType()) {
+        case ColorSpace.TYPE_RGB:
+            return "RGB";
+        case ColorSpace.TYPE_GRAY:
+            return "GRAY";
+        case ColorSpace.TYPE_CMYK:
+            return "CMYK";
+        case ColorSpace.TYPE_YCbCr:
+            return "YCbCr";
+        default:
+            return "" + colorSpace.getType();
+        }
+    }
+
+    private void addResolutionAndOrientationMetaInfo(FileSet fs, IIOMetadata metadata) {
+        if (metadata == null) {
+            return;
+        }
+        if (metadata.isStandardMetadataFormatSupported()) {
+            Node standard = metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+            addResolutionMetaInfo(fs, "horizontal", findChild(findChild(standard, "Dimension"), "HorizontalPixelSize"));
+            addResolutionMetaInfo(fs, "vertical", findChild(findChild(standard, "Dimension"), "VerticalPixelSize"));
+        }
+        if (JPEG_METADATA_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+            Node markers = findChild(metadata.getAsTree(JPEG_METADATA_FORMAT), "markerSequence");
+            for (Node node = markers == null ? null : markers.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if ("unknown".equals(node.getNodeName()) && ("" + EXIF_MARKER).equals(getAttribute(node, "MarkerTag"))) {
+                    int orientation = readExifOrientation((byte[]) ((IIOMetadataNode) node).getUserObject());
+                    if (orientation > 0) {
+                        fs.addMetaInfo(new FileSetMetaData("orientation", null, null, "" + orientation));
+                    }
+                    break;
                 }
-                fs.addMetaInfo(FileSetMetaData.createWidthMeta(bfImage.getWidth()));
-                fs.addMetaInfo(FileSetMetaData.createHeightMeta(bfImage.getHeight()));
-                //TODO - Some more meta info may be extracted from this files,
-                //as its pixel size, number of colors, etc...
             }
+        }
+    }
+
+    /**
+     * The standard metadata gives the size of a pixel in millimeters.
+     */
+    private void addResolutionMetaInfo(FileSet fs, String qualifier, Node pixelSize) {
+        String value = getAttribute(pixelSize, "value");
+        if (value != null) {
+            float millimeters = Float.parseFloat(value);
+            if (millimeters > 0) {
+                fs.addMetaInfo(new FileSetMetaData("resolution", qualifier, null, "" + Math.round(25.4f / millimeters)));
+            }
+        }
+    }
+
+    private static Node findChild(Node node, String name) {
+        for (Node child = node == null ? null : node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (name.equals(child.getNodeName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private static String getAttribute(Node node, String name) {
+        Node attribute = node == null || node.getAttributes() == null ? null : node.getAttributes().getNamedItem(name);
+        return attribute == null ? null : attribute.getNodeValue();
+    }
+
+    /**
+     * Looks for the orientation tag in the first directory of the TIFF
+     * structure of an EXIF segment.
+     * 
+     * @return the orientation, from 1 to 8, or 0 if the segment has none
+     */
+    private static int readExifOrientation(byte[] exif) {
+        final int tiff = 6;
+        if (exif == null || exif.length < tiff + 8 || exif[0] != 'E' || exif[1] != 'x' || exif[2] != 'i' || exif[3] != 'f') {
+            return 0;
+        }
+        boolean littleEndian = exif[tiff] == 'I';
+        long directory = tiff + readUnsigned(exif, tiff + 4, 4, littleEndian);
+        if (directory + 2 > exif.length) {
+            return 0;
+        }
+        int entries = (int) readUnsigned(exif, (int) directory, 2, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) directory + 2 + i * 12;
+            if (entry + 12 > exif.length) {
+                break;
+            }
+            if (readUnsigned(exif, entry, 2, littleEndian) == EXIF_ORIENTATION_TAG) {
+                int orientation = (int) readUnsigned(exif, entry + 8, 2, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : 0;
+            }
+        }
+        return 0;
+    }
 
+    private static long readUnsigned(byte[] b, int offset, int length, boolean littleEndian) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            int index = littleEndian ? offset + length - 1 - i : offset + i;
+            value = (value << 8) | (b[index] & 0xff);
         }
+        return value;
     }
 
 }
@@ -6,18 +6,42 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import pt.utl.ist.fenix.tools.file.FileSet;
+import pt.utl.ist.fenix.tools.file.ZipEntryFile;
 import pt.utl.ist.fenix.tools.file.utils.FileUtils;
 
+/**
+ * Adds a child file set for each file of a zip archive.
+ * <p>
+ * By default the archive is only indexed through its central directory: the
+ * children refer to its entries as {@link ZipEntryFile}s, which are read from
+ * the archive when they are uploaded. When the {@link #EXTRACT_PARAM} system
+ * property is true, the archive is extracted to a temporary directory instead.
+ */
 public class ZipFileSetFilter implements FileSetFilter {
 
+    /**
+     * System property that makes the filter extract the archive - true or
+     * false
+     */
+    public static final String EXTRACT_PARAM = "file.filter.zip.extract";
+
+    private final boolean extract = Boolean.getBoolean(EXTRACT_PARAM);
+
     public ZipFileSetFilter() {
         super();
     }
 
     @Override
     public void handleFileSet(FileSet fs) throws FileSetFilterException {
+        if (!extract) {
+            indexZipFile(fs, fs.getContentFiles().iterator().next());
+            return;
+        }
         File dir;
         try {
             dir = unzipFile(fs.getContentFiles().iterator().next());
@@ -27,6 +51,57 @@ public class ZipFileSetFilter implements FileSetFilter {
         }
     }
 
+    /**
+     * The archive stays where it is, so the entries are seen as if it was
+     * extracted to its own directory.
+     */
+    protected void indexZipFile(FileSet fs, File zipFile) throws FileSetFilterException {
+        ZipFile zip;
+        try {
+            zip = new ZipFile(zipFile);
+        } catch (IOException e) {
+            throw new IOFileSetFilterException(e);
+        }
+        ZipEntryFile.Archive archive = new ZipEntryFile.Archive(zipFile);
+        try {
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (!isContainedEntryName(entry.getName())) {
+                    throw new ParseFileSetFilterException("The entry " + entry.getName() + " of " + zipFile.getAbsolutePath()
+                            + " is outside of the archive");
+                }
+                fs.addChildSet(new FileSet(new ZipEntryFile(archive, entry)));
+            }
+        } finally {
+            try {
+                zip.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Rejects absolute names, with or without a drive such as C:, and names
+     * that climb out of the archive. Other colons are valid in a name.
+     */
+    private static boolean isContainedEntryName(String name) {
+        if (name.startsWith("/") || name.startsWith("\\")) {
+            return false;
+        }
+        if (name.length() >= 2 && name.charAt(1) == ':' && Character.isLetter(name.charAt(0))) {
+            return false;
+        }
+        for (String segment : name.split("[/\\\\]")) {
+            if (segment.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private File unzipFile(File file) throws IOException {
 
         return FileUtils.unzipFile(file);
@@ -4,10 +4,13 @@ import java.io.File;
 import java.io.IOException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
 
 import pt.utl.ist.fenix.tools.file.FileSet;
 import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
 import pt.utl.ist.fenix.tools.file.VirtualPath;
+import pt.utl.ist.fenix.tools.file.dspace.FileSetBatchResult;
 import pt.utl.ist.fenix.tools.file.dspace.FileSetDeleteException;
 import pt.utl.ist.fenix.tools.file.dspace.FileSetDeleteRequest;
 import pt.utl.ist.fenix.tools.file.dspace.FileSetPermissionChangeException;
@@ -60,6 +63,70 @@ public abstract class AbstractRemoteFileSetManager implements IRemoteFileSetMana
         }
     }
 
+    /*
+     * The batched operations default to running the single operations on the
+     * server side, which already saves a round trip per descriptor.
+     * Implementations that can do better should override them.
+     */
+
+    @Override
+    public List<FileSetBatchResult> deleteFileSets(List<FileSetDescriptor> descriptors, String username, String password)
+            throws RemoteException {
+        List<FileSetBatchResult> results = new ArrayList<FileSetBatchResult>(descriptors.size());
+        for (FileSetDescriptor descriptor : descriptors) {
+            try {
+                deleteFileSet(descriptor, username, password);
+                results.add(new FileSetBatchResult((FileSetDescriptor) null));
+            } catch (RemoteException e) {
+                results.add(new FileSetBatchResult(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<FileSetBatchResult> changeFileSetsPermissions(List<FileSetDescriptor> descriptors, boolean privateFile,
+            String username, String password) throws RemoteException {
+        List<FileSetBatchResult> results = new ArrayList<FileSetBatchResult>(descriptors.size());
+        for (FileSetDescriptor descriptor : descriptors) {
+            try {
+                changeFileSetPermissions(descriptor, privateFile, username, password);
+                results.add(new FileSetBatchResult((FileSetDescriptor) null));
+            } catch (RemoteException e) {
+                results.add(new FileSetBatchResult(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<FileSetBatchResult> listRecursiveFromRoots(List<FileSetDescriptor> descriptors, String username,
+            String password) throws RemoteException {
+        List<FileSetBatchResult> results = new ArrayList<FileSetBatchResult>(descriptors.size());
+        for (FileSetDescriptor descriptor : descriptors) {
+            try {
+                results.add(new FileSetBatchResult(listRecursiveFromRoot(descriptor, username, password)));
+            } catch (RemoteException e) {
+                results.add(new FileSetBatchResult(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<FileSetBatchResult> getRootDescriptors(List<FileSetDescriptor> innerChildDescriptors, String username,
+            String password) throws RemoteException {
+        List<FileSetBatchResult> results = new ArrayList<FileSetBatchResult>(innerChildDescriptors.size());
+        for (FileSetDescriptor descriptor : innerChildDescriptors) {
+            try {
+                results.add(new FileSetBatchResult(getRootDescriptor(descriptor, username, password)));
+            } catch (RemoteException e) {
+                results.add(new FileSetBatchResult(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
     @Override
     public IRemoteFile getBaseRemoteDir(String username, String password) throws RemoteException {
         RemoteFileImpl remoteFileImpl;
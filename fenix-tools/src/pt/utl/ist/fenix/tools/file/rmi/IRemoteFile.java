@@ -46,6 +46,35 @@ public interface IRemoteFile extends Remote {
 
     public IRemoteInputStream getInputStream() throws RemoteException;
 
+    /*
+     * The following methods address a file relative to the root of this
+     * handle and leave the current file unchanged, so they may be called
+     * concurrently for different files.
+     */
+
+    public String getAbsolutePath(String relativePath) throws RemoteException;
+
+    /**
+     * Creates the file, and its parent directories, and opens it for writing
+     */
+    public IRemoteOutputStream createOutputStream(String relativePath) throws RemoteException;
+
+    public IRemoteInputStream getInputStream(String relativePath) throws RemoteException;
+
+    /**
+     * @param compress whether the client accepts compressed chunks. The
+     *            server compresses them only if it also allows it and the
+     *            file is not of a format that is already compressed.
+     * @see IRemoteInputStream#readChunk(long, int)
+     */
+    public IRemoteInputStream getInputStream(String relativePath, boolean compress) throws RemoteException;
+
+    /**
+     * Opens an existing file to write after its current content, to resume an
+     * interrupted upload
+     */
+    public IRemoteOutputStream resumeOutputStream(String relativePath) throws RemoteException;
+
     public String[] list() throws RemoteException;
 
     public String[] list(SerializableFilenameFilter filter) throws RemoteException;
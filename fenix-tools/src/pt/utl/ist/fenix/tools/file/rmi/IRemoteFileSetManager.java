@@ -5,12 +5,14 @@ package pt.utl.ist.fenix.tools.file.rmi;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 import pt.utl.ist.fenix.tools.file.FileSet;
 import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
 import pt.utl.ist.fenix.tools.file.FileSetQueryResults;
 import pt.utl.ist.fenix.tools.file.FilesetMetadataQuery;
 import pt.utl.ist.fenix.tools.file.VirtualPath;
+import pt.utl.ist.fenix.tools.file.dspace.FileSetBatchResult;
 import pt.utl.ist.fenix.tools.file.dspace.FileSetDeleteException;
 import pt.utl.ist.fenix.tools.file.dspace.FileSetPermissionChangeException;
 import pt.utl.ist.fenix.tools.file.dspace.FileSetUploadException;
@@ -43,6 +45,23 @@ public interface IRemoteFileSetManager extends Remote {
     public FileSetDescriptor listRecursiveFromRoot(FileSetDescriptor descriptor, String username, String password)
             throws RemoteException;
 
+    /*
+     * Batched operations: each one is a single remote call, answering one
+     * result per descriptor in the same order
+     */
+
+    public List<FileSetBatchResult> deleteFileSets(List<FileSetDescriptor> descriptors, String username, String password)
+            throws RemoteException;
+
+    public List<FileSetBatchResult> changeFileSetsPermissions(List<FileSetDescriptor> descriptors, boolean privateFile,
+            String username, String password) throws RemoteException;
+
+    public List<FileSetBatchResult> listRecursiveFromRoots(List<FileSetDescriptor> descriptors, String username,
+            String password) throws RemoteException;
+
+    public List<FileSetBatchResult> getRootDescriptors(List<FileSetDescriptor> innerChildDescriptors, String username,
+            String password) throws RemoteException;
+
     /**
      * @return A remote temporary directory handle
      */
@@ -7,6 +7,40 @@ public interface IRemoteInputStream extends Remote {
 
     public int read() throws RemoteException;
 
+    /**
+     * Reads a block of bytes in a single remote call, blocking until at least
+     * one byte is available.
+     * 
+     * @param maxLen the maximum number of bytes to return. Implementations may
+     *            return fewer, even if the stream has not ended.
+     * @return the bytes read, or null if the end of the stream was reached
+     */
+    public byte[] read(int maxLen) throws RemoteException;
+
+    /**
+     * Reads a block of bytes starting at the given position of the file, and
+     * continues from there. As the position is explicit, a read whose answer
+     * was lost may simply be repeated.
+     * 
+     * @return the bytes read, or null if the position is at the end of the
+     *         file
+     */
+    public byte[] read(long position, int maxLen) throws RemoteException;
+
+    /**
+     * Same as {@link #read(long, int)}, but the block is compressed when the
+     * stream was opened with compression and the block compresses well.
+     * 
+     * @return the block, or null if the position is at the end of the file
+     */
+    public StreamChunk readChunk(long position, int maxLen) throws RemoteException;
+
+    /**
+     * @return the hexadecimal {@link StreamChecksum#ALGORITHM} checksum of the
+     *         whole file
+     */
+    public String getChecksum() throws RemoteException;
+
     public int available() throws RemoteException;
 
     public void close() throws RemoteException;
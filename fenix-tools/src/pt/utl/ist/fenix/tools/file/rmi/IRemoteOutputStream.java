@@ -41,6 +41,44 @@ public interface IRemoteOutputStream extends Remote {
      */
     public void write(int b) throws RemoteException;
 
+    /**
+     * Writes one chunk of a pipelined upload. Chunks may arrive in any order
+     * and concurrently, they are written in the order of their sequence
+     * numbers, which start at 0. Must not be mixed with the other write
+     * methods.
+     * 
+     * @param sequence The position of this chunk in the upload
+     * @param b The whole chunk
+     * @throws RemoteException If a comm exception or an underlying IOException occurs
+     */
+    public void write(long sequence, byte[] b) throws RemoteException;
+
+    /**
+     * Same as {@link #write(long, byte[])}, for a chunk that may be compressed
+     * 
+     * @param sequence The position of this chunk in the upload
+     * @param chunk The whole chunk
+     * @throws RemoteException If a comm exception or an underlying IOException occurs
+     */
+    public void write(long sequence, StreamChunk chunk) throws RemoteException;
+
+    /**
+     * @return The number of bytes written to the file so far, from where an
+     *         interrupted upload may be resumed
+     * @throws RemoteException
+     */
+    public long length() throws RemoteException;
+
+    /**
+     * Closes the stream and checks the content of the file. If it does not
+     * match, the file is deleted.
+     * 
+     * @param checksum The hexadecimal {@link StreamChecksum#ALGORITHM} checksum of the
+     *            whole content sent, or null to skip the check
+     * @throws RemoteException If the content does not match, or an underlying IOException occurs
+     */
+    public void close(String checksum) throws RemoteException;
+
     /**
      * @see java.io.FilterOutputStream#close()
      * @throws RemoteException
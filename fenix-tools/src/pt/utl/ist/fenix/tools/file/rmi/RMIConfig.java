@@ -5,12 +5,15 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.rmi.AlreadyBoundException;
 import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnmarshalException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.RMIClientSocketFactory;
@@ -24,6 +27,9 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -31,6 +37,8 @@ import javax.naming.NamingException;
 import javax.net.ServerSocketFactory;
 import javax.net.SocketFactory;
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManagerFactory;
 
 import pt.utl.ist.fenix.tools.file.utils.FileUtils;
@@ -103,6 +111,45 @@ public class RMIConfig {
 
     public static final String REMOTE_STREAM_BUFFER_BLOCK_PARAM = "rmi.stream.bytes.block";
 
+    /**
+     * The minimum number of bytes fetched by each remote call of a
+     * {@link RemoteFileInputStream}
+     */
+    public static final String REMOTE_STREAM_READ_AHEAD_PARAM = "rmi.stream.readahead";
+
+    /**
+     * The size of the chunks sent by a pipelined {@link RemoteFileOutputStream}
+     */
+    public static final String REMOTE_STREAM_CHUNK_PARAM = "rmi.stream.chunk";
+
+    /**
+     * The number of chunks a pipelined {@link RemoteFileOutputStream} keeps
+     * in flight. 1 or less disables pipelining.
+     */
+    public static final String REMOTE_STREAM_WINDOW_PARAM = "rmi.stream.window";
+
+    /**
+     * The number of files of a file set transferred at the same time. 1 or
+     * less transfers them one after the other.
+     */
+    public static final String REMOTE_TRANSFER_THREADS_PARAM = "rmi.transfer.threads";
+
+    /**
+     * Whether the chunks of remote streams may be compressed - true or false
+     */
+    public static final String REMOTE_STREAM_COMPRESSION_PARAM = "rmi.stream.compression";
+
+    /**
+     * The number of SSL sessions kept by each SSL context for resumption. 0
+     * means no limit.
+     */
+    public static final String RMI_SSL_SESSION_CACHE_SIZE_PARAM = "rmi.ssl.session.cache.size";
+
+    /**
+     * How long an SSL session may be resumed - seconds. 0 means no limit.
+     */
+    public static final String RMI_SSL_SESSION_TIMEOUT_PARAM = "rmi.ssl.session.timeout";
+
     /**
      * By default the servlet will start an rmi registry
      */
@@ -154,6 +201,37 @@ public class RMIConfig {
 
     public static final int DEFAULT_REMOTE_STREAM_BUFFER_BLOCK_PARAM = 512;
 
+    public static final int DEFAULT_REMOTE_STREAM_READ_AHEAD_PARAM = 64 * 1024;
+
+    public static final int DEFAULT_REMOTE_STREAM_CHUNK_PARAM = 1024 * 1024;
+
+    public static final int DEFAULT_REMOTE_STREAM_WINDOW_PARAM = 4;
+
+    public static final int DEFAULT_REMOTE_TRANSFER_THREADS_PARAM = 4;
+
+    public static final boolean DEFAULT_REMOTE_STREAM_COMPRESSION_PARAM = true;
+
+    public static final int DEFAULT_RMI_SSL_SESSION_CACHE_SIZE_PARAM = 1000;
+
+    public static final int DEFAULT_RMI_SSL_SESSION_TIMEOUT_PARAM = 60 * 60;
+
+    // the SSL contexts built from each key store, shared by all the socket
+    // factories so that their sessions can be resumed. They are keyed by the
+    // location of the key store and a digest of its password
+    private static final ConcurrentMap<String, CachedSSLContext> sslContexts =
+            new ConcurrentHashMap<String, CachedSSLContext>();
+
+    private static class CachedSSLContext {
+        private final long lastModified;
+
+        private final SSLContext context;
+
+        private CachedSSLContext(long lastModified, SSLContext context) {
+            this.lastModified = lastModified;
+            this.context = context;
+        }
+    }
+
     // hide the constructor to enable the singleton pattern
     private RMIConfig() {
 
@@ -184,6 +262,98 @@ public class RMIConfig {
 
     private boolean startRMIRegistry = DEFAULT_START_RMI_REGISTRY_PARAM;
 
+    private boolean streamCompression = DEFAULT_REMOTE_STREAM_COMPRESSION_PARAM;
+
+    private int sslSessionCacheSize = DEFAULT_RMI_SSL_SESSION_CACHE_SIZE_PARAM;
+
+    private int sslSessionTimeout = DEFAULT_RMI_SSL_SESSION_TIMEOUT_PARAM;
+
+    private final AtomicLong clientConnections = new AtomicLong();
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    /**
+     * @return the number of SSL sessions kept for resumption
+     */
+    public int getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    /**
+     * @param sslSessionCacheSize
+     *            the number of SSL sessions kept for resumption, 0 for no
+     *            limit. Only applies to the SSL contexts built afterwards.
+     */
+    public void setSslSessionCacheSize(int sslSessionCacheSize) {
+        this.sslSessionCacheSize = sslSessionCacheSize;
+    }
+
+    /**
+     * @return how long an SSL session may be resumed, in seconds
+     */
+    public int getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
+
+    /**
+     * @param sslSessionTimeout
+     *            how long an SSL session may be resumed, in seconds, 0 for no
+     *            limit. Only applies to the SSL contexts built afterwards.
+     */
+    public void setSslSessionTimeout(int sslSessionTimeout) {
+        this.sslSessionTimeout = sslSessionTimeout;
+    }
+
+    /**
+     * @return the number of connections opened by the client socket factory.
+     *         RMI reuses its connections between calls, so this grows much
+     *         slower than the number of remote calls.
+     */
+    public long getClientConnectionCount() {
+        return clientConnections.get();
+    }
+
+    /**
+     * @return the number of client SSL handshakes that negotiated a new
+     *         session
+     */
+    public long getFullHandshakeCount() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * @return the number of client SSL handshakes that resumed a previous
+     *         session
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.get();
+    }
+
+    void countClientConnection() {
+        clientConnections.incrementAndGet();
+    }
+
+    void countHandshake(boolean resumed) {
+        (resumed ? resumedHandshakes : fullHandshakes).incrementAndGet();
+    }
+
+    /**
+     * @return whether the chunks of remote streams may be compressed
+     */
+    public boolean isStreamCompression() {
+        return streamCompression;
+    }
+
+    /**
+     * @param streamCompression
+     *            whether the chunks of remote streams may be compressed
+     */
+    public void setStreamCompression(boolean streamCompression) {
+        this.streamCompression = streamCompression;
+    }
+
     /**
      * @return the startRMIRegistry
      */
@@ -353,35 +523,83 @@ public class RMIConfig {
     public static SocketFactory loadClientSSLSocketFactory(String trustStoreLocation, String trustStorePassword)
             throws NoSuchAlgorithmException, KeyStoreException, CertificateException, FileNotFoundException, IOException,
             UnrecoverableKeyException, KeyManagementException {
-        javax.net.ssl.KeyManagerFactory kmf;
-        KeyStore ks;
-        javax.net.ssl.TrustManagerFactory tmf;
-        kmf = javax.net.ssl.KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-        ks = KeyStore.getInstance(KeyStore.getDefaultType());
-        ks.load(new FileInputStream(trustStoreLocation), trustStorePassword.toCharArray());
-        kmf.init(ks, trustStorePassword.toCharArray());
-        tmf = javax.net.ssl.TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-        tmf.init(ks);
-        javax.net.ssl.SSLContext sslc = javax.net.ssl.SSLContext.getInstance("SSL");
-        sslc.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
-        return sslc.getSocketFactory();
+        return getSSLContext(trustStoreLocation, trustStorePassword).getSocketFactory();
     }
 
     public static ServerSocketFactory loadServerSSLSocketFactory(String keyStoreLocation, String keyStorePassword)
             throws NoSuchAlgorithmException, KeyStoreException, CertificateException, FileNotFoundException, IOException,
             UnrecoverableKeyException, KeyManagementException {
+        return getSSLContext(keyStoreLocation, keyStorePassword).getServerSocketFactory();
+    }
+
+    /**
+     * The SSL context of a key store is only built again when the key store
+     * file changes, and then replaces the one built from the previous version.
+     */
+    private static SSLContext getSSLContext(String keyStoreLocation, String keyStorePassword)
+            throws NoSuchAlgorithmException, KeyStoreException, CertificateException, FileNotFoundException, IOException,
+            UnrecoverableKeyException, KeyManagementException {
+        String key = keyStoreLocation + "|" + digest(keyStorePassword);
+        long lastModified = new File(keyStoreLocation).lastModified();
+        CachedSSLContext cached = sslContexts.get(key);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.context;
+        }
+        CachedSSLContext created = new CachedSSLContext(lastModified, createSSLContext(keyStoreLocation, keyStorePassword));
+        boolean stored =
+                cached == null ? sslContexts.putIfAbsent(key, created) == null : sslContexts.replace(key, cached, created);
+        if (!stored) {
+            // another thread got there first, share its context if it was built
+            // from the same version of the key store
+            CachedSSLContext current = sslContexts.get(key);
+            if (current != null && current.lastModified == lastModified) {
+                return current.context;
+            }
+        }
+        return created.context;
+    }
+
+    private static String digest(String password) {
+        StreamChecksum checksum = new StreamChecksum();
+        byte[] bytes;
+        try {
+            bytes = password.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        checksum.update(bytes, 0, bytes.length);
+        return checksum.getChecksum();
+    }
+
+    private static SSLContext createSSLContext(String keyStoreLocation, String keyStorePassword)
+            throws NoSuchAlgorithmException, KeyStoreException, CertificateException, FileNotFoundException, IOException,
+            UnrecoverableKeyException, KeyManagementException {
         javax.net.ssl.KeyManagerFactory kmf;
         KeyStore ks;
         javax.net.ssl.TrustManagerFactory tmf;
         kmf = javax.net.ssl.KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
         ks = KeyStore.getInstance(KeyStore.getDefaultType());
-        ks.load(new FileInputStream(keyStoreLocation), keyStorePassword.toCharArray());
+        InputStream is = new FileInputStream(keyStoreLocation);
+        try {
+            ks.load(is, keyStorePassword.toCharArray());
+        } finally {
+            is.close();
+        }
         kmf.init(ks, keyStorePassword.toCharArray());
         tmf = javax.net.ssl.TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
         tmf.init(ks);
-        javax.net.ssl.SSLContext sslc = javax.net.ssl.SSLContext.getInstance("SSL");
+        SSLContext sslc = SSLContext.getInstance("SSL");
         sslc.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
-        return sslc.getServerSocketFactory();
+        configureSessions(sslc.getClientSessionContext());
+        configureSessions(sslc.getServerSessionContext());
+        return sslc;
+    }
+
+    private static void configureSessions(SSLSessionContext sessions) {
+        if (sessions != null) {
+            sessions.setSessionCacheSize(getInstance().getSslSessionCacheSize());
+            sessions.setSessionTimeout(getInstance().getSslSessionTimeout());
+        }
     }
 
     public void initializeSocketFactories() {
@@ -476,6 +694,15 @@ public class RMIConfig {
         UnicastRemoteObject.unexportObject(obj, true);
     }
 
+    /**
+     * @return whether the remote object could not read the call, which is what
+     *         happens when it runs an older version of its interface that does
+     *         not have the method called
+     */
+    public static boolean isUnknownMethod(RemoteException e) {
+        return e instanceof ServerException && e.getCause() instanceof UnmarshalException;
+    }
+
     /**
      * @return the sslTrustStore
      */
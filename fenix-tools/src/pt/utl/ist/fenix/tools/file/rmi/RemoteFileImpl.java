@@ -160,6 +160,46 @@ public class RemoteFileImpl implements IRemoteFile {
         return (IRemoteInputStream) RMIConfig.getInstance().exportObject(streamIn);
     }
 
+    @Override
+    public String getAbsolutePath(String relativePath) throws RemoteException {
+        return new File(this.rootFile, relativePath).getAbsolutePath();
+    }
+
+    @Override
+    public IRemoteOutputStream createOutputStream(String relativePath) throws RemoteException {
+        File file = new File(this.rootFile, relativePath);
+        try {
+            file.getParentFile().mkdirs();
+            file.createNewFile();
+        } catch (IOException e) {
+            throw new RemoteException(e.getMessage(), e);
+        }
+        RemoteOutputStreamImpl streamOut = new RemoteOutputStreamImpl(this, file);
+        RemoteStreamHandlerFactory.manageStream(streamOut);
+        return (IRemoteOutputStream) RMIConfig.getInstance().exportObject(streamOut);
+    }
+
+    @Override
+    public IRemoteOutputStream resumeOutputStream(String relativePath) throws RemoteException {
+        RemoteOutputStreamImpl streamOut = new RemoteOutputStreamImpl(this, new File(this.rootFile, relativePath), true);
+        RemoteStreamHandlerFactory.manageStream(streamOut);
+        return (IRemoteOutputStream) RMIConfig.getInstance().exportObject(streamOut);
+    }
+
+    @Override
+    public IRemoteInputStream getInputStream(String relativePath) throws RemoteException {
+        return getInputStream(relativePath, false);
+    }
+
+    @Override
+    public IRemoteInputStream getInputStream(String relativePath, boolean compress) throws RemoteException {
+        File file = new File(this.rootFile, relativePath);
+        compress = compress && RMIConfig.getInstance().isStreamCompression() && StreamCompression.isCompressible(file.getName());
+        RemoteInputStreamImpl streamIn = new RemoteInputStreamImpl(this, file, compress);
+        RemoteStreamHandlerFactory.manageStream(streamIn);
+        return (IRemoteInputStream) RMIConfig.getInstance().exportObject(streamIn);
+    }
+
     @Override
     public String[] list() throws RemoteException {
         return delegate.list();
@@ -2,13 +2,163 @@ package pt.utl.ist.fenix.tools.file.rmi;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
 
+/**
+ * Reads a remote file in blocks of at least the read ahead length, so that
+ * small reads are served from a local buffer instead of costing a remote call
+ * each.
+ * <p>
+ * Each block is read from an explicit position, so a block whose answer was
+ * lost on the way is read again from the same position. When the end of the
+ * file is reached, the checksum of everything read is compared with the one
+ * of the remote file.
+ * <p>
+ * The blocks arrive compressed when the remote stream was opened with
+ * compression, see {@link IRemoteFile#getInputStream(String, boolean)}.
+ * <p>
+ * A remote stream of an older server, which cannot read blocks, is read byte
+ * by byte and without the checksum check.
+ */
 public class RemoteFileInputStream extends InputStream {
 
+    /**
+     * How many times a block is requested before a communication failure is
+     * reported
+     */
+    public static final int MAX_READ_ATTEMPTS = 3;
+
     IRemoteInputStream delegate = null;
 
+    private final int readAheadLength;
+
+    private byte[] buffer = null;
+
+    private int position = 0;
+
+    private boolean ended = false;
+
+    // the position in the remote file after the buffer
+    private long remotePosition = 0;
+
+    private final StreamChecksum checksum = new StreamChecksum();
+
+    private long transferredLength = 0;
+
+    // whether the remote stream only knows how to read single bytes
+    private boolean byteReads = false;
+
     public RemoteFileInputStream(IRemoteFile remoteFile) throws IOException {
-        delegate = remoteFile.getInputStream();
+        this(remoteFile, RMIConfig.DEFAULT_REMOTE_STREAM_READ_AHEAD_PARAM);
+    }
+
+    public RemoteFileInputStream(IRemoteFile remoteFile, int readAheadLength) throws IOException {
+        this(remoteFile.getInputStream(), readAheadLength);
+    }
+
+    public RemoteFileInputStream(IRemoteInputStream remoteInputStream, int readAheadLength) {
+        delegate = remoteInputStream;
+        this.readAheadLength = Math.max(1, readAheadLength);
+    }
+
+    private int buffered() {
+        return buffer == null ? 0 : buffer.length - position;
+    }
+
+    /**
+     * @return false if the end of the remote stream was reached
+     */
+    private boolean fill(int wanted) throws IOException {
+        if (ended) {
+            return false;
+        }
+        buffer = readBlock(Math.max(wanted, readAheadLength));
+        position = 0;
+        if (buffer == null) {
+            ended = true;
+            if (byteReads) {
+                return false;
+            }
+            String remoteChecksum = delegate.getChecksum();
+            String localChecksum = checksum.getChecksum();
+            if (!remoteChecksum.equalsIgnoreCase(localChecksum)) {
+                throw new IOException("Checksum mismatch after reading " + remotePosition + " bytes: the remote file has "
+                        + remoteChecksum + " but " + localChecksum + " was received");
+            }
+            return false;
+        }
+        checksum.update(buffer, 0, buffer.length);
+        remotePosition += buffer.length;
+        return true;
+    }
+
+    private byte[] readBlock(int maxLen) throws IOException {
+        if (byteReads) {
+            return readBytes(maxLen);
+        }
+        for (int attempt = 1;; attempt++) {
+            try {
+                StreamChunk chunk = delegate.readChunk(remotePosition, maxLen);
+                if (chunk == null) {
+                    return null;
+                }
+                transferredLength += chunk.getData().length;
+                return StreamCompression.decompress(chunk);
+            } catch (ServerException e) {
+                if (RMIConfig.isUnknownMethod(e) && remotePosition == 0) {
+                    byteReads = true;
+                    return readBytes(maxLen);
+                }
+                // the remote file itself failed, reading again will not help
+                throw e;
+            } catch (RemoteException e) {
+                if (attempt >= MAX_READ_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * A byte whose answer is lost cannot be read again, so these reads are not
+     * repeated.
+     */
+    private byte[] readBytes(int maxLen) throws IOException {
+        byte[] block = new byte[maxLen];
+        int length = 0;
+        while (length < maxLen) {
+            int read = delegate.read();
+            if (read == -1) {
+                break;
+            }
+            block[length++] = (byte) read;
+        }
+        if (length == 0) {
+            return null;
+        }
+        transferredLength += length;
+        if (length < maxLen) {
+            byte[] shorter = new byte[length];
+            System.arraycopy(block, 0, shorter, 0, length);
+            block = shorter;
+        }
+        return block;
+    }
+
+    /**
+     * @return the number of bytes of the file read so far
+     */
+    public long getLength() {
+        return remotePosition;
+    }
+
+    /**
+     * @return the number of bytes that went over the wire for the file read so
+     *         far, which is less than its length when compressed
+     */
+    public long getTransferredLength() {
+        return transferredLength;
     }
 
     /* (non-Javadoc)
@@ -16,6 +166,9 @@ public class RemoteFileInputStream extends InputStream {
      */
     @Override
     public int available() throws IOException {
+        if (buffered() > 0 || ended) {
+            return buffered();
+        }
         return delegate.available();
     }
 
@@ -24,6 +177,8 @@ public class RemoteFileInputStream extends InputStream {
      */
     @Override
     public void close() throws IOException {
+        buffer = null;
+        ended = true;
         delegate.close();
     }
 
@@ -32,7 +187,44 @@ public class RemoteFileInputStream extends InputStream {
      */
     @Override
     public int read() throws IOException {
-        return delegate.read();
+        while (buffered() == 0) {
+            if (!fill(1)) {
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (buffered() == 0) {
+            if (!fill(len)) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, buffered());
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, buffered());
+        position += (int) skipped;
+        if (skipped < n) {
+            skipped += super.skip(n - skipped);
+        }
+        return skipped;
     }
 
 }
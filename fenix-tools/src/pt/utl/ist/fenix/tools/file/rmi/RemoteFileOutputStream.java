@@ -1,24 +1,159 @@
 package pt.utl.ist.fenix.tools.file.rmi;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Writes to a remote file. By default every write is a synchronous remote
+ * call. When pipelined, the data is gathered in chunks that are sent by an
+ * executor, with up to a window of chunks in flight, so that the latency of
+ * each call overlaps with the reading and sending of the next ones. The
+ * remote stream puts the chunks back in order by their sequence numbers.
+ * <p>
+ * A failure of a pipelined chunk is reported by the next write, flush or
+ * close. A chunk whose sending failed on the way is sent again, as the remote
+ * stream ignores chunks it already has.
+ * <p>
+ * Pipelined chunks are compressed, by the executor, when compression is
+ * enabled and they compress well.
+ * <p>
+ * The checksum of everything written is sent on close, and the remote stream
+ * fails the close if the file does not match it. A remote stream of an older
+ * server, which does not take the checksum, is simply closed. Such a stream
+ * cannot be pipelined either.
+ */
 public class RemoteFileOutputStream extends OutputStream {
 
+    /**
+     * How many times a pipelined chunk is sent before a communication failure
+     * is reported
+     */
+    public static final int MAX_CHUNK_ATTEMPTS = 3;
+
     private IRemoteOutputStream remoteOutputStream = null;
 
+    private final StreamChecksum checksum = new StreamChecksum();
+
+    private boolean compression = false;
+
+    private final AtomicLong transferredLength = new AtomicLong();
+
+    // null when not pipelined
+    private final Executor executor;
+
+    private final int chunkSize;
+
+    private final int window;
+
+    private Semaphore inFlight;
+
+    private byte[] chunk;
+
+    private int chunkLength = 0;
+
+    private long sequence = 0;
+
+    private volatile IOException failure = null;
+
     public RemoteFileOutputStream(IRemoteFile remoteFile) throws IOException {
+        this(remoteFile, null, 0, 0);
+    }
+
+    /**
+     * @param executor runs the remote calls, null to write synchronously
+     * @param chunkSize the size of each remote call
+     * @param window the maximum number of chunks in flight
+     */
+    public RemoteFileOutputStream(IRemoteFile remoteFile, Executor executor, int chunkSize, int window) throws IOException {
+        this(openOutputStream(remoteFile), executor, chunkSize, window);
+    }
+
+    public RemoteFileOutputStream(IRemoteOutputStream remoteOutputStream, Executor executor, int chunkSize, int window) {
+        this.remoteOutputStream = remoteOutputStream;
+        this.executor = window > 1 ? executor : null;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.window = window;
+        if (this.executor != null) {
+            inFlight = new Semaphore(window);
+            chunk = new byte[this.chunkSize];
+        }
+    }
+
+    private static IRemoteOutputStream openOutputStream(IRemoteFile remoteFile) throws IOException {
         try {
-            remoteOutputStream = remoteFile.getOuputStream();
+            return remoteFile.getOuputStream();
         } catch (RemoteException e) {
             throw new IOException(e.getMessage());
         }
     }
 
+    /**
+     * Prepares a stream opened with {@link IRemoteFile#resumeOutputStream} to
+     * continue uploading the given content. The part of the content that is
+     * already in the remote file is read, so that it is part of the checksum,
+     * and the rest is left to be written. Must be called before any write.
+     * 
+     * @return the number of bytes already in the remote file
+     */
+    public long resume(InputStream content) throws IOException {
+        long offset = remoteOutputStream.length();
+        byte[] buffer = new byte[8192];
+        while (checksum.getLength() < offset) {
+            int read = content.read(buffer, 0, (int) Math.min(buffer.length, offset - checksum.getLength()));
+            if (read == -1) {
+                throw new IOException("The remote file has " + offset + " bytes, more than the content to upload");
+            }
+            checksum.update(buffer, 0, read);
+        }
+        return offset;
+    }
+
+    /**
+     * Enables the compression of pipelined chunks. Should be left off for
+     * files that are already compressed, see
+     * {@link StreamCompression#isCompressible(String)}.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return the number of bytes written so far, including those that were
+     *         already in a resumed remote file
+     */
+    public long getLength() {
+        return checksum.getLength();
+    }
+
+    /**
+     * @return the number of bytes of pipelined chunks that went over the wire
+     *         so far, which is less than their length when compressed
+     */
+    public long getTransferredLength() {
+        return transferredLength.get();
+    }
+
+    public boolean isPipelined() {
+        return executor != null;
+    }
+
     @Override
     public void write(int b) throws IOException {
-        remoteOutputStream.write(b);
+        checksum.update((byte) b);
+        if (!isPipelined()) {
+            remoteOutputStream.write(b);
+            return;
+        }
+        chunk[chunkLength++] = (byte) b;
+        if (chunkLength == chunkSize) {
+            sendChunk();
+        }
     }
 
     /* (non-Javadoc)
@@ -26,7 +161,18 @@ public class RemoteFileOutputStream extends OutputStream {
      */
     @Override
     public void close() throws IOException {
-        remoteOutputStream.close();
+        if (isPipelined()) {
+            sendChunk();
+            awaitChunks();
+        }
+        try {
+            remoteOutputStream.close(checksum.getChecksum());
+        } catch (ServerException e) {
+            if (!RMIConfig.isUnknownMethod(e)) {
+                throw e;
+            }
+            remoteOutputStream.close();
+        }
     }
 
     /* (non-Javadoc)
@@ -34,6 +180,10 @@ public class RemoteFileOutputStream extends OutputStream {
      */
     @Override
     public void flush() throws IOException {
+        if (isPipelined()) {
+            sendChunk();
+            awaitChunks();
+        }
         remoteOutputStream.flush();
     }
 
@@ -42,7 +192,21 @@ public class RemoteFileOutputStream extends OutputStream {
      */
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        remoteOutputStream.write(b, off, len);
+        checksum.update(b, off, len);
+        if (!isPipelined()) {
+            remoteOutputStream.write(b, off, len);
+            return;
+        }
+        while (len > 0) {
+            int count = Math.min(len, chunkSize - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, count);
+            chunkLength += count;
+            off += count;
+            len -= count;
+            if (chunkLength == chunkSize) {
+                sendChunk();
+            }
+        }
     }
 
     /* (non-Javadoc)
@@ -50,7 +214,100 @@ public class RemoteFileOutputStream extends OutputStream {
      */
     @Override
     public void write(byte[] b) throws IOException {
-        remoteOutputStream.write(b);
+        write(b, 0, b.length);
+    }
+
+    private void sendChunk() throws IOException {
+        if (failure != null) {
+            // the caller may resume the upload once no chunk is in flight
+            awaitChunks();
+        }
+        if (chunkLength == 0) {
+            return;
+        }
+        final byte[] data;
+        if (chunkLength == chunkSize) {
+            data = chunk;
+            chunk = new byte[chunkSize];
+        } else {
+            data = new byte[chunkLength];
+            System.arraycopy(chunk, 0, data, 0, chunkLength);
+        }
+        chunkLength = 0;
+        final long chunkSequence = sequence++;
+
+        acquire(1);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (failure == null) {
+                            writeChunk(chunkSequence, data);
+                        }
+                    } catch (RemoteException e) {
+                        fail(e);
+                    } catch (RuntimeException e) {
+                        fail(e);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void writeChunk(long chunkSequence, byte[] data) throws RemoteException {
+        StreamChunk streamChunk = compression ? StreamCompression.compress(data, 0, data.length) : null;
+        for (int attempt = 1;; attempt++) {
+            try {
+                if (streamChunk != null) {
+                    remoteOutputStream.write(chunkSequence, streamChunk);
+                } else {
+                    remoteOutputStream.write(chunkSequence, data);
+                }
+                transferredLength.addAndGet(streamChunk != null ? streamChunk.getData().length : data.length);
+                return;
+            } catch (ServerException e) {
+                // the remote file itself failed, sending again will not help
+                throw e;
+            } catch (RemoteException e) {
+                if (attempt >= MAX_CHUNK_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void awaitChunks() throws IOException {
+        acquire(window);
+        inFlight.release(window);
+        checkFailure();
+    }
+
+    private void acquire(int permits) throws IOException {
+        try {
+            inFlight.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending chunks to the remote stream");
+        }
+    }
+
+    private synchronized void fail(Exception e) {
+        if (failure == null) {
+            failure = new IOException("Error sending a chunk to the remote stream: " + e.getMessage());
+            failure.initCause(e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
     }
 
 }
@@ -1,45 +1,126 @@
 package pt.utl.ist.fenix.tools.file.rmi;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.rmi.RemoteException;
+import java.util.Arrays;
 
+/**
+ * Reads the file at explicit positions of its channel, so that a read whose
+ * answer was lost can be repeated. The checksum of the file is computed from
+ * the data as it is sent, and only the parts that were never read are read
+ * again to complete it.
+ */
 public class RemoteInputStreamImpl implements IRemoteInputStream, RemoteHandledStream {
 
+    /**
+     * The largest block returned by {@link #read(int)}, whatever the client
+     * asks for
+     */
+    public static final int MAX_BLOCK_LENGTH = 1024 * 1024;
+
     @SuppressWarnings("unused")
     private RemoteFileImpl remoteFileImpl;
     @SuppressWarnings("unused")
     private File underlyingFile;
-    private FileInputStream delegate = null;
+    private FileChannel delegate = null;
+
+    private long position = 0;
+
+    // covers the file from its start up to its length
+    private final StreamChecksum checksum = new StreamChecksum();
+
+    private String fileChecksum = null;
+
+    private final boolean compress;
 
     public RemoteInputStreamImpl(RemoteFileImpl remoteFileImpl, File underlyingFile) throws RemoteException {
+        this(remoteFileImpl, underlyingFile, false);
+    }
+
+    /**
+     * @param compress whether the blocks read with {@link #readChunk(long, int)}
+     *            should be compressed
+     */
+    public RemoteInputStreamImpl(RemoteFileImpl remoteFileImpl, File underlyingFile, boolean compress) throws RemoteException {
         this.remoteFileImpl = remoteFileImpl;
         this.underlyingFile = underlyingFile;
+        this.compress = compress;
         updateLastAccessedTime();
         try {
-            this.delegate = new FileInputStream(underlyingFile);
+            this.delegate = new RandomAccessFile(underlyingFile, "r").getChannel();
         } catch (FileNotFoundException e) {
             throw new RemoteException(e.getMessage(), e);
         }
     }
 
     @Override
-    public int read() throws RemoteException {
+    public synchronized int read() throws RemoteException {
+        byte[] block = read(position, 1);
+        return block == null ? -1 : block[0] & 0xff;
+    }
+
+    @Override
+    public synchronized byte[] read(int maxLen) throws RemoteException {
+        return read(position, maxLen);
+    }
+
+    @Override
+    public synchronized byte[] read(long from, int maxLen) throws RemoteException {
         updateLastAccessedTime();
+        ByteBuffer block = ByteBuffer.allocate(Math.max(1, Math.min(maxLen, MAX_BLOCK_LENGTH)));
         try {
-            return delegate.read();
+            int count = delegate.read(block, from);
+            if (count == -1) {
+                return null;
+            }
+            if (fileChecksum == null && from > checksum.getLength()) {
+                checksum.update(delegate, from);
+            }
+            if (fileChecksum == null && from + count > checksum.getLength()) {
+                int known = (int) (checksum.getLength() - from);
+                checksum.update(block.array(), known, count - known);
+            }
+            position = from + count;
+            return count == block.capacity() ? block.array() : Arrays.copyOf(block.array(), count);
         } catch (IOException e) {
             throw new RemoteException(e.getMessage(), e);
         }
     }
 
     @Override
-    public int available() throws RemoteException {
+    public StreamChunk readChunk(long from, int maxLen) throws RemoteException {
+        byte[] block = read(from, maxLen);
+        if (block == null) {
+            return null;
+        }
+        // compressed outside of the lock, the block is not shared
+        return compress ? StreamCompression.compress(block, 0, block.length) : new StreamChunk(block);
+    }
+
+    @Override
+    public synchronized String getChecksum() throws RemoteException {
+        updateLastAccessedTime();
+        if (fileChecksum == null) {
+            try {
+                checksum.update(delegate, delegate.size());
+            } catch (IOException e) {
+                throw new RemoteException(e.getMessage(), e);
+            }
+            fileChecksum = checksum.getChecksum();
+        }
+        return fileChecksum;
+    }
+
+    @Override
+    public synchronized int available() throws RemoteException {
         updateLastAccessedTime();
         try {
-            return delegate.available();
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, delegate.size() - position));
         } catch (IOException e) {
             throw new RemoteException(e.getMessage(), e);
         }
@@ -2,80 +2,185 @@ package pt.utl.ist.fenix.tools.file.rmi;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.rmi.RemoteException;
-
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Writes the file at explicit positions of its channel, keeping the checksum
+ * of everything written so far, so that the writer can check the file when it
+ * closes the stream and resume an interrupted upload from its length.
+ */
 public class RemoteOutputStreamImpl implements IRemoteOutputStream, RemoteHandledStream {
 
     @SuppressWarnings("unused")
     private RemoteFileImpl remoteFileImpl;
     @SuppressWarnings("unused")
     private File underlyingFile;
-    private FileOutputStream delegate = null;
+    private FileChannel delegate = null;
+
+    private long position = 0;
+
+    private final StreamChecksum checksum = new StreamChecksum();
+
+    // chunks of a pipelined upload that arrived before their predecessors
+    private final SortedMap<Long, byte[]> pendingChunks = new TreeMap<Long, byte[]>();
+
+    private long nextSequence = 0;
 
     public RemoteOutputStreamImpl(RemoteFileImpl remoteFileImpl, File underlyingFile) throws RemoteException {
+        this(remoteFileImpl, underlyingFile, false);
+    }
+
+    /**
+     * @param resume whether to keep the current content of the file and write
+     *            after it, instead of truncating it
+     */
+    public RemoteOutputStreamImpl(RemoteFileImpl remoteFileImpl, File underlyingFile, boolean resume) throws RemoteException {
         this.remoteFileImpl = remoteFileImpl;
         this.underlyingFile = underlyingFile;
         updateLastAccessedTime();
         try {
-            this.delegate = new FileOutputStream(underlyingFile);
+            this.delegate = new RandomAccessFile(underlyingFile, "rw").getChannel();
+            if (resume) {
+                position = delegate.size();
+                checksum.update(delegate, position);
+            } else {
+                delegate.truncate(0);
+            }
         } catch (FileNotFoundException e) {
             throw new RemoteException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new RemoteException(e.getMessage(), e);
         }
     }
 
+    private void writeAtPosition(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            position += delegate.write(buffer, position);
+        }
+        checksum.update(b, off, len);
+    }
+
     @Override
     public void flush() throws RemoteException {
+        updateLastAccessedTime();
+        // the channel does not buffer
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws RemoteException {
         updateLastAccessedTime();
         try {
-            delegate.flush();
+            writeAtPosition(b, off, len);
         } catch (IOException e) {
             throw new RemoteException(e.getMessage(), e);
         }
     }
 
+    /**
+     * A chunk sent again, because the answer to its first sending was lost,
+     * is ignored.
+     */
     @Override
-    public void write(byte[] b, int off, int len) throws RemoteException {
+    public synchronized void write(long sequence, byte[] b) throws RemoteException {
         updateLastAccessedTime();
+        if (sequence < nextSequence || pendingChunks.containsKey(sequence)) {
+            return;
+        }
+        pendingChunks.put(sequence, b);
         try {
-            delegate.write(b, off, len);
+            while (!pendingChunks.isEmpty() && pendingChunks.firstKey() == nextSequence) {
+                byte[] chunk = pendingChunks.remove(nextSequence);
+                writeAtPosition(chunk, 0, chunk.length);
+                nextSequence++;
+            }
         } catch (IOException e) {
             throw new RemoteException(e.getMessage(), e);
         }
     }
 
     @Override
-    public void write(int b) throws RemoteException {
-        updateLastAccessedTime();
+    public void write(long sequence, StreamChunk chunk) throws RemoteException {
+        byte[] data;
         try {
-            delegate.write(b);
+            data = StreamCompression.decompress(chunk);
         } catch (IOException e) {
             throw new RemoteException(e.getMessage(), e);
         }
+        write(sequence, data);
     }
 
     @Override
-    public void close() throws RemoteException {
+    public synchronized void write(int b) throws RemoteException {
         updateLastAccessedTime();
         try {
-            delegate.close();
-            hasEnded = true;
-            RMIConfig.unExportObject(this);
+            writeAtPosition(new byte[] { (byte) b }, 0, 1);
         } catch (IOException e) {
             throw new RemoteException(e.getMessage(), e);
         }
+    }
 
+    @Override
+    public synchronized long length() throws RemoteException {
+        updateLastAccessedTime();
+        return position;
     }
 
     @Override
-    public void write(byte[] b) throws RemoteException {
+    public void close() throws RemoteException {
+        close(null);
+    }
+
+    /**
+     * The file is released and the stream unexported even when it fails, as
+     * when chunks are missing. The content written before the first missing
+     * chunk is kept, so that the upload can be resumed.
+     */
+    @Override
+    public void close(String expectedChecksum) throws RemoteException {
         updateLastAccessedTime();
+        String missingChunk = null;
+        String actualChecksum;
+        synchronized (this) {
+            if (!pendingChunks.isEmpty()) {
+                missingChunk = "Chunk " + nextSequence + " is missing from " + underlyingFile.getName();
+                pendingChunks.clear();
+            }
+            actualChecksum = checksum.getChecksum();
+        }
         try {
-            delegate.write(b);
+            try {
+                delegate.force(false);
+            } finally {
+                hasEnded = true;
+                try {
+                    delegate.close();
+                } finally {
+                    RMIConfig.unExportObject(this);
+                }
+            }
         } catch (IOException e) {
             throw new RemoteException(e.getMessage(), e);
         }
+        if (missingChunk != null) {
+            throw new RemoteException(missingChunk);
+        }
+        if (expectedChecksum != null && !expectedChecksum.equalsIgnoreCase(actualChecksum)) {
+            underlyingFile.delete();
+            throw new RemoteException("Checksum mismatch for " + underlyingFile.getName() + ": sent " + expectedChecksum
+                    + " but received " + actualChecksum);
+        }
+    }
+
+    @Override
+    public void write(byte[] b) throws RemoteException {
+        write(b, 0, b.length);
     }
 
     private long lastAccessTime = 0L;
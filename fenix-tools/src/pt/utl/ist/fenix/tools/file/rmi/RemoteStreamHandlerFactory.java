@@ -15,7 +15,7 @@ public class RemoteStreamHandlerFactory {
     public static final String REMOTE_STREAM_HANDLER_MAX_IDLE_INTERVAL_KEY = "remote.streams.handler.max.idle.interval";
 
     private static RemoteStreamHandlerFactory instance = new RemoteStreamHandlerFactory();
-    private RemoteStreamsHandlerImpl remoteStreamHandler = null;
+    private volatile RemoteStreamsHandlerImpl remoteStreamHandler = null;
 
     public static RemoteStreamHandlerFactory getInstance() {
         return instance;
@@ -56,6 +56,30 @@ public class RemoteStreamHandlerFactory {
         getInstance().getRemoteStreamsHandler().unManageStream(stream);
     }
 
+    /**
+     * @return the number of remote streams being managed
+     */
+    public static int getActiveStreamCount() {
+        RemoteStreamsHandlerImpl handler = getInstance().remoteStreamHandler;
+        return handler == null ? 0 : handler.getActiveStreamCount();
+    }
+
+    /**
+     * @return the number of remote streams destroyed for being idle
+     */
+    public static long getExpiredStreamCount() {
+        RemoteStreamsHandlerImpl handler = getInstance().remoteStreamHandler;
+        return handler == null ? 0 : handler.getExpiredStreamCount();
+    }
+
+    /**
+     * @return the number of remote streams closed by their users
+     */
+    public static long getClosedStreamCount() {
+        RemoteStreamsHandlerImpl handler = getInstance().remoteStreamHandler;
+        return handler == null ? 0 : handler.getClosedStreamCount();
+    }
+
     public static void shutdown() {
         if (getInstance().remoteStreamHandler != null) {
             getInstance().remoteStreamHandler.stopNow();
@@ -1,19 +1,68 @@
 package pt.utl.ist.fenix.tools.file.rmi;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Destroys the managed streams that have not been used for longer than the
+ * timeout.
+ * <p>
+ * Each stream is kept with its deadline in a queue ordered by deadline, which
+ * only this thread touches. Registering a stream just hands it over through a
+ * concurrent queue. Accessing a stream only updates its last access time, and
+ * when its deadline comes the stream is either destroyed or put back with the
+ * deadline given by its last access, so the thread only wakes up for streams
+ * that may have expired.
+ */
 public class RemoteStreamsHandlerImpl extends Thread {
 
     private volatile boolean stop = false;
 
-    private List<RemoteHandledStream> remoteStreams = new ArrayList<RemoteHandledStream>();
-
     private long timeout = 1000L;
 
     private long checkInterval = 100L;
 
+    // the deadlines of the streams, only used by this thread
+    private final PriorityQueue<ManagedStream> deadlines = new PriorityQueue<ManagedStream>();
+
+    private final Queue<ManagedStream> registered = new ConcurrentLinkedQueue<ManagedStream>();
+
+    private final ConcurrentMap<RemoteHandledStream, ManagedStream> remoteStreams =
+            new ConcurrentHashMap<RemoteHandledStream, ManagedStream>();
+
+    private final AtomicLong expiredStreams = new AtomicLong();
+
+    private final AtomicLong closedStreams = new AtomicLong();
+
+    private static class ManagedStream implements Comparable<ManagedStream> {
+        private final RemoteHandledStream stream;
+
+        private long deadline;
+
+        private volatile boolean unManaged = false;
+
+        public ManagedStream(RemoteHandledStream stream, long deadline) {
+            this.stream = stream;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(ManagedStream other) {
+            return deadline < other.deadline ? -1 : (deadline == other.deadline ? 0 : 1);
+        }
+    }
+
+    /**
+     * @param checkInterval the longest time the thread sleeps when there are
+     *            no streams to manage, if shorter than the timeout
+     */
     public RemoteStreamsHandlerImpl(long timeout, long checkInterval) {
         super("RemoteStreamsHandlerThread");
         this.timeout = timeout;
@@ -23,76 +72,93 @@ public class RemoteStreamsHandlerImpl extends Thread {
     @Override
     public void run() {
         while (!stop) {
-            synchronized (remoteStreams) {
-                try {
-                    remoteStreams.wait(checkInterval);
-                } catch (InterruptedException ignored) {
-                }
-
-                if (stop) {
-                    break;
-                }
-
-                ArrayList<RemoteHandledStream> toRemove = new ArrayList<RemoteHandledStream>(remoteStreams.size());
-
-                for (RemoteHandledStream ref : remoteStreams) {
-                    if (stop) {
-                        break;
-                    }
-
-                    if (ref == null) {
-                        toRemove.add(ref);
-                    } else {
-                        if (System.currentTimeMillis() - ref.getLastAccessTime() >= timeout && !ref.hasEnded()) {
-                            try {
-                                ref.destroy();
-                            } catch (IOException ignored) {
-                            }
-                            toRemove.add(ref);
-                        } else if (ref.hasEnded()) {
-                            toRemove.add(ref);
-                        }
-                    }
-                }
-
-                remoteStreams.removeAll(toRemove);
+            ManagedStream managed;
+            while ((managed = registered.poll()) != null) {
+                deadlines.add(managed);
+            }
+
+            long now = System.currentTimeMillis();
+            while (!stop && !deadlines.isEmpty() && deadlines.peek().deadline <= now) {
+                check(deadlines.poll(), now);
             }
 
+            if (stop) {
+                break;
+            }
+            // streams registered meanwhile expire after the ones already known,
+            // and no sooner than the timeout
+            long sleep = deadlines.isEmpty() ? Math.min(checkInterval, timeout) : deadlines.peek().deadline - now;
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(1, sleep)));
         }
     }
 
-    public void stopNow() {
-        synchronized (remoteStreams) {
-            stop = true;
-            remoteStreams.notify();
+    private void check(ManagedStream managed, long now) {
+        if (managed.unManaged) {
+            return;
+        }
+        RemoteHandledStream stream = managed.stream;
+        if (stream.hasEnded()) {
+            remoteStreams.remove(stream, managed);
+            closedStreams.incrementAndGet();
+        } else if (now - stream.getLastAccessTime() >= timeout) {
+            try {
+                stream.destroy();
+            } catch (IOException ignored) {
+            }
+            remoteStreams.remove(stream, managed);
+            expiredStreams.incrementAndGet();
+        } else {
+            managed.deadline = stream.getLastAccessTime() + timeout;
+            deadlines.add(managed);
         }
     }
 
+    public void stopNow() {
+        stop = true;
+        LockSupport.unpark(this);
+    }
+
     public void manageStream(RemoteHandledStream newStream) {
-        synchronized (remoteStreams) {
-            remoteStreams.add(newStream);
-            remoteStreams.notify();
+        if (newStream == null) {
+            return;
         }
+        ManagedStream managed = new ManagedStream(newStream, System.currentTimeMillis() + timeout);
+        ManagedStream previous = remoteStreams.put(newStream, managed);
+        if (previous != null) {
+            previous.unManaged = true;
+        }
+        registered.add(managed);
     }
 
     public void unManageStream(RemoteHandledStream stream) {
-        ArrayList<RemoteHandledStream> toRemove = new ArrayList<RemoteHandledStream>(remoteStreams.size());
-        ArrayList<RemoteHandledStream> originalList = new ArrayList<RemoteHandledStream>(remoteStreams.size());
-        synchronized (remoteStreams) {
-            originalList.addAll(remoteStreams);
-        }
-        for (RemoteHandledStream ref : originalList) {
-            if (ref == null) {
-                toRemove.add(ref);
-            } else if (ref == stream) {
-                toRemove.add(ref);
-            }
+        if (stream == null) {
+            return;
         }
-        synchronized (remoteStreams) {
-            remoteStreams.removeAll(toRemove);
-            remoteStreams.notify();
+        ManagedStream managed = remoteStreams.remove(stream);
+        if (managed != null) {
+            managed.unManaged = true;
         }
+    }
+
+    /**
+     * @return the number of streams being managed
+     */
+    public int getActiveStreamCount() {
+        return remoteStreams.size();
+    }
+
+    /**
+     * @return the number of streams destroyed for being idle
+     */
+    public long getExpiredStreamCount() {
+        return expiredStreams.get();
+    }
 
+    /**
+     * @return the number of streams that were closed by their users
+     */
+    public long getClosedStreamCount() {
+        return closedStreams.get();
     }
 
 }
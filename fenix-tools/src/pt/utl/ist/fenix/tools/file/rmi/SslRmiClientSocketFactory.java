@@ -6,11 +6,38 @@ import java.net.Socket;
 import java.rmi.server.RMIClientSocketFactory;
 
 import javax.net.SocketFactory;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
 import javax.rmi.ssl.SslRMIClientSocketFactory;
 
 import pt.utl.ist.fenix.tools.file.utils.FileUtils;
 
+/**
+ * Every copy of this factory is equal, so that RMI keeps a single pool of
+ * connections to each server for all the remote objects it exports, instead of
+ * one per deserialized stub. The SSL contexts are shared through
+ * {@link RMIConfig}, so a new connection resumes the session of a previous one
+ * instead of making a full handshake.
+ */
 public class SslRmiClientSocketFactory implements RMIClientSocketFactory, Serializable {
+
+    // marks the sessions that were already established once
+    private static final String ESTABLISHED_SESSION = SslRmiClientSocketFactory.class.getName() + ".established";
+
+    private static final HandshakeCompletedListener HANDSHAKE_COUNTER = new HandshakeCompletedListener() {
+        @Override
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            SSLSession session = event.getSession();
+            boolean resumed = session.getValue(ESTABLISHED_SESSION) != null;
+            if (!resumed) {
+                session.putValue(ESTABLISHED_SESSION, Boolean.TRUE);
+            }
+            RMIConfig.getInstance().countHandshake(resumed);
+        }
+    };
+
     transient SocketFactory delegate = null;
 
     transient SslRMIClientSocketFactory defaultDispatch = null;
@@ -21,11 +48,27 @@ public class SslRmiClientSocketFactory implements RMIClientSocketFactory, Serial
     @Override
     public Socket createSocket(String host, int port) throws IOException {
         initDelegate();
+        Socket socket;
         if (delegate != null) {
-            return delegate.createSocket(host, port);
+            socket = delegate.createSocket(host, port);
         } else {
-            return defaultDispatch.createSocket(host, port);
+            socket = defaultDispatch.createSocket(host, port);
+        }
+        RMIConfig.getInstance().countClientConnection();
+        if (socket instanceof SSLSocket) {
+            ((SSLSocket) socket).addHandshakeCompletedListener(HANDSHAKE_COUNTER);
         }
+        return socket;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj != null && obj.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
     }
 
     private void initDelegate() {
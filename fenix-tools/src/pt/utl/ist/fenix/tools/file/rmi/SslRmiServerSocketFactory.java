@@ -9,6 +9,10 @@ import javax.rmi.ssl.SslRMIServerSocketFactory;
 
 import pt.utl.ist.fenix.tools.file.utils.FileUtils;
 
+/**
+ * Every copy of this factory is equal, so that RMI can export the remote
+ * objects on a shared server socket.
+ */
 public class SslRmiServerSocketFactory implements RMIServerSocketFactory {
     transient ServerSocketFactory delegate = null;
     transient SslRMIServerSocketFactory defaultDispatch = null;
@@ -26,6 +30,16 @@ public class SslRmiServerSocketFactory implements RMIServerSocketFactory {
         }
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        return obj != null && obj.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+
     private void initDelegate() {
         if (delegate == null && defaultDispatch == null) {
             if (RMIConfig.getInstance().isValidKeyStore(RMIConfig.getInstance().getSslKeyStore())) {
@@ -0,0 +1,78 @@
+package pt.utl.ist.fenix.tools.file.rmi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The checksum of the data that went through a remote stream, computed as the
+ * data goes, so that both ends can compare it when the transfer ends.
+ */
+public class StreamChecksum {
+
+    public static final String ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+
+    private long length = 0;
+
+    public StreamChecksum() {
+        try {
+            this.digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Checksum algorithm not available: " + ALGORITHM, e);
+        }
+    }
+
+    public void update(byte b) {
+        digest.update(b);
+        length++;
+    }
+
+    public void update(byte[] b, int off, int len) {
+        digest.update(b, off, len);
+        length += len;
+    }
+
+    /**
+     * Adds the content of the channel between the current length and the
+     * given position.
+     */
+    public void update(FileChannel channel, long upTo) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (length < upTo) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), upTo - length));
+            int read = channel.read(buffer, length);
+            if (read == -1) {
+                throw new IOException("Unexpected end of file at " + length);
+            }
+            update(buffer.array(), 0, read);
+        }
+    }
+
+    /**
+     * @return the number of bytes in the checksum
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the hexadecimal checksum. Ends the digest, so it should only be
+     *         called once all the data was added.
+     */
+    public String getChecksum() {
+        byte[] bytes = digest.digest();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
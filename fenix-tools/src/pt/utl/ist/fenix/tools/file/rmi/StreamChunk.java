@@ -0,0 +1,43 @@
+package pt.utl.ist.fenix.tools.file.rmi;
+
+import java.io.Serializable;
+
+/**
+ * A block of a remote stream, as it goes over the wire, either as is or
+ * compressed with {@link StreamCompression}.
+ */
+public class StreamChunk implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] data;
+
+    private final int length;
+
+    private final boolean compressed;
+
+    public StreamChunk(byte[] data) {
+        this(data, data.length, false);
+    }
+
+    /**
+     * @param length the number of bytes of the chunk once uncompressed
+     */
+    public StreamChunk(byte[] data, int length, boolean compressed) {
+        this.data = data;
+        this.length = length;
+        this.compressed = compressed;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+}
@@ -0,0 +1,83 @@
+package pt.utl.ist.fenix.tools.file.rmi;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates the chunks of remote streams. A chunk is only sent compressed when
+ * that saves at least an eighth of it, so content that does not compress
+ * costs little more than the attempt, and files whose format is already
+ * compressed are not even tried.
+ */
+public class StreamCompression {
+
+    private static final Set<String> COMPRESSED_EXTENSIONS =
+            new HashSet<String>(Arrays.asList("zip", "jar", "war", "gz", "tgz", "bz2", "xz", "7z", "rar", "png", "jpg",
+                    "jpeg", "gif", "webp", "mp3", "mp4", "m4a", "m4v", "avi", "mov", "mpg", "mpeg", "ogg", "ogv", "webm", "flv",
+                    "swf", "docx", "xlsx", "pptx", "odt", "ods", "odp", "epub"));
+
+    private StreamCompression() {
+    }
+
+    /**
+     * @return false if the file name shows a format that is already compressed
+     */
+    public static boolean isCompressible(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot == -1 || !COMPRESSED_EXTENSIONS.contains(filename.substring(dot + 1).toLowerCase());
+    }
+
+    public static StreamChunk compress(byte[] data, int off, int len) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, off, len);
+            deflater.finish();
+            byte[] compressed = new byte[len - len / 8];
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < compressed.length) {
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            if (!deflater.finished()) {
+                byte[] raw = off == 0 && len == data.length ? data : Arrays.copyOfRange(data, off, off + len);
+                return new StreamChunk(raw);
+            }
+            return new StreamChunk(Arrays.copyOf(compressed, compressedLength), len, true);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static byte[] decompress(StreamChunk chunk) throws IOException {
+        if (!chunk.isCompressed()) {
+            return chunk.getData();
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(chunk.getData());
+            byte[] data = new byte[chunk.getLength()];
+            int length = 0;
+            while (length < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != data.length || !inflater.finished()) {
+                throw new IOException("Corrupted compressed chunk of " + chunk.getLength() + " bytes");
+            }
+            return data;
+        } catch (DataFormatException e) {
+            IOException ioe = new IOException("Corrupted compressed chunk: " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package pt.utl.ist.fenix.tools.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import pt.utl.ist.fenix.tools.file.dspace.DSpaceFileManager;
+import pt.utl.ist.fenix.tools.file.dspace.LocalDSpaceClient;
+import pt.utl.ist.fenix.tools.file.dspace.ScormFileManager;
+import pt.utl.ist.fenix.tools.file.utils.FileUtils;
+
+public class FileUploadQueueTest extends TestCase {
+
+    // the uploads saved, as "class:filename"
+    private static final List<String> saved = new ArrayList<String>();
+
+    private static volatile boolean unavailable = false;
+
+    private File directory;
+
+    private Properties properties;
+
+    private final List<AbstractFileManager> fileManagers = new ArrayList<AbstractFileManager>();
+
+    private static FileDescriptor save(AbstractFileManager fileManager, String filename) {
+        if (filename.startsWith("missing")) {
+            throw new FileManagerException("Unable to read " + filename, new FileNotFoundException(filename));
+        }
+        if (unavailable) {
+            throw new FileManagerException("Repository unavailable", new IOException("Connection refused"));
+        }
+        synchronized (saved) {
+            saved.add(fileManager.getClass().getSimpleName() + ":" + filename);
+        }
+        return new FileDescriptor(null, filename, "text/plain", null, null, 0, "1/2/" + filename);
+    }
+
+    public static class RecordingFileManager extends DSpaceFileManager {
+        public RecordingFileManager(Properties properties) {
+            super(properties);
+        }
+
+        @Override
+        public FileDescriptor saveFile(VirtualPath filePath, String originalFilename, boolean privateFile,
+                Collection<FileSetMetaData> fileMetadata, File fileToSave) {
+            return save(this, originalFilename);
+        }
+    }
+
+    public static class RecordingScormFileManager extends ScormFileManager {
+        public RecordingScormFileManager(Properties properties) {
+            super(properties);
+        }
+
+        @Override
+        public FileDescriptor saveFile(VirtualPath filePath, String originalFilename, boolean privateFile,
+                Collection<FileSetMetaData> fileMetadata, File fileToSave) {
+            return save(this, originalFilename);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = FileUtils.createTemporaryDir("upload_queue_", "_test");
+        properties = new Properties();
+        properties.setProperty("dspace.client.transport.class", LocalDSpaceClient.class.getName());
+        properties.setProperty(LocalDSpaceClient.DIRECTORY_PARAM, new File(directory, "dspace").getPath());
+        properties.setProperty(FileUploadQueue.DIRECTORY_PARAM, new File(directory, "queue").getPath());
+        properties.setProperty(FileUploadQueue.RETRY_DELAY_PARAM, "60000");
+        synchronized (saved) {
+            saved.clear();
+        }
+        unavailable = false;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (AbstractFileManager fileManager : fileManagers) {
+            fileManager.shutdown();
+        }
+        FileUtils.deleteDirectory(directory);
+        super.tearDown();
+    }
+
+    private AbstractFileManager createFileManager(boolean scorm) {
+        AbstractFileManager fileManager =
+                scorm ? new RecordingScormFileManager(properties) : new RecordingFileManager(properties);
+        fileManagers.add(fileManager);
+        return fileManager;
+    }
+
+    private FileUploadQueue.PendingUpload queue(AbstractFileManager fileManager, String filename) {
+        return fileManager.saveFileAsync(null, filename, false, new ArrayList<FileSetMetaData>(),
+                new ByteArrayInputStream(filename.getBytes()), null);
+    }
+
+    private static List<String> waitForSaved(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (saved) {
+                if (saved.size() >= count) {
+                    return new ArrayList<String>(saved);
+                }
+            }
+            Thread.sleep(20);
+        }
+        fail("Only " + saved + " were saved");
+        return null;
+    }
+
+    private static void waitForRetries(FileUploadQueue queue, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queue.getRetryCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(count, queue.getRetryCount());
+    }
+
+    public void testFileManagersWithTheSameDirectoryShareTheQueue() {
+        AbstractFileManager first = createFileManager(false);
+        AbstractFileManager second = createFileManager(true);
+        assertSame(first.getUploadQueue(), second.getUploadQueue());
+    }
+
+    public void testResumesEachUploadOnceThroughItsOwner() throws Exception {
+        unavailable = true;
+        AbstractFileManager fileManager = createFileManager(false);
+        AbstractFileManager scormFileManager = createFileManager(true);
+        queue(fileManager, "a.txt");
+        queue(fileManager, "b.txt");
+        queue(scormFileManager, "c.txt");
+        waitForRetries(fileManager.getUploadQueue(), 3);
+        fileManager.shutdown();
+        scormFileManager.shutdown();
+        unavailable = false;
+
+        // the uploads of the other class wait for a file manager of that class
+        AbstractFileManager resumedScorm = createFileManager(true);
+        assertEquals("[RecordingScormFileManager:c.txt]", waitForSaved(1).toString());
+        Thread.sleep(200);
+        assertEquals(1, saved.size());
+        assertEquals(2, resumedScorm.getUploadQueue().getPendingCount());
+
+        AbstractFileManager resumed = createFileManager(false);
+        createFileManager(false);
+        List<String> uploads = waitForSaved(3);
+        Thread.sleep(200);
+        assertEquals(3, saved.size());
+        assertTrue(uploads.contains("RecordingFileManager:a.txt"));
+        assertTrue(uploads.contains("RecordingFileManager:b.txt"));
+        assertEquals(0, resumed.getUploadQueue().getPendingCount());
+    }
+
+    public void testPermanentFailuresAreNotRetried() throws Exception {
+        AbstractFileManager fileManager = createFileManager(false);
+        FileUploadQueue.PendingUpload upload = queue(fileManager, "missing.txt");
+        try {
+            upload.get(10, TimeUnit.SECONDS);
+            fail("The upload of a missing file succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FileManagerException);
+        }
+        assertEquals(1, upload.getAttempts());
+        assertEquals(0, fileManager.getUploadQueue().getRetryCount());
+        assertTrue(new File(new File(new File(directory, "queue"), "failed"), upload.getId()).isDirectory());
+    }
+
+    public void testInvalidPropertiesFallBackToTheDefault() {
+        properties.setProperty(FileUploadQueue.THREADS_PARAM, "two");
+        AbstractFileManager fileManager = createFileManager(false);
+        assertEquals(2, fileManager.getIntProperty(FileUploadQueue.THREADS_PARAM, 2));
+        assertEquals(3L, fileManager.getLongProperty(FileUploadQueue.THREADS_PARAM, 3L));
+    }
+}
@@ -0,0 +1,180 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import pt.utl.ist.fenix.tools.file.FileDescriptor;
+import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
+import pt.utl.ist.fenix.tools.file.utils.FileUtils;
+
+public class DSpaceFileContentCacheTest extends TestCase {
+
+    private File directory;
+
+    private DSpaceFileManager fileManager;
+
+    private DSpaceFileContentCache cache;
+
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    // when set, the downloads of "slow" wait for release after counting down started
+    private volatile CountDownLatch started;
+
+    private volatile CountDownLatch release;
+
+    private ExecutorService executor;
+
+    /**
+     * Each file holds ten bytes that depend on its unique id.
+     */
+    private static byte[] contentOf(String uniqueId) {
+        byte[] content = new byte[10];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (uniqueId.hashCode() + i);
+        }
+        return content;
+    }
+
+    private static String md5(byte[] content) throws Exception {
+        return String.format("%032x", new BigInteger(1, MessageDigest.getInstance("MD5").digest(content)));
+    }
+
+    private IDSpaceClient createClient() {
+        return (IDSpaceClient) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { IDSpaceClient.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("listAllDescriptorsFromRoot")) {
+                            String uniqueId = ((FileSetDescriptor) args[0]).getContentFileDescriptor(0).getUniqueId();
+                            byte[] content = contentOf(uniqueId);
+                            return new FileSetDescriptor(new FileDescriptor(null, uniqueId, "application/octet-stream",
+                                    md5(content), "MD5", content.length, uniqueId));
+                        }
+                        if (method.getName().equals("retrieveStreamForFile")) {
+                            downloads.incrementAndGet();
+                            if ("slow".equals(args[0])) {
+                                started.countDown();
+                                release.await(10, TimeUnit.SECONDS);
+                            }
+                            return new ByteArrayInputStream(contentOf((String) args[0]));
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = FileUtils.createTemporaryDir("file_cache_", "_test");
+        Properties properties = new Properties();
+        properties.setProperty("dspace.client.transport.class", LocalDSpaceClient.class.getName());
+        properties.setProperty(LocalDSpaceClient.DIRECTORY_PARAM, new File(directory, "dspace").getPath());
+        properties.setProperty(DSpaceFileContentCache.DIRECTORY_PARAM, new File(directory, "cache").getPath());
+        properties.setProperty(DSpaceFileContentCache.MAX_SIZE_PARAM, "25");
+        properties.setProperty(DSpaceFileContentCache.MAX_FILE_SIZE_PARAM, "10");
+        fileManager = new DSpaceFileManager(properties);
+        cache = new DSpaceFileContentCache(fileManager, createClient());
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        cache.shutdown();
+        fileManager.shutdown();
+        FileUtils.deleteDirectory(directory);
+        super.tearDown();
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[64];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return output.toByteArray();
+    }
+
+    private void assertRetrieves(String uniqueId) throws Exception {
+        byte[] expected = contentOf(uniqueId);
+        byte[] actual = read(cache.retrieve(uniqueId));
+        assertEquals(md5(expected), md5(actual));
+    }
+
+    private Future<byte[]> retrieveSlowly() throws InterruptedException {
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        Future<byte[]> fill = executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return read(cache.retrieve("slow"));
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return fill;
+    }
+
+    public void testEvictsTheLeastRecentlyUsedFile() throws Exception {
+        assertRetrieves("a");
+        assertRetrieves("b");
+        // a becomes the most recently used, so b goes first
+        assertRetrieves("a");
+        assertEquals(2, downloads.get());
+        assertRetrieves("c");
+        assertEquals(3, downloads.get());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getEntries());
+
+        assertRetrieves("a");
+        assertEquals(3, downloads.get());
+        assertRetrieves("b");
+        assertEquals(4, downloads.get());
+    }
+
+    public void testKeepsAFillWhenAnotherFileIsInvalidated() throws Exception {
+        Future<byte[]> fill = retrieveSlowly();
+        cache.invalidate("other");
+        release.countDown();
+        assertEquals(md5(contentOf("slow")), md5(fill.get(10, TimeUnit.SECONDS)));
+        assertEquals(1, cache.getEntries());
+
+        assertRetrieves("slow");
+        assertEquals(1, downloads.get());
+    }
+
+    public void testDoesNotKeepAFillOfAnInvalidatedFile() throws Exception {
+        Future<byte[]> fill = retrieveSlowly();
+        cache.invalidate("slow");
+        release.countDown();
+        // the caller still gets what it asked for, but it is not kept
+        assertEquals(md5(contentOf("slow")), md5(fill.get(10, TimeUnit.SECONDS)));
+        assertEquals(0, cache.getEntries());
+
+        assertRetrieves("slow");
+        assertEquals(2, downloads.get());
+        assertEquals(1, cache.getEntries());
+    }
+}
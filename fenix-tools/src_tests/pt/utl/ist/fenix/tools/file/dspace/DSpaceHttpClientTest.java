@@ -0,0 +1,167 @@
+package pt.utl.ist.fenix.tools.file.dspace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+import pt.utl.ist.fenix.tools.file.FileDescriptor;
+import pt.utl.ist.fenix.tools.file.FileSetDescriptor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class DSpaceHttpClientTest extends TestCase {
+
+    private static final List<String> BATCH_METHODS = Arrays.asList("deleteFileSets", "changeFileSetsPermissions",
+            "listRecursiveFileSets", "getRootDescriptors");
+
+    private static final Pattern METHOD_PART = Pattern.compile("name=\"method\".*?\r\n\r\n(\\w+)\r\n", Pattern.DOTALL);
+
+    private HttpServer server;
+
+    private DSpaceFileManager fileManager;
+
+    private DSpaceHttpClient client;
+
+    // the methods called on the server, in order
+    private final List<String> calls = new ArrayList<String>();
+
+    // how the server answers the batched methods: a status code or a response code
+    private volatile Object batchAnswer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/DSpaceHTTPRemoteManagerServlet", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = read(exchange.getRequestBody());
+                Matcher matcher = METHOD_PART.matcher(body);
+                String method = matcher.find() ? matcher.group(1) : null;
+                synchronized (calls) {
+                    calls.add(method);
+                }
+                answer(exchange, method, body);
+            }
+        });
+        server.start();
+
+        Properties properties = new Properties();
+        properties.setProperty("dspace.client.transport.class", DSpaceHttpClient.class.getName());
+        properties.setProperty("dspace.serverUrl", "http://localhost:" + server.getAddress().getPort());
+        properties.setProperty("dspace.username", "user");
+        properties.setProperty("dspace.password", "pass");
+        fileManager = new DSpaceFileManager(properties);
+        client = new DSpaceHttpClient();
+        client.init(fileManager);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        client.shutdown();
+        fileManager.shutdown();
+        server.stop(0);
+        super.tearDown();
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toString("ISO-8859-1");
+    }
+
+    private void answer(HttpExchange exchange, String method, String body) throws IOException {
+        String response;
+        if (BATCH_METHODS.contains(method)) {
+            if (batchAnswer instanceof Integer) {
+                exchange.sendResponseHeaders((Integer) batchAnswer, -1);
+                exchange.close();
+                return;
+            }
+            response = batchAnswer + "\n" + method;
+        } else if (method.equals("deleteFileSet")) {
+            response = "SUCCESS\n" + new FileSetDeleteResponse(body.contains("broken") ? "Item not found" : null).toXMLString();
+        } else if (method.equals("changeFileSetPermissions")) {
+            response = "SUCCESS\n" + new FileSetPermissionChangeResponse().toXMLString();
+        } else {
+            response = "UNKNOWN_METHOD\n" + method;
+        }
+        byte[] bytes = response.getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(bytes);
+        output.close();
+    }
+
+    private static FileSetDescriptor descriptor(String uniqueId) {
+        return new FileSetDescriptor(new FileDescriptor(null, uniqueId, "text/plain", null, null, 0, uniqueId));
+    }
+
+    private List<String> takeCalls() {
+        synchronized (calls) {
+            List<String> taken = new ArrayList<String>(calls);
+            calls.clear();
+            return taken;
+        }
+    }
+
+    public void testRunsEachDescriptorWhenTheServerDoesNotKnowTheMethod() throws Exception {
+        batchAnswer = "UNKNOWN_METHOD";
+        List<FileSetBatchResult> results = client.deleteFileSets(Arrays.asList(descriptor("1/2/a"), descriptor("1/2/broken")));
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertEquals("[deleteFileSets, deleteFileSet, deleteFileSet]", takeCalls().toString());
+
+        // the unsupported method is remembered
+        client.deleteFileSets(Arrays.asList(descriptor("1/2/c")));
+        assertEquals("[deleteFileSet]", takeCalls().toString());
+    }
+
+    public void testRunsEachDescriptorWhenTheServerAnswersNotImplemented() throws Exception {
+        batchAnswer = 501;
+        List<FileSetBatchResult> results =
+                client.changeFileSetsPermissions(Arrays.asList(descriptor("1/2/a"), descriptor("1/2/b")), true);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(1).isSuccess());
+        assertEquals("[changeFileSetsPermissions, changeFileSetPermissions, changeFileSetPermissions]", takeCalls()
+                .toString());
+    }
+
+    public void testOtherErrorsDoNotFallBack() throws Exception {
+        batchAnswer = "DSPACE_INTERNAL_ERROR";
+        try {
+            client.deleteFileSets(Arrays.asList(descriptor("1/2/a")));
+            fail("The error of the batched method was not reported");
+        } catch (DSpaceClientException e) {
+            assertFalse(e instanceof UnknownRemoteMethodException);
+        }
+        assertEquals("[deleteFileSets]", takeCalls().toString());
+
+        // nor is the batched method given up
+        batchAnswer = 500;
+        try {
+            client.deleteFileSets(Arrays.asList(descriptor("1/2/a")));
+            fail("The error of the batched method was not reported");
+        } catch (DSpaceClientException e) {
+            assertFalse(e instanceof UnknownRemoteMethodException);
+        }
+        assertEquals("[deleteFileSets]", takeCalls().toString());
+    }
+}